@@ -0,0 +1,227 @@
+/*
+ * Poison Ivy - Java Library Dependency Resolver and Application Launcher 
+ *
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.poisonivy;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * File based Ivy repositories of generated modules, each with a single jar,
+ * with the ivy settings to resolve from them into a private Ivy cache and an
+ * ivy file depending upon every module. The modules are spread across the
+ * repositories, which are chained should there be more than one. The
+ * repositories may be served over HTTP by {@link HttpRepositoryFixture}s.
+ */
+public class FileRepositoryFixture {
+	private static final String ORGANISATION = "com.github.mrstampy.benchmark";
+	private static final String REVISION = "1.0";
+
+	private File root;
+	private File[] repositories;
+	private File cache;
+	private File ivyFile;
+	private File settingsFile;
+	private File libdir;
+
+	/**
+	 * Creates the repository in a new temp directory.
+	 *
+	 * @param modules
+	 *          the number of modules
+	 * @param jarSize
+	 *          the size of each jar in bytes
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public FileRepositoryFixture(int modules, int jarSize) throws IOException {
+		this(modules, jarSize, 1);
+	}
+
+	/**
+	 * Creates the repositories in a new temp directory.
+	 *
+	 * @param modules
+	 *          the number of modules
+	 * @param jarSize
+	 *          the size of each jar in bytes
+	 * @param repositories
+	 *          the number of repositories the modules are spread across
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public FileRepositoryFixture(int modules, int jarSize, int repositories) throws IOException {
+		root = Files.createTempDirectory("poisonivy-repository").toFile();
+		this.repositories = new File[Math.max(1, repositories)];
+		for (int i = 0; i < this.repositories.length; i++) {
+			this.repositories[i] = new File(root, this.repositories.length == 1 ? "repository" : "repository" + i);
+		}
+		cache = new File(root, "cache");
+		ivyFile = new File(root, "ivy.xml");
+		settingsFile = new File(root, "ivysettings.xml");
+		libdir = new File(root, "ivylib");
+
+		Random random = new Random(modules);
+		StringBuilder dependencies = new StringBuilder();
+		for (int i = 0; i < modules; i++) {
+			String module = "module" + i;
+			createModule(this.repositories[i % this.repositories.length], module, jarSize, random);
+			dependencies.append("\t\t<dependency org=\"").append(ORGANISATION).append("\" name=\"").append(module)
+					.append("\" rev=\"").append(REVISION).append("\"/>\n");
+		}
+
+		write(ivyFile, "<ivy-module version=\"2.0\">\n\t<info organisation=\"" + ORGANISATION
+				+ "\" module=\"application\"/>\n\t<dependencies>\n" + dependencies + "\t</dependencies>\n</ivy-module>\n");
+
+		String[] roots = new String[this.repositories.length];
+		for (int i = 0; i < roots.length; i++) {
+			roots[i] = this.repositories[i].getAbsolutePath();
+		}
+
+		writeSettings("filesystem", roots);
+	}
+
+	/**
+	 * Rewrites the ivy settings to resolve from the repositories served over
+	 * HTTP, one URL resolver for each.
+	 *
+	 * @param servers
+	 *          the servers, in the order of {@link #getRepositories()}
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public void useHttp(List<HttpRepositoryFixture> servers) throws IOException {
+		String[] roots = new String[servers.size()];
+		for (int i = 0; i < roots.length; i++) {
+			roots[i] = servers.get(i).getRoot();
+		}
+
+		writeSettings("url", roots);
+	}
+
+	private void writeSettings(String type, String[] roots) throws IOException {
+		StringBuilder resolvers = new StringBuilder();
+		for (int i = 0; i < roots.length; i++) {
+			String name = roots.length == 1 ? "fixture" : "fixture" + i;
+			String base = roots[i] + "/[organisation]/[module]/[revision]/";
+			resolvers.append("\t\t<").append(type).append(" name=\"").append(name).append("\">\n\t\t\t<ivy pattern=\"")
+					.append(base).append("ivy-[revision].xml\"/>\n\t\t\t<artifact pattern=\"").append(base)
+					.append("[artifact]-[revision].[ext]\"/>\n\t\t</").append(type).append(">\n");
+		}
+
+		if (roots.length > 1) {
+			resolvers.insert(0, "\t\t<chain name=\"fixture\" returnFirst=\"true\">\n").append("\t\t</chain>\n");
+		}
+
+		write(settingsFile, "<ivysettings>\n\t<settings defaultResolver=\"fixture\"/>\n\t<caches defaultCacheDir=\""
+				+ cache.getAbsolutePath() + "\"/>\n\t<resolvers>\n" + resolvers + "\t</resolvers>\n</ivysettings>\n");
+	}
+
+	private void createModule(File repository, String module, int jarSize, Random random) throws IOException {
+		File dir = new File(repository, ORGANISATION + File.separator + module + File.separator + REVISION);
+		if (!dir.mkdirs()) throw new IOException("Could not create " + dir);
+
+		write(new File(dir, "ivy-" + REVISION + ".xml"), "<ivy-module version=\"2.0\">\n\t<info organisation=\""
+				+ ORGANISATION + "\" module=\"" + module + "\" revision=\"" + REVISION + "\" status=\"release\"/>\n</ivy-module>\n");
+
+		byte[] jar = new byte[jarSize];
+		random.nextBytes(jar);
+
+		OutputStream out = new FileOutputStream(new File(dir, module + "-" + REVISION + ".jar"));
+		try {
+			out.write(jar);
+		} finally {
+			out.close();
+		}
+	}
+
+	private void write(File file, String contents) throws IOException {
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			writer.write(contents);
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Deletes the Ivy cache.
+	 */
+	public void clearCache() {
+		IncrementalRetrieval.deleteRecursively(cache);
+	}
+
+	/**
+	 * Deletes the library directory.
+	 */
+	public void clearLibdir() {
+		IncrementalRetrieval.deleteRecursively(libdir);
+	}
+
+	/**
+	 * Deletes the repository, cache and library directory.
+	 */
+	public void delete() {
+		IncrementalRetrieval.deleteRecursively(root);
+	}
+
+	/**
+	 * Gets the ivy file.
+	 *
+	 * @return the ivy file
+	 */
+	public File getIvyFile() {
+		return ivyFile;
+	}
+
+	/**
+	 * Gets the ivy settings file.
+	 *
+	 * @return the settings file
+	 */
+	public File getSettingsFile() {
+		return settingsFile;
+	}
+
+	/**
+	 * Gets the repository directories.
+	 *
+	 * @return the repositories
+	 */
+	public File[] getRepositories() {
+		return repositories;
+	}
+
+	/**
+	 * Gets the library directory.
+	 *
+	 * @return the libdir
+	 */
+	public File getLibdir() {
+		return libdir;
+	}
+}
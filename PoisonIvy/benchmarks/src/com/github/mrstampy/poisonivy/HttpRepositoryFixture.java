@@ -0,0 +1,177 @@
+/*
+ * Poison Ivy - Java Library Dependency Resolver and Application Launcher 
+ *
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.poisonivy;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves a directory of a {@link FileRepositoryFixture} over HTTP on the
+ * loopback interface, delaying each response by a fixed latency and the
+ * responses for jars by a further artifact delay, to stand in for a remote
+ * repository or a stalling mirror. The number of requests and the most
+ * requests served at once are recorded.
+ */
+public class HttpRepositoryFixture {
+	private File dir;
+	private volatile long latency;
+	private volatile long artifactDelay;
+
+	private HttpServer server;
+	private ExecutorService executor = Executors.newCachedThreadPool();
+
+	private AtomicInteger requests = new AtomicInteger();
+	private AtomicInteger active = new AtomicInteger();
+	private AtomicInteger maxActive = new AtomicInteger();
+
+	/**
+	 * Starts serving the directory on an ephemeral port.
+	 *
+	 * @param dir
+	 *          the directory
+	 * @param latency
+	 *          the millis each response is delayed
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public HttpRepositoryFixture(File dir, long latency) throws IOException {
+		this.dir = dir;
+		this.latency = latency;
+
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext("/", new FileHandler());
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	/**
+	 * Sets the millis the responses for jars are delayed beyond the latency.
+	 *
+	 * @param artifactDelay
+	 *          the new artifact delay
+	 */
+	public void setArtifactDelay(long artifactDelay) {
+		this.artifactDelay = artifactDelay;
+	}
+
+	/**
+	 * Gets the URL of the served directory.
+	 *
+	 * @return the root
+	 */
+	public String getRoot() {
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	/**
+	 * Gets the number of requests served.
+	 *
+	 * @return the requests
+	 */
+	public int getRequests() {
+		return requests.get();
+	}
+
+	/**
+	 * Gets the most requests served at once.
+	 *
+	 * @return the max concurrent requests
+	 */
+	public int getMaxConcurrentRequests() {
+		return maxActive.get();
+	}
+
+	/**
+	 * Resets the request counts.
+	 */
+	public void resetCounts() {
+		requests.set(0);
+		maxActive.set(0);
+	}
+
+	/**
+	 * Stops serving.
+	 */
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	private class FileHandler implements HttpHandler {
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			requests.incrementAndGet();
+			int now = active.incrementAndGet();
+			while (true) {
+				int max = maxActive.get();
+				if (now <= max || maxActive.compareAndSet(max, now)) break;
+			}
+
+			try {
+				String path = exchange.getRequestURI().getPath();
+				pause(latency + (path.endsWith(".jar") ? artifactDelay : 0));
+
+				File file = new File(dir, path);
+				boolean head = "HEAD".equals(exchange.getRequestMethod());
+				if (!file.isFile() || path.contains("..")) {
+					exchange.sendResponseHeaders(404, -1);
+					return;
+				}
+
+				exchange.getResponseHeaders().set("Content-Length", Long.toString(file.length()));
+				exchange.sendResponseHeaders(200, head ? -1 : file.length());
+				if (head) return;
+
+				OutputStream out = exchange.getResponseBody();
+				try {
+					Files.copy(file.toPath(), out);
+				} finally {
+					out.close();
+				}
+			} finally {
+				active.decrementAndGet();
+				exchange.close();
+			}
+		}
+
+		private void pause(long millis) {
+			if (millis <= 0) return;
+
+			try {
+				Thread.sleep(millis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * Poison Ivy - Java Library Dependency Resolver and Application Launcher 
+ *
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.poisonivy;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link IvyLibraryRetriever#librariesRetrieved()} and
+ * {@link IvyLibraryRetriever#cleanSourcesAndJavadoc()} on library directories
+ * of thousands of files, one in three of which are source or javadoc jars.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LibraryDirectoryBenchmark {
+	private static final String[] SUFFIXES = { ".jar", "-sources.jar", "-javadoc.jar" };
+
+	@Param({ "1000", "10000" })
+	private int files;
+
+	private File libdir;
+	private List<File> sourcesAndJavadoc = new ArrayList<File>();
+	private IvyLibraryRetriever retriever = new IvyLibraryRetriever();
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		libdir = Files.createTempDirectory("poisonivy-libdir").toFile();
+		retriever.setLibdir(libdir.getAbsolutePath());
+
+		for (int i = 0; i < files; i++) {
+			String suffix = SUFFIXES[i % SUFFIXES.length];
+			File f = new File(libdir, "library" + i + "-1.0" + suffix);
+			if (i % SUFFIXES.length != 0) sourcesAndJavadoc.add(f);
+		}
+
+		createSourcesAndJavadoc();
+
+		for (int i = 0; i < files; i += SUFFIXES.length) {
+			new File(libdir, "library" + i + "-1.0.jar").createNewFile();
+		}
+	}
+
+	@Setup(Level.Invocation)
+	public void createSourcesAndJavadoc() throws IOException {
+		for (File f : sourcesAndJavadoc) {
+			f.createNewFile();
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		IncrementalRetrieval.deleteRecursively(libdir);
+	}
+
+	@Benchmark
+	public boolean librariesRetrieved() {
+		return retriever.librariesRetrieved();
+	}
+
+	@Benchmark
+	public void cleanSourcesAndJavadoc() {
+		retriever.cleanSourcesAndJavadoc();
+	}
+}
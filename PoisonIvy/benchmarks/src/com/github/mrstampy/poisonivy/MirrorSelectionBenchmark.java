@@ -0,0 +1,114 @@
+/*
+ * Poison Ivy - Java Library Dependency Resolver and Application Launcher 
+ *
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.poisonivy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures cold retrievals from two {@link HttpRepositoryFixture}s serving the
+ * same repository, declared as mirrors of one another, the first declared
+ * stalling each jar by the stall millis. Without mirror selection every jar
+ * stalls; with it stalled downloads are hedged on the second mirror, which is
+ * asked first once its throughput is measured. The hedged downloads are
+ * printed after each trial.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MirrorSelectionBenchmark {
+
+	@Param({ "10" })
+	private int modules;
+
+	@Param({ "65536" })
+	private int jarSize;
+
+	@Param({ "1000" })
+	private long stall;
+
+	@Param({ "200" })
+	private long hedgeDelay;
+
+	@Param({ "true", "false" })
+	private boolean mirrorSelection;
+
+	private FileRepositoryFixture fixture;
+	private List<HttpRepositoryFixture> servers = new ArrayList<HttpRepositoryFixture>();
+	private IvyLibraryRetriever retriever;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		fixture = new FileRepositoryFixture(modules, jarSize);
+		for (int i = 0; i < 2; i++) {
+			servers.add(new HttpRepositoryFixture(fixture.getRepositories()[0], 0));
+		}
+		servers.get(0).setArtifactDelay(stall);
+		fixture.useHttp(servers);
+
+		retriever = new IvyLibraryRetriever();
+		retriever.setLibdir(fixture.getLibdir().getAbsolutePath());
+		retriever.setEmbedded(true);
+		if (mirrorSelection) retriever.setMirrors("fixture0", "fixture1");
+		retriever.setHedgeDelay(hedgeDelay);
+	}
+
+	@Setup(Level.Iteration)
+	public void clear() {
+		fixture.clearCache();
+		fixture.clearLibdir();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		System.out.println("Counters: " + retriever.getMetrics().getCounters());
+
+		for (HttpRepositoryFixture server : servers) {
+			server.stop();
+		}
+
+		fixture.delete();
+	}
+
+	@Benchmark
+	public boolean cold() throws Exception {
+		return retriever.retrieveLibraries(true, fixture.getIvyFile().getAbsolutePath(), fixture.getSettingsFile()
+				.getAbsolutePath());
+	}
+}
@@ -0,0 +1,150 @@
+/*
+ * Poison Ivy - Java Library Dependency Resolver and Application Launcher 
+ *
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.poisonivy;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the rate at which a {@link ProcessContainer} delivers the output of
+ * a {@link StreamingChild} to its {@link ProcessListener}s, and the latency
+ * from a request to the child until its (small) output is delivered. The child
+ * is started once per trial so that JVM startup is not measured. The
+ * container's copy of the output to System.out is discarded.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ProcessContainerBenchmark {
+
+	@Param({ "1048576", "16777216" })
+	private long bytes;
+
+	@Param({ "64" })
+	private long latencyBytes;
+
+	private Process process;
+	private ProcessContainer container;
+	private Writer requests;
+	private CountingListener listener = new CountingListener();
+	private PrintStream stdout;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		stdout = System.out;
+		System.setOut(new PrintStream(new DiscardingOutputStream()));
+
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+				StreamingChild.class.getName()).start();
+
+		requests = new OutputStreamWriter(process.getOutputStream(), "US-ASCII");
+		container = new ProcessContainer(process, Collections.<ProcessListener> singletonList(listener));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		requests.close();
+		container.waitFor();
+		System.setOut(stdout);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public long throughput() throws Exception {
+		return request(bytes);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SampleTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public long latency() throws Exception {
+		return request(latencyBytes);
+	}
+
+	private long request(long count) throws Exception {
+		long target = listener.getCount() + count;
+
+		requests.write(count + "\n");
+		requests.flush();
+
+		return listener.await(target);
+	}
+
+	private static class CountingListener implements ProcessListener {
+		private long count;
+
+		@Override
+		public synchronized void output(String output) {
+			count += output.length();
+			notifyAll();
+		}
+
+		@Override
+		public void error(String error) {
+		}
+
+		public synchronized long getCount() {
+			return count;
+		}
+
+		public synchronized long await(long target) throws InterruptedException {
+			while (count < target) {
+				wait();
+			}
+
+			return count;
+		}
+	}
+
+	private static class DiscardingOutputStream extends OutputStream {
+
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ * Poison Ivy - Java Library Dependency Resolver and Application Launcher 
+ *
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.poisonivy;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link IvyLibraryRetriever#retrieveLibraries(boolean, String, String)}
+ * against a {@link FileRepositoryFixture}:<br>
+ * <br>
+ * cold - an empty Ivy cache and library directory<br>
+ * warm - a populated Ivy cache, retrieval forced<br>
+ * current - libraries previously retrieved, retrieval skipped<br>
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 10)
+@Measurement(iterations = 20)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RetrieveLibrariesBenchmark {
+
+	@Param({ "20" })
+	private int modules;
+
+	@Param({ "65536" })
+	private int jarSize;
+
+	@Param({ "true", "false" })
+	private boolean embedded;
+
+	private FileRepositoryFixture fixture;
+	private IvyLibraryRetriever retriever;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		fixture = new FileRepositoryFixture(modules, jarSize);
+
+		retriever = new IvyLibraryRetriever();
+		retriever.setLibdir(fixture.getLibdir().getAbsolutePath());
+		retriever.setEmbedded(embedded);
+
+		retrieve(true);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		fixture.delete();
+	}
+
+	@Benchmark
+	public boolean cold(ColdState state) throws Exception {
+		return retrieve(true);
+	}
+
+	@Benchmark
+	public boolean warm() throws Exception {
+		return retrieve(true);
+	}
+
+	@Benchmark
+	public boolean current() throws Exception {
+		return retrieve(false);
+	}
+
+	private boolean retrieve(boolean force) throws Exception {
+		return retriever.retrieveLibraries(force, fixture.getIvyFile().getAbsolutePath(), fixture.getSettingsFile()
+				.getAbsolutePath());
+	}
+
+	/**
+	 * Empties the Ivy cache and library directory before each cold retrieval.
+	 */
+	@State(Scope.Benchmark)
+	public static class ColdState {
+
+		@Setup(Level.Iteration)
+		public void clear(RetrieveLibrariesBenchmark benchmark) {
+			benchmark.fixture.clearCache();
+			benchmark.fixture.clearLibdir();
+		}
+	}
+}
@@ -0,0 +1,71 @@
+/*
+ * Poison Ivy - Java Library Dependency Resolver and Application Launcher 
+ *
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.poisonivy;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+
+/**
+ * The child process of the {@link ProcessContainerBenchmark}. Each line read
+ * from standard input is a number of bytes to write to standard output, in
+ * lines of {@value #LINE_LENGTH} characters. The child exits when standard
+ * input is closed.
+ */
+public class StreamingChild {
+
+	/** The Constant LINE_LENGTH {@value #LINE_LENGTH}. */
+	public static final int LINE_LENGTH = 80;
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 *          the arguments
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public static void main(String[] args) throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(System.in, "US-ASCII"));
+		OutputStream out = new BufferedOutputStream(System.out, 65536);
+
+		byte[] line = new byte[LINE_LENGTH];
+		for (int i = 0; i < LINE_LENGTH - 1; i++) {
+			line[i] = 'x';
+		}
+		line[LINE_LENGTH - 1] = '\n';
+
+		String request;
+		while ((request = in.readLine()) != null) {
+			long remaining = Long.parseLong(request.trim());
+
+			while (remaining > 0) {
+				int len = (int) Math.min(LINE_LENGTH, remaining);
+				out.write(line, LINE_LENGTH - len, len);
+				remaining -= len;
+			}
+
+			out.flush();
+		}
+	}
+}
@@ -0,0 +1,213 @@
+/*
+ * Poison Ivy - Java Library Dependency Resolver and Application Launcher 
+ *
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.poisonivy;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Manages a dynamic AppCDS (Application Class Data Sharing) archive for the
+ * launched application, stored beside the library directory. The first launch
+ * after the libraries change creates the archive when the application exits;
+ * subsequent launches map the archive, reducing startup time and class loading
+ * footprint. The archive is keyed by the libraries retrieved, the classpath,
+ * the main jar and the Java version, and is recreated should any of them
+ * change. Dynamic archives require Java 13 or later.
+ *
+ * @see PoisonIvy#CDS_PARM
+ */
+class AppCdsArchive {
+	private static final Logger log = LoggerFactory.getLogger(AppCdsArchive.class);
+
+	/** The Constant ARCHIVE_SFX {@value #ARCHIVE_SFX}. */
+	public static final String ARCHIVE_SFX = ".jsa";
+
+	/** The Constant KEY_SFX {@value #KEY_SFX}. */
+	public static final String KEY_SFX = ".jsa.key";
+
+	private static final int MIN_JAVA_VERSION = 13;
+
+	private File archive;
+	private File keyFile;
+	private File libdir;
+
+	/**
+	 * Instantiates a new AppCDS archive for the library directory.
+	 *
+	 * @param libdir
+	 *          the libdir
+	 */
+	public AppCdsArchive(String libdir) {
+		this.libdir = new File(libdir).getAbsoluteFile();
+		File parent = this.libdir.getParentFile();
+		this.archive = new File(parent, this.libdir.getName() + ARCHIVE_SFX);
+		this.keyFile = new File(parent, this.libdir.getName() + KEY_SFX);
+	}
+
+	/**
+	 * Returns the JVM options to use or create the archive, an empty list should
+	 * the running Java version not support dynamic archives.
+	 *
+	 * @param classpath
+	 *          the classpath of the launched application
+	 * @param mainJar
+	 *          the main jar, may be null
+	 * @return the jvm options
+	 */
+	public List<String> getJvmOptions(String classpath, String mainJar) {
+		List<String> options = new ArrayList<String>();
+
+		if (!isSupported()) {
+			log.warn("AppCDS dynamic archives require Java {}, not using an archive", MIN_JAVA_VERSION);
+			return options;
+		}
+
+		if (hasDirectory(classpath)) {
+			log.warn("AppCDS archives cannot be used with directories in the classpath, not using an archive");
+			return options;
+		}
+
+		try {
+			String key = createKey(classpath, mainJar);
+
+			if (archive.exists() && key.equals(readKey())) {
+				log.debug("Using AppCDS archive {}", archive);
+				options.add("-XX:SharedArchiveFile=" + archive.getAbsolutePath());
+			} else {
+				invalidate();
+				writeKey(key);
+				log.debug("Creating AppCDS archive {} on application exit", archive);
+				options.add("-XX:ArchiveClassesAtExit=" + archive.getAbsolutePath());
+			}
+		} catch (IOException e) {
+			log.error("Could not prepare AppCDS archive {}", archive, e);
+		}
+
+		return options;
+	}
+
+	/**
+	 * Deletes the archive and its key.
+	 */
+	public void invalidate() {
+		if (archive.exists() && !archive.delete()) log.error("Could not delete {}", archive);
+		if (keyFile.exists() && !keyFile.delete()) log.error("Could not delete {}", keyFile);
+	}
+
+	/**
+	 * Gets the archive file.
+	 *
+	 * @return the archive
+	 */
+	public File getArchive() {
+		return archive;
+	}
+
+	private boolean isSupported() {
+		String spec = System.getProperty("java.specification.version");
+		try {
+			return !spec.startsWith("1.") && Integer.parseInt(spec) >= MIN_JAVA_VERSION;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	private boolean hasDirectory(String classpath) {
+		for (String entry : classpath.split(File.pathSeparator)) {
+			File f = new File(entry);
+			if (f.isDirectory()) {
+				String[] contents = f.list();
+				if (contents != null && contents.length > 0) return true;
+			}
+		}
+
+		return false;
+	}
+
+	private String createKey(String classpath, String mainJar) throws IOException {
+		MessageDigest digest = Checksums.newDigest();
+
+		update(digest, System.getProperty("java.vm.version"));
+		update(digest, classpath);
+		update(digest, mainJar);
+
+		if (mainJar != null) {
+			File jar = new File(mainJar);
+			update(digest, jar.length() + ":" + jar.lastModified());
+		}
+
+		ResolutionManifest manifest = ResolutionManifest.read(libdir);
+		if (manifest != null) {
+			for (Entry<String, ResolutionManifest.Artifact> e : manifest.getArtifacts().entrySet()) {
+				update(digest, e.getKey() + ":" + e.getValue().getChecksum());
+			}
+		} else {
+			File[] libs = libdir.listFiles();
+			if (libs != null) {
+				Arrays.sort(libs);
+				for (File lib : libs) {
+					update(digest, lib.getName() + ":" + lib.length() + ":" + lib.lastModified());
+				}
+			}
+		}
+
+		return Checksums.toHex(digest.digest());
+	}
+
+	private void update(MessageDigest digest, String s) throws IOException {
+		if (s != null) digest.update(s.getBytes("UTF-8"));
+		digest.update((byte) 0);
+	}
+
+	private String readKey() throws IOException {
+		if (!keyFile.exists()) return null;
+
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new FileReader(keyFile));
+			return reader.readLine();
+		} finally {
+			if (reader != null) reader.close();
+		}
+	}
+
+	private void writeKey(String key) throws IOException {
+		Writer writer = null;
+		try {
+			writer = new FileWriter(keyFile);
+			writer.write(key);
+		} finally {
+			if (writer != null) writer.close();
+		}
+	}
+}
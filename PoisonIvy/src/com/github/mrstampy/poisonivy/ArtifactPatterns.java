@@ -0,0 +1,206 @@
+/*
+ * Poison Ivy - Java Library Dependency Resolver and Application Launcher 
+ *
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.poisonivy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Include and exclude patterns selecting the artifacts to download and
+ * retrieve. A pattern matches an artifact should it match the artifact's type
+ * or classifier; * and ? are wildcards. An artifact is selected should there be
+ * no include patterns or it matches an include pattern, and it matches no
+ * exclude pattern.
+ *
+ * @see IvyLibraryRetriever#setIncludedArtifacts(String...)
+ * @see IvyLibraryRetriever#setExcludedArtifacts(String...)
+ */
+class ArtifactPatterns {
+
+	/** The types and classifiers of source and javadoc artifacts. */
+	public static final String[] SOURCES_AND_JAVADOC = { "javadoc", "javadocs", "doc", "source", "sources", "src" };
+
+	private List<String> includes;
+	private List<String> excludes;
+
+	private List<Pattern> includePatterns = new ArrayList<Pattern>();
+	private List<Pattern> excludePatterns = new ArrayList<Pattern>();
+	private List<Pattern> excludeNamePatterns = new ArrayList<Pattern>();
+
+	/**
+	 * Instantiates new artifact patterns.
+	 *
+	 * @param includes
+	 *          the include patterns
+	 * @param excludes
+	 *          the exclude patterns
+	 */
+	public ArtifactPatterns(List<String> includes, List<String> excludes) {
+		this.includes = includes;
+		this.excludes = excludes;
+
+		for (String include : includes) {
+			includePatterns.add(toPattern(include));
+		}
+
+		for (String exclude : excludes) {
+			excludePatterns.add(toPattern(exclude));
+			excludeNamePatterns.add(Pattern.compile(".+-" + toRegex(exclude) + "\\..*"));
+		}
+	}
+
+	/**
+	 * Returns true if the artifact of the type and classifier is selected.
+	 *
+	 * @param type
+	 *          the type
+	 * @param classifier
+	 *          the classifier, may be null
+	 * @return true, if successful
+	 */
+	public boolean accept(String type, String classifier) {
+		if (!includePatterns.isEmpty() && !matches(includePatterns, type, classifier)) return false;
+
+		return !matches(excludePatterns, type, classifier);
+	}
+
+	/**
+	 * Returns true if the file name of a retrieved artifact includes an excluded
+	 * classifier, ie. [artifact]-[revision]-[classifier].[ext]. Used where the
+	 * artifacts could not be filtered during resolution.
+	 *
+	 * @param fileName
+	 *          the file name
+	 * @return true, if is excluded name
+	 */
+	public boolean isExcludedName(String fileName) {
+		for (Pattern p : excludeNamePatterns) {
+			if (p.matcher(fileName).matches()) return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Returns true if artifacts are neither included nor excluded, ie. all are
+	 * selected.
+	 *
+	 * @return true, if is empty
+	 */
+	public boolean isEmpty() {
+		return includes.isEmpty() && excludes.isEmpty();
+	}
+
+	/**
+	 * Gets the include patterns.
+	 *
+	 * @return the includes
+	 */
+	public List<String> getIncludes() {
+		return Collections.unmodifiableList(includes);
+	}
+
+	/**
+	 * Gets the exclude patterns.
+	 *
+	 * @return the excludes
+	 */
+	public List<String> getExcludes() {
+		return Collections.unmodifiableList(excludes);
+	}
+
+	/**
+	 * Returns a regular expression matching any exclude pattern, for Ivy's
+	 * regexp matcher, or null if there are none.
+	 *
+	 * @return the exclude regex
+	 */
+	public String getExcludeRegex() {
+		if (excludes.isEmpty()) return null;
+
+		StringBuilder sb = new StringBuilder();
+		for (String exclude : excludes) {
+			if (sb.length() > 0) sb.append("|");
+			sb.append("(?:").append(toRegex(exclude)).append(")");
+		}
+
+		return sb.toString();
+	}
+
+	/**
+	 * Returns the include and exclude patterns, used to detect a change of
+	 * patterns between retrievals.
+	 */
+	public String toString() {
+		return "include=" + includes + ",exclude=" + excludes;
+	}
+
+	/**
+	 * Splits a comma separated list of patterns.
+	 *
+	 * @param patterns
+	 *          the patterns, may be null
+	 * @return the list of patterns
+	 */
+	public static List<String> split(String patterns) {
+		List<String> list = new ArrayList<String>();
+		if (patterns == null) return list;
+
+		for (String s : patterns.split(",")) {
+			if (s.trim().length() > 0) list.add(s.trim());
+		}
+
+		return list;
+	}
+
+	private boolean matches(List<Pattern> patterns, String type, String classifier) {
+		for (Pattern p : patterns) {
+			if (type != null && p.matcher(type).matches()) return true;
+			if (classifier != null && p.matcher(classifier).matches()) return true;
+		}
+
+		return false;
+	}
+
+	private Pattern toPattern(String glob) {
+		return Pattern.compile(toRegex(glob));
+	}
+
+	private String toRegex(String glob) {
+		StringBuilder sb = new StringBuilder();
+		for (char c : glob.toCharArray()) {
+			switch (c) {
+			case '*':
+				sb.append(".*");
+				break;
+			case '?':
+				sb.append('.');
+				break;
+			default:
+				sb.append(Pattern.quote(String.valueOf(c)));
+			}
+		}
+
+		return sb.toString();
+	}
+}
@@ -0,0 +1,166 @@
+/*
+ * Poison Ivy - Java Library Dependency Resolver and Application Launcher 
+ *
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.poisonivy;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the {@link LibraryBundle}s of a directory over HTTP so that peers may
+ * import them, ie. http://host:port/ivylib.bundle, rather than each fetching
+ * the libraries from the repositories. Only the files directly within the
+ * directory ending in {@value LibraryBundle#BUNDLE_SFX} are served, in
+ * response to GET and HEAD requests.
+ *
+ * @see PoisonIvy#MIRROR_PARM
+ */
+class BundleMirror {
+	private static final Logger log = LoggerFactory.getLogger(BundleMirror.class);
+
+	/** The Constant DEFAULT_PORT {@value #DEFAULT_PORT}. */
+	public static final int DEFAULT_PORT = 8765;
+
+	private static final int THREADS = 4;
+
+	private File dir;
+	private int port;
+
+	private HttpServer server;
+	private ExecutorService executor;
+
+	/**
+	 * Instantiates a new bundle mirror.
+	 *
+	 * @param dir
+	 *          the directory of the bundles
+	 * @param port
+	 *          the port
+	 */
+	public BundleMirror(File dir, int port) {
+		this.dir = dir;
+		this.port = port;
+	}
+
+	/**
+	 * Starts serving the bundles.
+	 *
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public void start() throws IOException {
+		server = HttpServer.create(new InetSocketAddress(port), 0);
+		server.createContext("/", new BundleHandler());
+
+		executor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				return new Thread(r, "Bundle mirror thread");
+			}
+		});
+		server.setExecutor(executor);
+		server.start();
+
+		log.info("Serving bundles in {} on port {}", dir.getAbsolutePath(), getPort());
+	}
+
+	/**
+	 * Stops serving the bundles.
+	 */
+	public void stop() {
+		if (server != null) server.stop(0);
+		if (executor != null) executor.shutdownNow();
+	}
+
+	/**
+	 * Gets the port, the port bound should the port specified be 0.
+	 *
+	 * @return the port
+	 */
+	public int getPort() {
+		return server == null ? port : server.getAddress().getPort();
+	}
+
+	private class BundleHandler implements HttpHandler {
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				String method = exchange.getRequestMethod();
+				if (!"GET".equals(method) && !"HEAD".equals(method)) {
+					exchange.sendResponseHeaders(405, -1);
+					return;
+				}
+
+				File bundle = getBundle(exchange.getRequestURI().getPath());
+				if (bundle == null) {
+					exchange.sendResponseHeaders(404, -1);
+					return;
+				}
+
+				exchange.getResponseHeaders().set("Content-Type", "application/zip");
+
+				if ("HEAD".equals(method)) {
+					exchange.getResponseHeaders().set("Content-Length", Long.toString(bundle.length()));
+					exchange.sendResponseHeaders(200, -1);
+					return;
+				}
+
+				exchange.sendResponseHeaders(200, bundle.length());
+
+				OutputStream out = exchange.getResponseBody();
+				try {
+					Files.copy(bundle.toPath(), out);
+				} finally {
+					out.close();
+				}
+
+				log.debug("Served {} to {}", bundle.getName(), exchange.getRemoteAddress());
+			} finally {
+				exchange.close();
+			}
+		}
+
+		private File getBundle(String path) {
+			String name = path.startsWith("/") ? path.substring(1) : path;
+
+			if (name.length() == 0 || name.contains("/") || name.contains("\\") || name.startsWith(".")) return null;
+			if (!name.endsWith(LibraryBundle.BUNDLE_SFX)) return null;
+
+			File bundle = new File(dir, name);
+
+			return bundle.isFile() ? bundle : null;
+		}
+	}
+}
@@ -0,0 +1,144 @@
+/*
+ * Poison Ivy - Java Library Dependency Resolver and Application Launcher 
+ *
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.poisonivy;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Checksum calculations for files retrieved by Poison Ivy.
+ */
+final class Checksums {
+
+	/** The Constant ALGORITHM {@value #ALGORITHM}. */
+	public static final String ALGORITHM = "SHA-1";
+
+	private static final long MAP_SIZE = 64 * 1024 * 1024;
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private Checksums() {
+	}
+
+	/**
+	 * Returns a new message digest for the {@link #ALGORITHM}.
+	 *
+	 * @return the message digest
+	 */
+	public static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance(ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(ALGORITHM + " is not supported", e);
+		}
+	}
+
+	/**
+	 * Returns the hex encoded checksum of the file's contents.
+	 *
+	 * @param file
+	 *          the file
+	 * @return the checksum
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public static String checksum(File file) throws IOException {
+		MessageDigest digest = newDigest();
+		update(digest, file);
+
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * Returns the hex encoded checksum of the file's contents, reading the file
+	 * through memory mapped regions of up to 64MB rather than copying it through
+	 * a buffer.
+	 *
+	 * @param file
+	 *          the file
+	 * @return the checksum
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public static String mappedChecksum(File file) throws IOException {
+		MessageDigest digest = newDigest();
+
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			for (long position = 0; position < size; position += MAP_SIZE) {
+				digest.update(channel.map(MapMode.READ_ONLY, position, Math.min(MAP_SIZE, size - position)));
+			}
+		} finally {
+			channel.close();
+		}
+
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * Updates the digest with the file's contents.
+	 *
+	 * @param digest
+	 *          the digest
+	 * @param file
+	 *          the file
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public static void update(MessageDigest digest, File file) throws IOException {
+		InputStream in = null;
+		try {
+			in = new FileInputStream(file);
+			byte[] b = new byte[8192];
+			int read;
+			while ((read = in.read(b)) != -1) {
+				digest.update(b, 0, read);
+			}
+		} finally {
+			if (in != null) in.close();
+		}
+	}
+
+	/**
+	 * Hex encodes the bytes.
+	 *
+	 * @param bytes
+	 *          the bytes
+	 * @return the string
+	 */
+	public static String toHex(byte[] bytes) {
+		char[] chars = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+			chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+		}
+
+		return new String(chars);
+	}
+}
@@ -0,0 +1,344 @@
+/*
+ * Poison Ivy - Java Library Dependency Resolver and Application Launcher 
+ *
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.poisonivy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.ivy.util.CopyProgressListener;
+import org.apache.ivy.util.FileUtil;
+import org.apache.ivy.util.url.AbstractURLHandler;
+import org.apache.ivy.util.url.BasicURLHandler;
+import org.apache.ivy.util.url.URLHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Requests metadata from HTTP repositories conditionally, replacing Ivy's URL
+ * handler for http and https URLs:<br>
+ * <br>
+ * - metadata (.xml and .pom files) is requested gzip encoded and kept in
+ * {@value #DEFAULT_VALIDATOR_DIR} with its ETag and Last-Modified validators,
+ * so that it is requested conditionally and not transferred again unless
+ * changed<br>
+ * - the availability, size and modification time of each URL is requested
+ * once per resolution, where Ivy asks repeatedly; only found and not found
+ * responses are kept<br>
+ * - each response is read to its end so that the JVM may reuse its
+ * connection<br>
+ * <br>
+ * Other URLs are passed to the wrapped handler.
+ *
+ * @see IvyLibraryRetriever#setConditionalGet(boolean)
+ */
+class ConditionalURLHandler extends AbstractURLHandler {
+	private static final Logger log = LoggerFactory.getLogger(ConditionalURLHandler.class);
+
+	/** The Constant DEFAULT_VALIDATOR_DIR {@value #DEFAULT_VALIDATOR_DIR}. */
+	public static final String DEFAULT_VALIDATOR_DIR = "~/.poisonivy/http";
+
+	private static final int CONNECT_TIMEOUT = 10000;
+	private static final int READ_TIMEOUT = 60000;
+
+	private static final String ETAG_KEY = "etag";
+	private static final String LAST_MODIFIED_KEY = "lastModified";
+
+	private URLHandler delegate;
+	private File validatorDir;
+
+	private Map<String, URLInfo> infos = new ConcurrentHashMap<String, URLInfo>();
+
+	/**
+	 * Instantiates a new conditional URL handler keeping metadata in
+	 * {@value #DEFAULT_VALIDATOR_DIR}.
+	 *
+	 * @param delegate
+	 *          the handler of URLs other than http and https
+	 */
+	public ConditionalURLHandler(URLHandler delegate) {
+		this(delegate, new File(expandHome(DEFAULT_VALIDATOR_DIR)));
+	}
+
+	/**
+	 * Instantiates a new conditional URL handler.
+	 *
+	 * @param delegate
+	 *          the handler of URLs other than http and https
+	 * @param validatorDir
+	 *          the directory keeping metadata and its validators
+	 */
+	public ConditionalURLHandler(URLHandler delegate, File validatorDir) {
+		this.delegate = delegate;
+		this.validatorDir = validatorDir;
+	}
+
+	@Override
+	public URLInfo getURLInfo(URL url) {
+		return getURLInfo(url, 0);
+	}
+
+	@Override
+	public URLInfo getURLInfo(URL url, int timeout) {
+		if (!isHttp(url)) return delegate.getURLInfo(url, timeout);
+
+		String key = url.toString();
+		URLInfo info = infos.get(key);
+		if (info != null) return info;
+
+		try {
+			HttpURLConnection connection = open(url, timeout);
+			connection.setRequestMethod("HEAD");
+
+			int code = connection.getResponseCode();
+			info = code == HttpURLConnection.HTTP_OK ? new Info(connection) : UNAVAILABLE;
+			drain(connection);
+
+			// transient failures, ie. 503 or 429, are asked again
+			if (code != HttpURLConnection.HTTP_OK && code != HttpURLConnection.HTTP_NOT_FOUND) {
+				log.debug("HEAD {}: HTTP {}", url, code);
+				return info;
+			}
+		} catch (IOException e) {
+			log.debug("HEAD {} failed", url, e);
+			return UNAVAILABLE;
+		}
+
+		infos.put(key, info);
+
+		return info;
+	}
+
+	@Override
+	public InputStream openStream(URL url) throws IOException {
+		if (!isHttp(url)) return delegate.openStream(url);
+
+		if (isMetadata(url)) return new ByteArrayInputStream(getMetadata(url));
+
+		HttpURLConnection connection = get(url, null);
+
+		return getDecodingInputStream(connection.getContentEncoding(), connection.getInputStream());
+	}
+
+	@Override
+	public void download(URL src, File dest, CopyProgressListener l) throws IOException {
+		if (!isHttp(src)) {
+			delegate.download(src, dest, l);
+			return;
+		}
+
+		if (isMetadata(src)) {
+			FileUtil.copy(new ByteArrayInputStream(getMetadata(src)), dest, l);
+			return;
+		}
+
+		HttpURLConnection connection = get(src, null);
+		long length = connection.getContentLengthLong();
+		String encoding = connection.getContentEncoding();
+
+		FileUtil.copy(getDecodingInputStream(encoding, connection.getInputStream()), dest, l);
+
+		if (encoding == null && length >= 0 && dest.length() != length) {
+			dest.delete();
+			throw new IOException("Downloaded " + dest.length() + " of " + length + " bytes from " + src);
+		}
+	}
+
+	@Override
+	public void upload(File src, URL dest, CopyProgressListener l) throws IOException {
+		delegate.upload(src, dest, l);
+	}
+
+	/**
+	 * Returns the metadata at the URL, conditionally requested should a copy be
+	 * kept.
+	 */
+	private byte[] getMetadata(URL url) throws IOException {
+		String name = Checksums.toHex(Checksums.newDigest().digest(url.toString().getBytes("UTF-8")));
+		File body = new File(validatorDir, name);
+		File validators = new File(validatorDir, name + ".properties");
+
+		Properties props = body.exists() ? read(validators) : new Properties();
+
+		HttpURLConnection connection = get(url, props);
+		if (connection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+			drain(connection);
+			log.debug("{} not modified", url);
+
+			return Files.readAllBytes(body.toPath());
+		}
+
+		byte[] bytes = readFully(getDecodingInputStream(connection.getContentEncoding(), connection.getInputStream()));
+
+		String etag = connection.getHeaderField("ETag");
+		long lastModified = connection.getLastModified();
+		if (etag != null || lastModified > 0) {
+			props = new Properties();
+			if (etag != null) props.setProperty(ETAG_KEY, etag);
+			if (lastModified > 0) props.setProperty(LAST_MODIFIED_KEY, Long.toString(lastModified));
+
+			keep(body, bytes, validators, props);
+		}
+
+		return bytes;
+	}
+
+	/**
+	 * Requests the URL, conditionally should validators be specified, throwing
+	 * an IOException for responses other than 200 and 304.
+	 */
+	private HttpURLConnection get(URL url, Properties validators) throws IOException {
+		HttpURLConnection connection = open(url, 0);
+		connection.setRequestProperty("Accept-Encoding", "gzip");
+
+		if (validators != null) {
+			String etag = validators.getProperty(ETAG_KEY);
+			if (etag != null) connection.setRequestProperty("If-None-Match", etag);
+
+			String lastModified = validators.getProperty(LAST_MODIFIED_KEY);
+			if (lastModified != null) connection.setIfModifiedSince(Long.parseLong(lastModified));
+		}
+
+		int code = connection.getResponseCode();
+		if (code == HttpURLConnection.HTTP_OK) return connection;
+		if (code == HttpURLConnection.HTTP_NOT_MODIFIED && validators != null && !validators.isEmpty()) {
+			return connection;
+		}
+
+		drain(connection);
+
+		throw new IOException("Server returned HTTP response code: " + code + " for URL: " + url);
+	}
+
+	private HttpURLConnection open(URL url, int timeout) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) normalizeToURL(url).openConnection();
+		connection.setRequestProperty("User-Agent", getUserAgent());
+		connection.setConnectTimeout(timeout > 0 ? timeout : CONNECT_TIMEOUT);
+		connection.setReadTimeout(timeout > 0 ? timeout : READ_TIMEOUT);
+
+		return connection;
+	}
+
+	/**
+	 * Reads the rest of the response, so that its connection may be reused.
+	 */
+	private void drain(HttpURLConnection connection) {
+		try {
+			InputStream in = connection.getResponseCode() >= 400 ? connection.getErrorStream() : connection
+					.getInputStream();
+			if (in != null) readFully(in);
+		} catch (IOException e) {
+			log.debug("Could not read the response of {}", connection.getURL(), e);
+		}
+	}
+
+	private void keep(File body, byte[] bytes, File validators, Properties props) {
+		try {
+			validatorDir.mkdirs();
+
+			File temp = File.createTempFile(body.getName(), ".tmp", validatorDir);
+			Files.write(temp.toPath(), bytes);
+			Files.move(temp.toPath(), body.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+			temp = File.createTempFile(validators.getName(), ".tmp", validatorDir);
+			OutputStream out = new FileOutputStream(temp);
+			try {
+				props.store(out, null);
+			} finally {
+				out.close();
+			}
+			Files.move(temp.toPath(), validators.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			log.debug("Could not keep {}", body, e);
+		}
+	}
+
+	private static Properties read(File validators) {
+		Properties props = new Properties();
+		if (!validators.exists()) return props;
+
+		try {
+			InputStream in = new FileInputStream(validators);
+			try {
+				props.load(in);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			log.debug("Could not read {}", validators, e);
+		}
+
+		return props;
+	}
+
+	private static byte[] readFully(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			byte[] buf = new byte[8192];
+			int read;
+			while ((read = in.read(buf)) != -1) {
+				out.write(buf, 0, read);
+			}
+		} finally {
+			in.close();
+		}
+
+		return out.toByteArray();
+	}
+
+	private static boolean isHttp(URL url) {
+		return "http".equals(url.getProtocol()) || "https".equals(url.getProtocol());
+	}
+
+	private static boolean isMetadata(URL url) {
+		String path = url.getPath();
+
+		return path.endsWith(".xml") || path.endsWith(".pom");
+	}
+
+	private static String expandHome(String dir) {
+		return dir.startsWith("~") ? System.getProperty("user.home") + dir.substring(1) : dir;
+	}
+
+	/**
+	 * URLInfo's constructors are visible to subclasses only.
+	 */
+	private static class Info extends URLInfo {
+
+		Info(HttpURLConnection connection) {
+			super(true, connection.getContentLengthLong(), connection.getLastModified(), BasicURLHandler
+					.getCharSetFromContentType(connection.getContentType()));
+		}
+	}
+}
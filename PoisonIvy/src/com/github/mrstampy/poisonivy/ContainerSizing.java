@@ -0,0 +1,309 @@
+/*
+ * Poison Ivy - Java Library Dependency Resolver and Application Launcher 
+ *
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.poisonivy;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sizes the JVM of the launched application to the CPU and memory limits of
+ * the container it runs in, read from the cgroup (v1 or v2) file system, and
+ * the processors and memory of the host. The heap, metaspace, garbage
+ * collector and active processor count are derived from the limits; options
+ * specified explicitly take precedence.<br>
+ * <br>
+ * The limits of the cgroup mounted at the cgroup root are used, ie. those of
+ * the container as seen from within it.
+ *
+ * @see PoisonIvy#AUTO_SIZE_PARM
+ */
+class ContainerSizing {
+	private static final Logger log = LoggerFactory.getLogger(ContainerSizing.class);
+
+	/** The Constant DEFAULT_CGROUP_ROOT {@value #DEFAULT_CGROUP_ROOT}. */
+	public static final String DEFAULT_CGROUP_ROOT = "/sys/fs/cgroup";
+
+	private static final long MB = 1024 * 1024;
+	private static final long UNLIMITED = Long.MAX_VALUE;
+
+	/** Below this limit half the memory is heap, above it three quarters. */
+	private static final long SMALL_MEMORY = 1024 * MB;
+
+	/** Below this limit, or with a single processor, the serial collector is used. */
+	private static final long SERVER_MEMORY = 1792 * MB;
+
+	private static final long MIN_METASPACE = 64 * MB;
+	private static final long MAX_METASPACE = 512 * MB;
+
+	private File cgroupRoot;
+	private int hostProcessors;
+	private long hostMemory;
+
+	private int processors;
+	private long memory;
+
+	/**
+	 * Instantiates a new container sizing from the cgroup file system at the
+	 * root specified and the processors and memory of the host.
+	 *
+	 * @param cgroupRoot
+	 *          the cgroup root, null for {@value #DEFAULT_CGROUP_ROOT}
+	 */
+	public ContainerSizing(String cgroupRoot) {
+		this(new File(cgroupRoot == null ? DEFAULT_CGROUP_ROOT : cgroupRoot), Runtime.getRuntime()
+				.availableProcessors(), getPhysicalMemory());
+	}
+
+	/**
+	 * Instantiates a new container sizing.
+	 *
+	 * @param cgroupRoot
+	 *          the cgroup root
+	 * @param hostProcessors
+	 *          the host processors
+	 * @param hostMemory
+	 *          the host memory in bytes, {@link Long#MAX_VALUE} if unknown
+	 */
+	public ContainerSizing(File cgroupRoot, int hostProcessors, long hostMemory) {
+		this.cgroupRoot = cgroupRoot;
+		this.hostProcessors = hostProcessors;
+		this.hostMemory = hostMemory;
+
+		try {
+			processors = Math.max(1, Math.min(hostProcessors, readCpuLimit()));
+			memory = Math.min(hostMemory, readMemoryLimit());
+		} catch (NumberFormatException e) {
+			log.warn("Could not read the limits of {}, sizing for the host", cgroupRoot, e);
+			processors = Math.max(1, hostProcessors);
+			memory = hostMemory;
+		}
+
+		log.debug("Sizing for {} processors and {} bytes of memory", processors, memory == UNLIMITED ? "unlimited"
+				: memory);
+	}
+
+	/**
+	 * Shares the processors and memory equally between the instances of the
+	 * application specified.
+	 *
+	 * @param instances
+	 *          the instances
+	 */
+	public void share(int instances) {
+		if (instances <= 1) return;
+
+		processors = Math.max(1, processors / instances);
+		if (memory != UNLIMITED) memory /= instances;
+	}
+
+	/**
+	 * Returns the JVM options derived from the limits, less those overridden by
+	 * the options specified.
+	 *
+	 * @param explicit
+	 *          the JVM options specified, ie. -Xmx1g
+	 * @return the JVM options
+	 */
+	public List<String> getJvmOptions(List<String> explicit) {
+		List<String> options = new ArrayList<String>();
+
+		if (memory != UNLIMITED) {
+			if (!isSpecified(explicit, "-Xmx") && !isSpecified(explicit, "-XX:MaxRAMPercentage=")) {
+				options.add("-Xmx" + (getHeap() / MB) + "m");
+			}
+
+			if (!isSpecified(explicit, "-XX:MaxMetaspaceSize=")) {
+				options.add("-XX:MaxMetaspaceSize=" + (getMetaspace() / MB) + "m");
+			}
+		}
+
+		if (!isGcSpecified(explicit)) options.add(isServerClass() ? "-XX:+UseG1GC" : "-XX:+UseSerialGC");
+
+		if (!isSpecified(explicit, "-XX:ActiveProcessorCount=")) options.add("-XX:ActiveProcessorCount=" + processors);
+
+		return options;
+	}
+
+	/**
+	 * Gets the number of processors available, the least of the host's, the CPU
+	 * quota and the CPU set.
+	 *
+	 * @return the processors
+	 */
+	public int getProcessors() {
+		return processors;
+	}
+
+	/**
+	 * Gets the memory available in bytes, the lesser of the host's and the
+	 * memory limit, {@link Long#MAX_VALUE} if neither is known.
+	 *
+	 * @return the memory
+	 */
+	public long getMemory() {
+		return memory;
+	}
+
+	/**
+	 * Gets the maximum heap size in bytes.
+	 *
+	 * @return the heap
+	 */
+	public long getHeap() {
+		return memory <= SMALL_MEMORY ? memory / 2 : memory / 4 * 3;
+	}
+
+	/**
+	 * Gets the maximum metaspace size in bytes.
+	 *
+	 * @return the metaspace
+	 */
+	public long getMetaspace() {
+		return Math.max(MIN_METASPACE, Math.min(MAX_METASPACE, memory / 10));
+	}
+
+	/**
+	 * Returns true if the limits warrant a parallel garbage collector.
+	 *
+	 * @return true, if is server class
+	 */
+	public boolean isServerClass() {
+		return processors > 1 && memory >= SERVER_MEMORY;
+	}
+
+	private boolean isSpecified(List<String> explicit, String prefix) {
+		for (String option : explicit) {
+			if (option.startsWith(prefix)) return true;
+		}
+
+		return false;
+	}
+
+	private boolean isGcSpecified(List<String> explicit) {
+		for (String option : explicit) {
+			if (option.startsWith("-XX:+Use") && option.endsWith("GC")) return true;
+		}
+
+		return false;
+	}
+
+	private int readCpuLimit() {
+		int limit = hostProcessors;
+
+		if (isUnified()) {
+			String[] max = split(read("cpu.max"));
+			if (max != null && max.length == 2 && !"max".equals(max[0])) {
+				limit = Math.min(limit, quotaProcessors(Long.parseLong(max[0]), Long.parseLong(max[1])));
+			}
+
+			return Math.min(limit, countCpus(read("cpuset.cpus.effective")));
+		}
+
+		String quota = readFirst("cpu/cpu.cfs_quota_us", "cpu,cpuacct/cpu.cfs_quota_us");
+		String period = readFirst("cpu/cpu.cfs_period_us", "cpu,cpuacct/cpu.cfs_period_us");
+		if (quota != null && period != null && Long.parseLong(quota) > 0) {
+			limit = Math.min(limit, quotaProcessors(Long.parseLong(quota), Long.parseLong(period)));
+		}
+
+		return Math.min(limit, countCpus(read("cpuset/cpuset.cpus")));
+	}
+
+	private long readMemoryLimit() {
+		String limit = isUnified() ? read("memory.max") : read("memory/memory.limit_in_bytes");
+		if (limit == null || "max".equals(limit)) return UNLIMITED;
+
+		long bytes = Long.parseLong(limit);
+
+		// cgroup v1 reports no limit as a page aligned Long.MAX_VALUE
+		return bytes >= UNLIMITED / 2 ? UNLIMITED : bytes;
+	}
+
+	private boolean isUnified() {
+		return new File(cgroupRoot, "cgroup.controllers").exists();
+	}
+
+	private int quotaProcessors(long quota, long period) {
+		if (period <= 0) return hostProcessors;
+
+		return (int) Math.max(1, (quota + period - 1) / period);
+	}
+
+	private int countCpus(String cpus) {
+		if (cpus == null || cpus.length() == 0) return hostProcessors;
+
+		return CpuAffinity.parseCpus(cpus).size();
+	}
+
+	private String[] split(String s) {
+		return s == null ? null : s.split("\\s+");
+	}
+
+	private String readFirst(String... paths) {
+		for (String path : paths) {
+			String s = read(path);
+			if (s != null) return s;
+		}
+
+		return null;
+	}
+
+	private String read(String path) {
+		File file = new File(cgroupRoot, path);
+		if (!file.isFile()) return null;
+
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new FileReader(file));
+			String line = reader.readLine();
+
+			return line == null ? null : line.trim();
+		} catch (IOException e) {
+			log.debug("Could not read {}", file, e);
+			return null;
+		} finally {
+			try {
+				if (reader != null) reader.close();
+			} catch (IOException e) {
+				log.debug("Could not close {}", file, e);
+			}
+		}
+	}
+
+	private static long getPhysicalMemory() {
+		try {
+			Class<?> bean = Class.forName("com.sun.management.OperatingSystemMXBean");
+			Object memory = bean.getMethod("getTotalPhysicalMemorySize").invoke(ManagementFactory.getOperatingSystemMXBean());
+
+			return ((Number) memory).longValue();
+		} catch (Exception e) {
+			log.debug("Physical memory size unavailable", e);
+			return UNLIMITED;
+		}
+	}
+}
@@ -0,0 +1,257 @@
+/*
+ * Poison Ivy - Java Library Dependency Resolver and Application Launcher 
+ *
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.poisonivy;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pins each of several instances of the launched application to its own share
+ * of the processors by prefixing its command. Should there be a NUMA node per
+ * instance and numactl be installed each instance is bound to a node's CPUs
+ * and memory, otherwise should taskset be installed each instance is bound to
+ * a contiguous slice of the processors available.<br>
+ * <br>
+ * Alternatively a command prefix template may be specified, in which
+ * {@value #CPUS}, {@value #NODE} and {@value #INSTANCE} are replaced with the
+ * instance's CPU list, NUMA node and index, ie. "taskset -c {cpus}".
+ *
+ * @see PoisonIvy#PIN_PARM
+ */
+class CpuAffinity {
+	private static final Logger log = LoggerFactory.getLogger(CpuAffinity.class);
+
+	/** The Constant CPUS {@value #CPUS}. */
+	public static final String CPUS = "{cpus}";
+
+	/** The Constant NODE {@value #NODE}. */
+	public static final String NODE = "{node}";
+
+	/** The Constant INSTANCE {@value #INSTANCE}. */
+	public static final String INSTANCE = "{instance}";
+
+	private static final String NUMACTL_TEMPLATE = "numactl --cpunodebind=" + NODE + " --membind=" + NODE;
+	private static final String TASKSET_TEMPLATE = "taskset -c " + CPUS;
+
+	private File root;
+	private String template;
+	private boolean defaulted;
+	private List<Integer> cpus;
+	private int nodes;
+
+	/**
+	 * Instantiates a new CPU affinity.
+	 *
+	 * @param template
+	 *          the command prefix template, null to use numactl or taskset
+	 */
+	public CpuAffinity(String template) {
+		this(template, new File("/"));
+	}
+
+	/**
+	 * Instantiates a new CPU affinity reading the processors and NUMA nodes from
+	 * the proc and sys file systems beneath the root specified.
+	 *
+	 * @param template
+	 *          the command prefix template, null to use numactl or taskset
+	 * @param root
+	 *          the root
+	 */
+	public CpuAffinity(String template, File root) {
+		this.root = root;
+		this.template = template;
+
+		cpus = readCpus();
+		nodes = countNodes();
+
+		log.debug("Pinning across processors {} and {} NUMA nodes", cpus, nodes);
+	}
+
+	/**
+	 * Gets the command prefix pinning the instance.
+	 *
+	 * @param instance
+	 *          the instance, from 0
+	 * @param instances
+	 *          the number of instances
+	 * @return the prefix, empty if the instance cannot be pinned
+	 */
+	public List<String> getPrefix(int instance, int instances) {
+		if (template == null && !defaulted) {
+			template = getDefaultTemplate(instances);
+			defaulted = true;
+		}
+
+		if (template == null) return new ArrayList<String>();
+
+		String node = Integer.toString(nodes > 0 ? instance % nodes : 0);
+		String prefix = template.replace(CPUS, toList(getCpus(instance, instances))).replace(NODE, node)
+				.replace(INSTANCE, Integer.toString(instance));
+
+		return new ArrayList<String>(Arrays.asList(prefix.trim().split("\\s+")));
+	}
+
+	/**
+	 * Gets the processors of the instance's share, a contiguous slice of those
+	 * available.
+	 *
+	 * @param instance
+	 *          the instance
+	 * @param instances
+	 *          the instances
+	 * @return the cpus
+	 */
+	public List<Integer> getCpus(int instance, int instances) {
+		if (instances >= cpus.size()) return cpus.subList(instance % cpus.size(), instance % cpus.size() + 1);
+
+		int from = instance * cpus.size() / instances;
+		int to = (instance + 1) * cpus.size() / instances;
+
+		return cpus.subList(from, to);
+	}
+
+	private String getDefaultTemplate(int instances) {
+		if (nodes >= instances && nodes > 1 && isInstalled("numactl")) return NUMACTL_TEMPLATE;
+
+		if (isInstalled("taskset")) return TASKSET_TEMPLATE;
+
+		log.warn("Neither numactl nor taskset is installed, instances are not pinned");
+		return null;
+	}
+
+	private boolean isInstalled(String command) {
+		String path = System.getenv("PATH");
+		if (path == null) return false;
+
+		for (String dir : path.split(File.pathSeparator)) {
+			if (new File(dir, command).canExecute()) return true;
+		}
+
+		return false;
+	}
+
+	private List<Integer> readCpus() {
+		String allowed = readValue("proc/self/status", "Cpus_allowed_list:");
+		if (allowed == null) allowed = readValue("sys/devices/system/cpu/online", null);
+
+		if (allowed != null) {
+			try {
+				List<Integer> parsed = parseCpus(allowed);
+				if (!parsed.isEmpty()) return parsed;
+			} catch (NumberFormatException e) {
+				log.warn("Could not parse the processors {}", allowed, e);
+			}
+		}
+
+		List<Integer> all = new ArrayList<Integer>();
+		for (int i = 0; i < Runtime.getRuntime().availableProcessors(); i++) {
+			all.add(i);
+		}
+
+		return all;
+	}
+
+	private int countNodes() {
+		File[] files = new File(root, "sys/devices/system/node").listFiles();
+		if (files == null) return 0;
+
+		int count = 0;
+		for (File f : files) {
+			if (f.isDirectory() && f.getName().matches("node\\d+")) count++;
+		}
+
+		return count;
+	}
+
+	private String readValue(String path, String key) {
+		File file = new File(root, path);
+		if (!file.isFile()) return null;
+
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new FileReader(file));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (key == null) return line.trim();
+				if (line.startsWith(key)) return line.substring(key.length()).trim();
+			}
+
+			return null;
+		} catch (IOException e) {
+			log.debug("Could not read {}", file, e);
+			return null;
+		} finally {
+			try {
+				if (reader != null) reader.close();
+			} catch (IOException e) {
+				log.debug("Could not close {}", file, e);
+			}
+		}
+	}
+
+	/**
+	 * Parses a CPU list, ie. 0-3,6.
+	 *
+	 * @param list
+	 *          the list
+	 * @return the cpus
+	 */
+	public static List<Integer> parseCpus(String list) {
+		List<Integer> cpus = new ArrayList<Integer>();
+
+		for (String range : list.split(",")) {
+			range = range.trim();
+			if (range.length() == 0) continue;
+
+			int dash = range.indexOf('-');
+			if (dash < 0) {
+				cpus.add(Integer.parseInt(range));
+				continue;
+			}
+
+			int last = Integer.parseInt(range.substring(dash + 1).trim());
+			for (int cpu = Integer.parseInt(range.substring(0, dash).trim()); cpu <= last; cpu++) {
+				cpus.add(cpu);
+			}
+		}
+
+		return cpus;
+	}
+
+	private static String toList(List<Integer> cpus) {
+		StringBuilder sb = new StringBuilder();
+		for (Integer cpu : cpus) {
+			if (sb.length() > 0) sb.append(",");
+			sb.append(cpu);
+		}
+
+		return sb.toString();
+	}
+}
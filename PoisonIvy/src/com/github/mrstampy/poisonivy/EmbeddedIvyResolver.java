@@ -0,0 +1,429 @@
+/*
+ * Poison Ivy - Java Library Dependency Resolver and Application Launcher 
+ *
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.poisonivy;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.apache.ivy.Ivy;
+import org.apache.ivy.core.module.descriptor.Artifact;
+import org.apache.ivy.core.module.id.ModuleRevisionId;
+import org.apache.ivy.core.report.ArtifactDownloadReport;
+import org.apache.ivy.core.report.DownloadStatus;
+import org.apache.ivy.core.report.ResolveReport;
+import org.apache.ivy.core.resolve.IvyNode;
+import org.apache.ivy.core.resolve.ResolvedModuleRevision;
+import org.apache.ivy.core.resolve.ResolveOptions;
+import org.apache.ivy.core.retrieve.RetrieveOptions;
+import org.apache.ivy.core.retrieve.RetrieveReport;
+import org.apache.ivy.core.settings.IvySettings;
+import org.apache.ivy.plugins.resolver.DependencyResolver;
+import org.apache.ivy.util.filter.Filter;
+import org.apache.ivy.util.filter.FilterHelper;
+import org.apache.ivy.util.url.URLHandler;
+import org.apache.ivy.util.url.URLHandlerRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves and retrieves libraries using the <a
+ * href="http://ant.apache.org/ivy">Apache Ivy</a> API in the currently running
+ * JVM, avoiding the cost of starting a separate Java process. Ivy's messages
+ * are forwarded to the {@link ProcessListener}s.
+ *
+ * @see IvyLibraryRetriever#setEmbedded(boolean)
+ */
+class EmbeddedIvyResolver {
+	private static final Logger log = LoggerFactory.getLogger(EmbeddedIvyResolver.class);
+
+	private static final String[] ALL_CONFS = { "*" };
+	private static final String CLASSIFIER = "classifier";
+
+	private ProcessListenerMessageLogger logger;
+	private StartupMetrics metrics;
+	private Filter artifactFilter = FilterHelper.NO_FILTER;
+	private MetadataCache metadataCache;
+	private MirrorSelector mirrorSelector;
+	private boolean conditionalGet;
+	private URLHandler defaultHandler;
+
+	/**
+	 * Instantiates a new embedded resolver with a list of listeners.
+	 *
+	 * @param listeners
+	 *          the listeners
+	 */
+	public EmbeddedIvyResolver(List<ProcessListener> listeners) {
+		logger = new ProcessListenerMessageLogger(listeners);
+	}
+
+	/**
+	 * Sets the metrics to record the artifacts resolved and downloaded to.
+	 *
+	 * @param metrics
+	 *          the new metrics
+	 */
+	public void setMetrics(StartupMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Sets the repository metadata cache configuration, null for Ivy's default.
+	 *
+	 * @param metadataCache
+	 *          the new metadata cache
+	 */
+	public void setMetadataCache(MetadataCache metadataCache) {
+		this.metadataCache = metadataCache;
+	}
+
+	/**
+	 * Sets the selector ordering the mirrors of the chain resolvers and hedging
+	 * stalled downloads, null to use the resolvers as declared.
+	 *
+	 * @param mirrorSelector
+	 *          the new mirror selector
+	 */
+	public void setMirrorSelector(MirrorSelector mirrorSelector) {
+		this.mirrorSelector = mirrorSelector;
+	}
+
+	/**
+	 * If true metadata is requested from HTTP repositories conditionally.
+	 *
+	 * @param conditionalGet
+	 *          the new conditional get
+	 * @see ConditionalURLHandler
+	 */
+	public void setConditionalGet(boolean conditionalGet) {
+		this.conditionalGet = conditionalGet;
+	}
+
+	/**
+	 * Sets the patterns of the artifacts to download and retrieve, all artifacts
+	 * if not set.
+	 *
+	 * @param patterns
+	 *          the new artifact patterns
+	 */
+	public void setArtifactPatterns(final ArtifactPatterns patterns) {
+		if (patterns == null || patterns.isEmpty()) {
+			artifactFilter = FilterHelper.NO_FILTER;
+			return;
+		}
+
+		artifactFilter = new Filter() {
+
+			@Override
+			public boolean accept(Object o) {
+				Artifact artifact;
+				if (o instanceof ArtifactDownloadReport) {
+					artifact = ((ArtifactDownloadReport) o).getArtifact();
+				} else {
+					artifact = (Artifact) o;
+				}
+
+				return patterns.accept(artifact.getType(), artifact.getExtraAttribute(CLASSIFIER));
+			}
+		};
+	}
+
+	/**
+	 * Resolves the dependencies of the ivy file and retrieves them using the
+	 * resolve pattern, as would the Ivy command line's -retrieve option.
+	 *
+	 * @param ivyfile
+	 *          the absolute path of the ivy file
+	 * @param ivysettings
+	 *          the absolute path of the ivy settings file, null for Ivy's
+	 *          default settings
+	 * @param resolvePattern
+	 *          the retrieve pattern
+	 * @return the cached file of each library retrieved and its destination,
+	 *         null if resolution failed
+	 * @throws Exception
+	 *           the exception
+	 */
+	@SuppressWarnings("unchecked")
+	public List<ResolvedArtifact> retrieve(String ivyfile, String ivysettings, String resolvePattern) throws Exception {
+		Ivy ivy = createIvy();
+
+		ivy.pushContext();
+		try {
+			configure(ivy, ivysettings);
+			installHandlers(ivy);
+
+			ResolveReport report = resolve(ivy, ivyfile, true);
+			if (report == null) return null;
+
+			RetrieveOptions retrieveOptions = new RetrieveOptions().setConfs(ALL_CONFS);
+			retrieveOptions.setDestArtifactPattern(resolvePattern);
+			retrieveOptions.setArtifactFilter(artifactFilter);
+
+			RetrieveReport retrieved = ivy.retrieve(getModuleRevisionId(report), retrieveOptions);
+
+			List<ResolvedArtifact> artifacts = new ArrayList<ResolvedArtifact>();
+			for (Entry<File, ArtifactDownloadReport> e : ((Map<File, ArtifactDownloadReport>) retrieved.getDownloadReport())
+					.entrySet()) {
+				File source = e.getValue().getLocalFile();
+				if (source != null) artifacts.add(new ResolvedArtifact(source, e.getKey()));
+			}
+
+			return artifacts;
+		} finally {
+			release(ivy);
+		}
+	}
+
+	/**
+	 * Resolves the dependencies of the ivy file into Ivy's cache without
+	 * retrieving them, returning the cached file of each library and its
+	 * destination as determined by the resolve pattern.
+	 *
+	 * @param ivyfile
+	 *          the absolute path of the ivy file
+	 * @param ivysettings
+	 *          the absolute path of the ivy settings file, null for Ivy's
+	 *          default settings
+	 * @param resolvePattern
+	 *          the retrieve pattern
+	 * @return the resolved artifacts, null if resolution failed
+	 * @throws Exception
+	 *           the exception
+	 */
+	@SuppressWarnings("unchecked")
+	public List<ResolvedArtifact> resolveArtifacts(String ivyfile, String ivysettings, String resolvePattern)
+			throws Exception {
+		Ivy ivy = createIvy();
+
+		ivy.pushContext();
+		try {
+			configure(ivy, ivysettings);
+			installHandlers(ivy);
+
+			ResolveReport report = resolve(ivy, ivyfile, true);
+			if (report == null) return null;
+
+			RetrieveOptions retrieveOptions = new RetrieveOptions().setConfs(ALL_CONFS);
+			retrieveOptions.setArtifactFilter(artifactFilter);
+
+			Map<ArtifactDownloadReport, Set<String>> toCopy = ivy.getRetrieveEngine().determineArtifactsToCopy(
+					getModuleRevisionId(report), resolvePattern, retrieveOptions);
+
+			List<ResolvedArtifact> artifacts = new ArrayList<ResolvedArtifact>();
+			for (Entry<ArtifactDownloadReport, Set<String>> e : toCopy.entrySet()) {
+				File source = e.getKey().getLocalFile();
+				if (source == null) continue;
+
+				for (String dest : e.getValue()) {
+					artifacts.add(new ResolvedArtifact(source, new File(dest)));
+				}
+			}
+
+			return artifacts;
+		} finally {
+			release(ivy);
+		}
+	}
+
+	/**
+	 * Resolves the dependencies of the ivy file without downloading their
+	 * artifacts, then downloads the artifacts into Ivy's cache using the
+	 * downloader.
+	 *
+	 * @param ivyfile
+	 *          the absolute path of the ivy file
+	 * @param ivysettings
+	 *          the absolute path of the ivy settings file, null for Ivy's
+	 *          default settings
+	 * @param downloader
+	 *          the downloader
+	 * @return true, if all artifacts are in Ivy's cache
+	 * @throws Exception
+	 *           the exception
+	 */
+	public boolean prefetch(String ivyfile, String ivysettings, ParallelArtifactDownloader downloader)
+			throws Exception {
+		Ivy ivy = createIvy();
+
+		ivy.pushContext();
+		try {
+			configure(ivy, ivysettings);
+			installHandlers(ivy);
+
+			ResolveReport report = resolve(ivy, ivyfile, false);
+			if (report == null) return false;
+
+			return downloader.download(ivy, getArtifacts(report), logger);
+		} finally {
+			release(ivy);
+		}
+	}
+
+	/**
+	 * Returns the artifacts of the resolution mapped to the resolver which
+	 * resolved their module, ie. the repository of a chain which supplied it.
+	 */
+	private Map<Artifact, DependencyResolver> getArtifacts(ResolveReport report) {
+		Map<Artifact, DependencyResolver> artifacts = new LinkedHashMap<Artifact, DependencyResolver>();
+
+		for (Object o : report.getDependencies()) {
+			IvyNode node = (IvyNode) o;
+			if (node.isCompletelyEvicted() || node.hasProblem()) continue;
+
+			ResolvedModuleRevision rmr = node.getModuleRevision();
+			DependencyResolver repository = rmr == null ? null : rmr.getArtifactResolver();
+
+			for (String conf : report.getConfigurations()) {
+				if (node.isEvicted(conf)) continue;
+
+				for (Artifact artifact : node.getArtifacts(conf)) {
+					if (artifactFilter.accept(artifact)) artifacts.put(artifact, repository);
+				}
+			}
+		}
+
+		return artifacts;
+	}
+
+
+	/**
+	 * Gets the directory of Ivy's repository cache as configured by the ivy
+	 * settings.
+	 *
+	 * @param ivysettings
+	 *          the absolute path of the ivy settings file, null for Ivy's
+	 *          default settings
+	 * @return the cache dir
+	 * @throws Exception
+	 *           the exception
+	 */
+	public File getCacheDir(String ivysettings) throws Exception {
+		Ivy ivy = createIvy();
+
+		ivy.pushContext();
+		try {
+			configure(ivy, ivysettings);
+
+			return ivy.getSettings().getDefaultRepositoryCacheBasedir();
+		} finally {
+			release(ivy);
+		}
+	}
+
+	private Ivy createIvy() {
+		IvySettings settings = new IvySettings();
+		settings.addAllVariables(System.getProperties());
+		if (metadataCache != null) settings.addAllVariables(metadataCache.getVariables());
+
+		Ivy ivy = Ivy.newInstance(settings);
+		ivy.getLoggerEngine().pushLogger(logger);
+
+		return ivy;
+	}
+
+	private void configure(Ivy ivy, String ivysettings) throws ParseException, IOException {
+		if (ivysettings == null) {
+			ivy.configureDefault();
+		} else {
+			ivy.configure(new File(ivysettings));
+		}
+	}
+
+	private ResolveReport resolve(Ivy ivy, String ivyfile, boolean download) throws ParseException, IOException {
+		ResolveOptions resolveOptions = new ResolveOptions().setConfs(ALL_CONFS).setDownload(download);
+		resolveOptions.setArtifactFilter(artifactFilter);
+		ResolveReport report = ivy.resolve(new File(ivyfile).toURI().toURL(), resolveOptions);
+
+		if (report.hasError()) {
+			log.error("Embedded Ivy resolution of {} failed", ivyfile);
+			return null;
+		}
+
+		if (download) recordMetrics(report);
+
+		return report;
+	}
+
+	private void recordMetrics(ResolveReport report) {
+		if (metrics == null) return;
+
+		ArtifactDownloadReport[] reports = report.getAllArtifactsReports();
+
+		int downloaded = 0;
+		long bytes = 0;
+		for (ArtifactDownloadReport adr : reports) {
+			if (adr.getDownloadStatus() != DownloadStatus.SUCCESSFUL) continue;
+
+			downloaded++;
+			bytes += adr.getSize();
+		}
+
+		metrics.set(StartupMetrics.ARTIFACT_COUNT, reports.length);
+		metrics.add(StartupMetrics.ARTIFACTS_DOWNLOADED, downloaded);
+		metrics.add(StartupMetrics.BYTES_DOWNLOADED, bytes);
+	}
+
+	private ModuleRevisionId getModuleRevisionId(ResolveReport report) {
+		return report.getModuleDescriptor().getModuleRevisionId();
+	}
+
+	/**
+	 * Replaces Ivy's URL handler with the conditional requests of metadata and
+	 * the hedging of mirror downloads, as configured, until the Ivy instance is
+	 * released.
+	 */
+	private void installHandlers(Ivy ivy) throws InterruptedException {
+		if (!conditionalGet && mirrorSelector == null) return;
+
+		defaultHandler = URLHandlerRegistry.getDefault();
+
+		URLHandler handler = defaultHandler;
+		if (conditionalGet) handler = new ConditionalURLHandler(handler);
+
+		if (mirrorSelector != null) {
+			mirrorSelector.select(ivy.getSettings());
+			handler = new HedgingURLHandler(handler, mirrorSelector);
+		}
+
+		URLHandlerRegistry.setDefault(handler);
+	}
+
+	private void release(Ivy ivy) {
+		if (defaultHandler != null) {
+			URLHandlerRegistry.setDefault(defaultHandler);
+			defaultHandler = null;
+		}
+
+		if (mirrorSelector != null) mirrorSelector.save();
+
+		ivy.popContext();
+		ivy.getLoggerEngine().popLogger();
+	}
+
+}
@@ -0,0 +1,245 @@
+/*
+ * Poison Ivy - Java Library Dependency Resolver and Application Launcher 
+ *
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.poisonivy;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ivy.util.CopyProgressListener;
+import org.apache.ivy.util.url.URLHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Wraps Ivy's URL handler to measure the downloads from mirrors and hedge
+ * those which stall. Should a download not complete within the
+ * {@link MirrorSelector#getHedgeDelay()}, or fail, the artifact is also
+ * requested from the best healthy alternate mirror and the first complete
+ * copy kept. The slower request is abandoned, its partial file removed once
+ * it completes.<br>
+ * <br>
+ * All other requests are passed to the wrapped handler unchanged.
+ *
+ * @see MirrorSelector
+ */
+class HedgingURLHandler implements URLHandler {
+	private static final Logger log = LoggerFactory.getLogger(HedgingURLHandler.class);
+
+	private static final String PRIMARY_SFX = ".primary.part";
+	private static final String HEDGE_SFX = ".hedge.part";
+
+	private static final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+		private AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "Hedged download thread " + count.incrementAndGet());
+			thread.setDaemon(true);
+
+			return thread;
+		}
+	});
+
+	private URLHandler delegate;
+	private MirrorSelector selector;
+
+	/**
+	 * Instantiates a new hedging URL handler.
+	 *
+	 * @param delegate
+	 *          the wrapped handler
+	 * @param selector
+	 *          the selector
+	 */
+	public HedgingURLHandler(URLHandler delegate, MirrorSelector selector) {
+		this.delegate = delegate;
+		this.selector = selector;
+	}
+
+	@Override
+	public void download(URL src, File dest, CopyProgressListener l) throws IOException {
+		URL alternate = selector.getAlternate(src);
+		if (alternate == null) {
+			new Attempt(src, dest, l, null).call();
+			return;
+		}
+
+		AtomicBoolean decided = new AtomicBoolean();
+		CompletionService<File> cs = new ExecutorCompletionService<File>(executor);
+
+		File primaryFile = new File(dest.getPath() + PRIMARY_SFX);
+		File hedgeFile = new File(dest.getPath() + HEDGE_SFX);
+
+		Future<File> primary = cs.submit(new Attempt(src, primaryFile, l, decided));
+		Future<File> hedge = null;
+
+		int pending = 1;
+		try {
+			Future<File> done = cs.poll(selector.getHedgeDelay(), TimeUnit.MILLISECONDS);
+			if (done == null) {
+				log.debug("Download of {} exceeded {} ms, hedging with {}", src, selector.getHedgeDelay(), alternate);
+				hedge = cs.submit(new Attempt(alternate, hedgeFile, null, decided));
+				pending++;
+				done = cs.take();
+			}
+
+			while (true) {
+				pending--;
+
+				IOException failure;
+				try {
+					File file = done.get();
+					decided.set(true);
+
+					Files.move(file.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+					if (hedge != null) selector.hedged(done == hedge);
+					return;
+				} catch (ExecutionException e) {
+					failure = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+				}
+
+				if (hedge == null) {
+					log.debug("Download of {} failed, retrying with {}", src, alternate);
+					hedge = cs.submit(new Attempt(alternate, hedgeFile, null, decided));
+					pending++;
+				}
+
+				if (pending == 0) throw failure;
+
+				done = cs.take();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted downloading " + src);
+		} finally {
+			decided.set(true);
+			if (primary.isDone()) primaryFile.delete();
+			if (hedge == null || hedge.isDone()) hedgeFile.delete();
+		}
+	}
+
+	@Override
+	public boolean isReachable(URL url) {
+		return delegate.isReachable(url);
+	}
+
+	@Override
+	public boolean isReachable(URL url, int timeout) {
+		return delegate.isReachable(url, timeout);
+	}
+
+	@Override
+	public long getContentLength(URL url) {
+		return delegate.getContentLength(url);
+	}
+
+	@Override
+	public long getContentLength(URL url, int timeout) {
+		return delegate.getContentLength(url, timeout);
+	}
+
+	@Override
+	public long getLastModified(URL url) {
+		return delegate.getLastModified(url);
+	}
+
+	@Override
+	public long getLastModified(URL url, int timeout) {
+		return delegate.getLastModified(url, timeout);
+	}
+
+	@Override
+	public URLInfo getURLInfo(URL url) {
+		return delegate.getURLInfo(url);
+	}
+
+	@Override
+	public URLInfo getURLInfo(URL url, int timeout) {
+		return delegate.getURLInfo(url, timeout);
+	}
+
+	@Override
+	public InputStream openStream(URL url) throws IOException {
+		return delegate.openStream(url);
+	}
+
+	@Override
+	public void upload(File src, URL dest, CopyProgressListener l) throws IOException {
+		delegate.upload(src, dest, l);
+	}
+
+	@Override
+	public void setRequestMethod(int requestMethod) {
+		delegate.setRequestMethod(requestMethod);
+	}
+
+	/**
+	 * A timed download, removing its file should another attempt have been
+	 * kept meanwhile.
+	 */
+	private class Attempt implements Callable<File> {
+		private URL src;
+		private File dest;
+		private CopyProgressListener l;
+		private AtomicBoolean decided;
+
+		Attempt(URL src, File dest, CopyProgressListener l, AtomicBoolean decided) {
+			this.src = src;
+			this.dest = dest;
+			this.l = l;
+			this.decided = decided;
+		}
+
+		@Override
+		public File call() throws IOException {
+			long start = System.nanoTime();
+			try {
+				delegate.download(src, dest, l);
+			} catch (IOException e) {
+				selector.failed(src);
+				dest.delete();
+				throw e;
+			}
+
+			selector.downloaded(src, dest.length(), (System.nanoTime() - start) / 1000000);
+
+			if (decided != null && decided.get()) dest.delete();
+
+			return dest;
+		}
+	}
+}
@@ -0,0 +1,240 @@
+/*
+ * Poison Ivy - Java Library Dependency Resolver and Application Launcher 
+ *
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.poisonivy;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Launches the main class, or the Main-Class of the main jar, in the currently
+ * running JVM. The class is loaded by a class loader over the main jar if any,
+ * the jars of its manifest's Class-Path and the libraries in the library
+ * directory, whose parent is that of the system class loader; the classpath of
+ * the running JVM, and so Poison Ivy's own classes, is not visible to the
+ * application. The isolation is of classes only: system properties, static
+ * JVM state and the JVM's lifetime are shared with Poison Ivy. The main method
+ * is invoked on a new thread whose context class loader is the application's
+ * class loader.
+ *
+ * @see PoisonIvy#IN_JVM_PARM
+ */
+class InJvmLauncher {
+	private static final Logger log = LoggerFactory.getLogger(InJvmLauncher.class);
+
+	private String libdir;
+	private Properties systemProperties = new Properties();
+
+	/**
+	 * Instantiates a new in JVM launcher using the libraries in the library
+	 * directory.
+	 *
+	 * @param libdir
+	 *          the libdir
+	 */
+	public InJvmLauncher(String libdir) {
+		this.libdir = libdir;
+	}
+
+	/**
+	 * Sets the system properties to apply to the running JVM before launch.
+	 *
+	 * @param props
+	 *          the props
+	 */
+	public void setSystemProperties(Properties props) {
+		if (props != null) systemProperties.putAll(props);
+	}
+
+	/**
+	 * Launches the Main-Class of the jar.
+	 *
+	 * @param jar
+	 *          the jar
+	 * @param args
+	 *          the arguments for the main method
+	 * @return the thread the application was started on
+	 * @throws Exception
+	 *           the exception
+	 */
+	public Thread launchJar(String jar, String... args) throws Exception {
+		File file = new File(jar);
+		String mainClass = getMainClass(file);
+
+		if (mainClass == null) throw new IllegalArgumentException("No Main-Class specified in the manifest of " + jar);
+
+		return launch(mainClass, file, args);
+	}
+
+	/**
+	 * Launches the main class.
+	 *
+	 * @param mainClass
+	 *          the main class
+	 * @param args
+	 *          the arguments for the main method
+	 * @return the thread the application was started on
+	 * @throws Exception
+	 *           the exception
+	 */
+	public Thread launchClass(String mainClass, String... args) throws Exception {
+		return launch(mainClass, null, args);
+	}
+
+	private Thread launch(String mainClass, File jar, final String[] args) throws Exception {
+		applySystemProperties();
+
+		ClassLoader loader = createClassLoader(jar);
+		final Method main = getMainMethod(loader.loadClass(mainClass));
+
+		log.debug("Launching {} in the running JVM", mainClass);
+
+		Thread thread = new Thread(mainClass + " main thread") {
+			public void run() {
+				try {
+					main.invoke(null, (Object) args);
+				} catch (InvocationTargetException e) {
+					log.error("Unexpected exception from {}", main, e.getCause());
+				} catch (IllegalAccessException e) {
+					log.error("Could not invoke {}", main, e);
+				}
+			}
+		};
+
+		thread.setContextClassLoader(loader);
+		thread.start();
+
+		return thread;
+	}
+
+	private void applySystemProperties() {
+		for (Entry<Object, Object> entry : systemProperties.entrySet()) {
+			System.setProperty(entry.getKey().toString(), entry.getValue().toString());
+		}
+	}
+
+	private Method getMainMethod(Class<?> clazz) throws NoSuchMethodException {
+		Method main = clazz.getMethod("main", String[].class);
+
+		if (!Modifier.isStatic(main.getModifiers())) {
+			throw new NoSuchMethodException("main method of " + clazz.getName() + " is not static");
+		}
+
+		return main;
+	}
+
+	/**
+	 * Creates the class loader over the main jar (if not null), the jars of its
+	 * manifest's Class-Path and the libraries in the library directory. Its
+	 * parent is the parent of the system class loader, so that neither the
+	 * classpath of the running JVM nor Poison Ivy's classes are visible.
+	 *
+	 * @param jar
+	 *          the main jar, may be null
+	 * @return the class loader
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	protected ClassLoader createClassLoader(File jar) throws IOException {
+		List<URL> urls = new ArrayList<URL>();
+
+		if (jar != null) {
+			urls.add(jar.toURI().toURL());
+			urls.addAll(getManifestClasspath(jar));
+		}
+
+		for (File lib : getLibraries()) {
+			URL url = lib.toURI().toURL();
+			if (!urls.contains(url)) urls.add(url);
+		}
+
+		if (log.isDebugEnabled()) {
+			for (URL url : urls) {
+				log.debug("**** Class loader URL: {}", url);
+			}
+		}
+
+		return new URLClassLoader(urls.toArray(new URL[urls.size()]), ClassLoader.getSystemClassLoader().getParent());
+	}
+
+	// Class-Path entries are relative URLs resolved against the jar's location
+	private List<URL> getManifestClasspath(File jar) throws IOException {
+		List<URL> urls = new ArrayList<URL>();
+
+		Manifest manifest = getManifest(jar);
+		String classpath = manifest == null ? null : manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH);
+		if (classpath == null) return urls;
+
+		URL base = jar.getAbsoluteFile().toURI().toURL();
+		for (String entry : classpath.trim().split("\\s+")) {
+			if (entry.length() > 0) urls.add(new URL(base, entry));
+		}
+
+		return urls;
+	}
+
+	private List<File> getLibraries() {
+		File[] libs = new File(libdir).listFiles(new FileFilter() {
+
+			@Override
+			public boolean accept(File pathname) {
+				return pathname.isFile() && pathname.getName().endsWith(".jar");
+			}
+		});
+
+		if (libs == null) return new ArrayList<File>();
+
+		Arrays.sort(libs);
+
+		return Arrays.asList(libs);
+	}
+
+	private String getMainClass(File jar) throws IOException {
+		Manifest manifest = getManifest(jar);
+
+		return manifest == null ? null : manifest.getMainAttributes().getValue(Attributes.Name.MAIN_CLASS);
+	}
+
+	private Manifest getManifest(File jar) throws IOException {
+		JarFile jf = new JarFile(jar);
+		try {
+			return jf.getManifest();
+		} finally {
+			jf.close();
+		}
+	}
+}
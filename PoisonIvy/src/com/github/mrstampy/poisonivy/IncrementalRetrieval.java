@@ -0,0 +1,251 @@
+/*
+ * Poison Ivy - Java Library Dependency Resolver and Application Launcher 
+ *
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.poisonivy;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Updates a library directory with the libraries of a resolution, copying only
+ * those libraries which have been added or have changed. Unchanged libraries
+ * are hard linked (or copied, should linking not be possible) into a staging
+ * directory beside the library directory, which replaces the library directory
+ * once fully populated. Should the process stop part way through the previous
+ * library directory is restored on the next retrieval.
+ *
+ * @see IvyLibraryRetriever#setIncremental(boolean)
+ */
+class IncrementalRetrieval {
+	private static final Logger log = LoggerFactory.getLogger(IncrementalRetrieval.class);
+
+	/** The Constant STAGING_SFX {@value #STAGING_SFX}. */
+	public static final String STAGING_SFX = ".staging";
+
+	/** The Constant PREVIOUS_SFX {@value #PREVIOUS_SFX}. */
+	public static final String PREVIOUS_SFX = ".previous";
+
+	private File libdir;
+	private Path root;
+	private File staging;
+	private File previous;
+
+	/**
+	 * Instantiates a new incremental retrieval for the library directory.
+	 *
+	 * @param libdir
+	 *          the libdir
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public IncrementalRetrieval(File libdir) throws IOException {
+		this.libdir = libdir.getCanonicalFile();
+		this.root = libdir.toPath().toAbsolutePath().normalize();
+		this.staging = new File(this.libdir.getParentFile(), this.libdir.getName() + STAGING_SFX);
+		this.previous = new File(this.libdir.getParentFile(), this.libdir.getName() + PREVIOUS_SFX);
+	}
+
+	/**
+	 * Restores the previous library directory should a prior retrieval have
+	 * stopped between moving it aside and moving the staging directory into its
+	 * place, and removes any remnants of a prior retrieval.
+	 */
+	public void recover() {
+		if (!libdir.exists() && previous.exists()) {
+			log.warn("Restoring library directory {} from {}", libdir, previous);
+			if (!previous.renameTo(libdir)) log.error("Could not restore {}", libdir);
+		}
+
+		deleteRecursively(staging);
+		deleteRecursively(previous);
+	}
+
+	/**
+	 * Retrieves the artifacts into the library directory.
+	 *
+	 * @param artifacts
+	 *          the resolved artifacts
+	 * @param fingerprint
+	 *          the fingerprint of the resolution inputs, written to the
+	 *          {@link ResolutionManifest}
+	 * @param verify
+	 *          if true existing libraries are compared by checksum, otherwise
+	 *          libraries of the same size and modification time are considered
+	 *          unchanged
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public void retrieve(List<ResolvedArtifact> artifacts, String fingerprint, boolean verify) throws IOException {
+		recover();
+
+		if (!staging.mkdirs()) throw new IOException("Could not create " + staging);
+
+		int unchanged = 0;
+		int copied = 0;
+		Set<String> retained = new HashSet<String>();
+		Map<String, File> sources = new HashMap<String, File>();
+
+		for (ResolvedArtifact artifact : artifacts) {
+			String path = relativePath(artifact.getDestination());
+			File existing = new File(libdir, path);
+			File staged = new File(staging, path);
+
+			if (staged.exists()) continue;
+
+			File parent = staged.getParentFile();
+			if (!parent.exists() && !parent.mkdirs()) throw new IOException("Could not create " + parent);
+
+			if (isUnchanged(artifact.getSource(), existing, verify)) {
+				link(existing, staged);
+				unchanged++;
+			} else {
+				copy(artifact.getSource(), staged);
+				log.debug("Retrieved {}", path);
+				copied++;
+			}
+
+			retained.add(path);
+			sources.put(path, artifact.getSource());
+		}
+
+		ResolutionManifest.create(fingerprint, staging, sources).write(staging);
+
+		int removed = countRemoved(libdir, "", retained);
+
+		swap();
+
+		log.debug("{} libraries unchanged, {} added or changed, {} removed", unchanged, copied, removed);
+	}
+
+	// symbolic links are not resolved, the libraries may link into a
+	// LibraryStore
+	private String relativePath(File destination) throws IOException {
+		Path dest = destination.toPath().toAbsolutePath().normalize();
+
+		Path base = dest.startsWith(root) ? root : libdir.toPath();
+		if (!dest.startsWith(base) || dest.equals(base)) {
+			throw new IOException("Resolve pattern destination " + dest + " is not within " + libdir);
+		}
+
+		return base.relativize(dest).toString();
+	}
+
+	private boolean isUnchanged(File source, File existing, boolean verify) throws IOException {
+		if (!existing.isFile() || existing.length() != source.length()) return false;
+
+		if (!verify && existing.lastModified() == source.lastModified()) return true;
+
+		return Checksums.checksum(existing).equals(Checksums.checksum(source));
+	}
+
+	private void link(File existing, File staged) throws IOException {
+		try {
+			Files.createLink(staged.toPath(), existing.toPath());
+		} catch (IOException e) {
+			log.debug("Could not link {}, copying", existing, e);
+			copy(existing, staged);
+		} catch (UnsupportedOperationException e) {
+			copy(existing, staged);
+		}
+	}
+
+	private void copy(File from, File to) throws IOException {
+		FileChannel in = null;
+		FileChannel out = null;
+		try {
+			in = new FileInputStream(from).getChannel();
+			out = new FileOutputStream(to).getChannel();
+
+			long size = in.size();
+			long pos = 0;
+			while (pos < size) {
+				pos += in.transferTo(pos, size - pos, out);
+			}
+		} finally {
+			if (in != null) in.close();
+			if (out != null) out.close();
+		}
+
+		to.setLastModified(from.lastModified());
+	}
+
+	private int countRemoved(File dir, String prefix, Set<String> retained) {
+		File[] files = dir.listFiles();
+		if (files == null) return 0;
+
+		int removed = 0;
+		for (File f : files) {
+			String path = prefix + f.getName();
+			if (f.isDirectory()) {
+				removed += countRemoved(f, path + File.separator, retained);
+			} else if (!ResolutionManifest.isManifest(f) && !retained.contains(path)) {
+				log.debug("Removing {}", path);
+				removed++;
+			}
+		}
+
+		return removed;
+	}
+
+	private void swap() throws IOException {
+		if (libdir.exists() && !libdir.renameTo(previous)) {
+			throw new IOException("Could not move " + libdir + " to " + previous);
+		}
+
+		if (!staging.renameTo(libdir)) {
+			if (previous.exists()) previous.renameTo(libdir);
+			throw new IOException("Could not move " + staging + " to " + libdir);
+		}
+
+		deleteRecursively(previous);
+	}
+
+	/**
+	 * Deletes the file, or the directory and its contents.
+	 *
+	 * @param file
+	 *          the file
+	 */
+	static void deleteRecursively(File file) {
+		if (!file.exists()) return;
+
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				deleteRecursively(f);
+			}
+		}
+
+		if (!file.delete()) log.error("Could not delete {}", file.getAbsolutePath());
+	}
+}
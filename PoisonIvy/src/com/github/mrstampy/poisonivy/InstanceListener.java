@@ -0,0 +1,51 @@
+/*
+ * Poison Ivy - Java Library Dependency Resolver and Application Launcher 
+ *
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.poisonivy;
+
+/**
+ * The listener interface for receiving the output of each of several
+ * instances of the executable process, tagged with the instance's index.
+ *
+ * @see PoisonIvy#addInstanceListener(InstanceListener)
+ * @see PoisonIvy#INSTANCES_PARM
+ */
+public interface InstanceListener {
+
+	/**
+	 * Called when an instance's output stream has data.
+	 *
+	 * @param instance
+	 *          the instance, from 0
+	 * @param out
+	 *          the out
+	 */
+	void output(int instance, String out);
+
+	/**
+	 * Called when an instance's error stream has data.
+	 *
+	 * @param instance
+	 *          the instance, from 0
+	 * @param err
+	 *          the err
+	 */
+	void error(int instance, String err);
+}
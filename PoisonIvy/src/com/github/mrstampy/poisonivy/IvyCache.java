@@ -0,0 +1,442 @@
+/*
+ * Poison Ivy - Java Library Dependency Resolver and Application Launcher 
+ *
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.poisonivy;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounds the size of an Ivy cache. The time each cached library was last
+ * retrieved into a library directory is recorded in an index in the cache,
+ * along with the library directories using the cache. Should the cache exceed
+ * its maximum size the least recently used files are evicted until it is
+ * below {@value #LOW_WATERMARK_PERCENT}% of the maximum, so that the working
+ * set stays small enough to remain in the page cache. Files without a
+ * recorded use are ordered by their modification time.<br>
+ * <br>
+ * The cached files recorded in the {@link ResolutionManifest} of any existing
+ * library directory using the cache as the sources of its libraries are never
+ * evicted, nor are the metadata of their modules or files used or modified
+ * within the last {@value #MIN_AGE_MILLIS} ms, which may belong to a
+ * resolution in progress. Evicted files are downloaded again should they be
+ * required.<br>
+ * <br>
+ * {@link #compact()} additionally removes partial downloads, stale lock files
+ * and empty directories.
+ *
+ * @see IvyLibraryRetriever#setCacheMaxSize(long)
+ */
+class IvyCache {
+	private static final Logger log = LoggerFactory.getLogger(IvyCache.class);
+
+	/** The Constant INDEX_FILE {@value #INDEX_FILE}. */
+	public static final String INDEX_FILE = "poisonivy.cache";
+
+	/** The Constant LOW_WATERMARK_PERCENT {@value #LOW_WATERMARK_PERCENT}. */
+	public static final int LOW_WATERMARK_PERCENT = 90;
+
+	/** The Constant MIN_AGE_MILLIS {@value #MIN_AGE_MILLIS}. */
+	public static final long MIN_AGE_MILLIS = 60 * 1000;
+
+	private static final long STALE_LOCK_MILLIS = 60 * 60 * 1000;
+
+	private static final String USED_PFX = "used.";
+	private static final String LIBDIR_PFX = "libdir.";
+
+	private File cacheDir;
+	private long maxSize;
+
+	/**
+	 * Instantiates a new Ivy cache.
+	 *
+	 * @param cacheDir
+	 *          the cache dir
+	 * @param maxSize
+	 *          the maximum size in bytes, 0 if unbounded
+	 */
+	public IvyCache(File cacheDir, long maxSize) {
+		this.cacheDir = cacheDir;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Registers the library directory as using the cache and records the use of
+	 * the cached files its {@link ResolutionManifest} records as the sources of
+	 * its libraries.
+	 *
+	 * @param libdir
+	 *          the libdir
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public void recordUse(File libdir) throws IOException {
+		ResolutionManifest manifest = ResolutionManifest.read(libdir);
+		if (manifest == null) return;
+
+		Properties index = readIndex();
+
+		register(index, libdir.getCanonicalFile());
+
+		// an update pins its libraries once promoted
+		String name = libdir.getName();
+		if (name.endsWith(LibraryUpdate.UPDATE_SFX)) {
+			String promoted = name.substring(0, name.length() - LibraryUpdate.UPDATE_SFX.length());
+			register(index, new File(libdir.getParentFile(), promoted).getCanonicalFile());
+		}
+
+		String now = Long.toString(System.currentTimeMillis());
+		for (Path p : getSources(manifest)) {
+			index.setProperty(USED_PFX + relative(p.toFile()), now);
+		}
+
+		writeIndex(index);
+	}
+
+	private void register(Properties index, File libdir) throws IOException {
+		String path = libdir.getPath();
+		index.setProperty(LIBDIR_PFX + Checksums.toHex(Checksums.newDigest().digest(path.getBytes("UTF-8"))), path);
+	}
+
+	/**
+	 * Evicts the least recently used unpinned files should the cache exceed its
+	 * maximum size.
+	 *
+	 * @return the number of bytes evicted
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public long evict() throws IOException {
+		if (maxSize <= 0) return 0;
+
+		List<File> files = listFiles(cacheDir, new ArrayList<File>());
+
+		long size = 0;
+		for (File f : files) {
+			size += f.length();
+		}
+
+		if (size <= maxSize) {
+			log.debug("Ivy cache {} is {} bytes, within {}", cacheDir, size, maxSize);
+			return 0;
+		}
+
+		return evict(files, size, maxSize / 100 * LOW_WATERMARK_PERCENT);
+	}
+
+	/**
+	 * Removes partial downloads, stale lock files, empty directories and the
+	 * records of files and library directories which no longer exist, then
+	 * evicts the least recently used unpinned files until the cache is below
+	 * the low watermark of its maximum size.
+	 *
+	 * @return the number of bytes removed
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public long compact() throws IOException {
+		long removed = 0;
+
+		List<File> files = new ArrayList<File>();
+		for (File f : listFiles(cacheDir, new ArrayList<File>())) {
+			if (isDebris(f)) {
+				removed += f.length();
+				delete(f);
+			} else {
+				files.add(f);
+			}
+		}
+
+		long size = 0;
+		for (File f : files) {
+			size += f.length();
+		}
+
+		if (maxSize > 0 && size > maxSize / 100 * LOW_WATERMARK_PERCENT) {
+			removed += evict(files, size, maxSize / 100 * LOW_WATERMARK_PERCENT);
+		} else {
+			pruneIndex(files);
+		}
+
+		removeEmptyDirectories(cacheDir);
+
+		log.info("Compacted Ivy cache {}, {} bytes removed", cacheDir, removed);
+
+		return removed;
+	}
+
+	private long evict(List<File> files, long size, long target) throws IOException {
+		final Properties index = readIndex();
+		Set<Path> pinned = getPinned(index);
+
+		final Map<File, Long> used = new HashMap<File, Long>();
+		for (File f : files) {
+			String time = index.getProperty(USED_PFX + relative(f));
+			used.put(f, time == null ? f.lastModified() : Math.max(f.lastModified(), Long.parseLong(time)));
+		}
+
+		Collections.sort(files, new Comparator<File>() {
+
+			@Override
+			public int compare(File o1, File o2) {
+				return used.get(o1).compareTo(used.get(o2));
+			}
+		});
+
+		long recent = System.currentTimeMillis() - MIN_AGE_MILLIS;
+		long evicted = 0;
+		int count = 0;
+		for (File f : files) {
+			if (size - evicted <= target) break;
+			if (used.get(f) > recent) break;
+			if (pinned.contains(absolute(f))) continue;
+
+			long length = f.length();
+			if (!f.delete()) {
+				log.warn("Could not evict {}", f);
+				continue;
+			}
+
+			evicted += length;
+			count++;
+		}
+
+		removeEmptyDirectories(cacheDir);
+		pruneIndex(listFiles(cacheDir, new ArrayList<File>()));
+
+		log.info("Evicted {} files, {} bytes, from Ivy cache {}", count, evicted, cacheDir);
+
+		if (size - evicted > maxSize) {
+			log.warn("Ivy cache {} exceeds its maximum size, the libraries in use total {} bytes", cacheDir, size - evicted);
+		}
+
+		return evicted;
+	}
+
+	/**
+	 * Returns the cached files of the libraries of the existing library
+	 * directories using the cache, and the metadata of their modules: the files
+	 * of the directory above each library's, ie. org/module/ivy-1.0.xml for
+	 * org/module/jars/module-1.0.jar.
+	 */
+	private Set<Path> getPinned(Properties index) {
+		Set<Path> pinned = new HashSet<Path>();
+
+		for (String key : index.stringPropertyNames()) {
+			if (!key.startsWith(LIBDIR_PFX)) continue;
+
+			ResolutionManifest manifest = ResolutionManifest.read(new File(index.getProperty(key)));
+			if (manifest == null) continue;
+
+			for (Path p : getSources(manifest)) {
+				if (!pinned.add(p)) continue;
+
+				Path module = p.getParent().getParent();
+				if (module == null || module.equals(absolute(cacheDir))) continue;
+
+				File[] metadata = module.toFile().listFiles();
+				if (metadata == null) continue;
+
+				for (File m : metadata) {
+					if (m.isFile()) pinned.add(absolute(m));
+				}
+			}
+		}
+
+		return pinned;
+	}
+
+	/**
+	 * Returns the existing files in the cache recorded as the sources of the
+	 * manifest's libraries. Libraries of unknown source, or retrieved from
+	 * another cache, are not pinned.
+	 */
+	private List<Path> getSources(ResolutionManifest manifest) {
+		Path root = absolute(cacheDir);
+
+		List<Path> sources = new ArrayList<Path>();
+		int unknown = 0;
+		for (ResolutionManifest.Artifact artifact : manifest.getArtifacts().values()) {
+			Path source = artifact.getSource() == null ? null : absolute(artifact.getSource());
+			if (source == null || !source.startsWith(root)) {
+				unknown++;
+			} else if (source.toFile().isFile()) {
+				sources.add(source);
+			}
+		}
+
+		if (unknown > 0) log.debug("{} libraries have no recorded source in Ivy cache {}", unknown, cacheDir);
+
+		return sources;
+	}
+
+	private static Path absolute(File f) {
+		return f.toPath().toAbsolutePath().normalize();
+	}
+
+	private void pruneIndex(List<File> files) throws IOException {
+		Properties index = readIndex();
+
+		Set<String> existing = new HashSet<String>();
+		for (File f : files) {
+			existing.add(USED_PFX + relative(f));
+		}
+
+		boolean pruned = false;
+		for (String key : index.stringPropertyNames()) {
+			boolean stale = key.startsWith(USED_PFX) ? !existing.contains(key) : key.startsWith(LIBDIR_PFX)
+					&& !ResolutionManifest.exists(new File(index.getProperty(key)));
+
+			if (stale) {
+				index.remove(key);
+				pruned = true;
+			}
+		}
+
+		if (pruned) writeIndex(index);
+	}
+
+	private boolean isDebris(File f) {
+		String name = f.getName();
+		if (name.endsWith(".part")) return true;
+
+		return name.endsWith(".lck") && f.lastModified() < System.currentTimeMillis() - STALE_LOCK_MILLIS;
+	}
+
+	private List<File> listFiles(File dir, List<File> files) {
+		File[] children = dir.listFiles();
+		if (children == null) return files;
+
+		for (File f : children) {
+			if (f.isDirectory()) {
+				listFiles(f, files);
+			} else if (!isIndex(f)) {
+				files.add(f);
+			}
+		}
+
+		return files;
+	}
+
+	private boolean isIndex(File f) {
+		return f.getParentFile().equals(cacheDir) && f.getName().startsWith(INDEX_FILE);
+	}
+
+	private void removeEmptyDirectories(File dir) {
+		File[] children = dir.listFiles();
+		if (children == null) return;
+
+		for (File f : children) {
+			if (!f.isDirectory()) continue;
+
+			removeEmptyDirectories(f);
+
+			String[] remaining = f.list();
+			if (remaining != null && remaining.length == 0) delete(f);
+		}
+	}
+
+	private String relative(File f) {
+		return cacheDir.toURI().relativize(f.toURI()).getPath();
+	}
+
+	private Properties readIndex() throws IOException {
+		Properties index = new Properties();
+
+		File file = new File(cacheDir, INDEX_FILE);
+		if (!file.exists()) return index;
+
+		InputStream in = new FileInputStream(file);
+		try {
+			index.load(in);
+		} finally {
+			in.close();
+		}
+
+		return index;
+	}
+
+	/**
+	 * Writes the index atomically. Concurrent writers may lose each other's
+	 * records of use, making eviction approximate but never unsafe, as pins
+	 * are read from the library directories themselves.
+	 */
+	private void writeIndex(Properties index) throws IOException {
+		File file = new File(cacheDir, INDEX_FILE);
+		File temp = File.createTempFile(INDEX_FILE, ".tmp", cacheDir);
+
+		OutputStream out = new FileOutputStream(temp);
+		try {
+			index.store(out, "Poison Ivy cache index");
+		} finally {
+			out.close();
+		}
+
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private void delete(File f) {
+		if (!f.delete()) log.error("Could not delete {}", f.getAbsolutePath());
+	}
+
+	/**
+	 * Parses a size in bytes with an optional k, m or g suffix, ie. 2g.
+	 *
+	 * @param size
+	 *          the size
+	 * @return the bytes
+	 */
+	public static long parseSize(String size) {
+		String s = size.trim().toLowerCase();
+		if (s.endsWith("b")) s = s.substring(0, s.length() - 1);
+
+		long multiplier = 1;
+		if (s.endsWith("k")) {
+			multiplier = 1024;
+		} else if (s.endsWith("m")) {
+			multiplier = 1024 * 1024;
+		} else if (s.endsWith("g")) {
+			multiplier = 1024 * 1024 * 1024;
+		}
+
+		if (multiplier > 1) s = s.substring(0, s.length() - 1);
+
+		return Long.parseLong(s.trim()) * multiplier;
+	}
+}
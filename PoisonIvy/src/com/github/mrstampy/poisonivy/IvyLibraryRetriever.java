@@ -29,11 +29,27 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
 
 /**
  * This class uses <a href="http://ant.apache.org/ivy>Apache Ivy</a> to retrieve
@@ -58,15 +74,57 @@ public class IvyLibraryRetriever {
 	/** The Constant RESOLVE_PATTERN {@value #RESOLVE_PATTERN}. */
 	public static final String RESOLVE_PATTERN = "[artifact]-[revision](-[classifier]).[ext]";
 
-	private static final String[] srcsNDocs = { "-javadoc.", "-javadocs.", "-doc.", "-source.", "-sources.", "-src." };
+	/** The Constant DEFAULT_REPOSITORY_CONCURRENCY {@value #DEFAULT_REPOSITORY_CONCURRENCY}. */
+	public static final int DEFAULT_REPOSITORY_CONCURRENCY = 4;
+
+	/** The Constant DEFAULT_LOCK_TIMEOUT {@value #DEFAULT_LOCK_TIMEOUT} seconds. */
+	public static final int DEFAULT_LOCK_TIMEOUT = 600;
+
+	/** The Constant DEFAULT_DOWNLOAD_RETRIES {@value #DEFAULT_DOWNLOAD_RETRIES}. */
+	public static final int DEFAULT_DOWNLOAD_RETRIES = 2;
 
 	private boolean cleanSourcesAndJavadoc = true;
+	private boolean embedded = false;
+	private boolean incremental = false;
+	private boolean background = false;
+
+	private List<String> includedArtifacts = new ArrayList<String>();
+	private List<String> excludedArtifacts = new ArrayList<String>();
+
+	private String storeDir;
+	private boolean storeSymlinks = false;
+
+	private int downloadThreads = 0;
+	private int repositoryConcurrency = DEFAULT_REPOSITORY_CONCURRENCY;
+	private int downloadRetries = DEFAULT_DOWNLOAD_RETRIES;
+
+	private String launchPlan;
+
+	private int lockTimeout = 0;
+
+	private boolean verify = false;
+	private int verifyThreads = Runtime.getRuntime().availableProcessors();
+
+	private MetadataCache metadataCache;
+
+	private long cacheMaxSize = 0;
+
+	private List<String> mirrors = new ArrayList<String>();
+	private long hedgeDelay = MirrorSelector.DEFAULT_HEDGE_DELAY;
+	private MirrorSelector mirrorSelector;
+
+	private boolean conditionalGet = false;
 
 	private String libdir = LIBRARIES_DIR;
 	private String resolvePattern = libdir + File.separator + RESOLVE_PATTERN;
 
 	private List<ProcessListener> listeners = new ArrayList<ProcessListener>();
 
+	// the files in Ivy's cache the last retrieval copied from, by library name
+	private Map<String, File> sources = new HashMap<String, File>();
+
+	private StartupMetrics metrics = new StartupMetrics();
+
 	public void addProcessListeners(List<ProcessListener> listeners) {
 		this.listeners.addAll(listeners);
 	}
@@ -124,7 +182,9 @@ public class IvyLibraryRetriever {
 	}
 
 	/**
-	 * Retrieve libraries.
+	 * Retrieve libraries. Libraries are retrieved again should the ivy file, ivy
+	 * settings or resolve pattern have changed since the {@link ResolutionManifest}
+	 * was written by the last successful retrieval.
 	 * 
 	 * @param force
 	 *          , if true will delete all libraries in the {@link #getLibdir()}
@@ -141,18 +201,424 @@ public class IvyLibraryRetriever {
 	 *           the exception
 	 */
 	public boolean retrieveLibraries(boolean force, String ivyfile, String ivysettings) throws Exception {
+		if (isBackground() && retrieveInBackground(force, ivyfile, ivysettings)) return true;
+
+		long start = System.nanoTime();
+		try {
+			return getLockTimeout() > 0 ? retrieveLocked(force, ivyfile, ivysettings) : retrieveAndVerify(force,
+					ivyfile, ivysettings);
+		} finally {
+			metrics.phaseCompleted(StartupMetrics.RETRIEVE_PHASE, start);
+		}
+	}
+
+	private boolean retrieveInBackground(final boolean force, final String ivyfile, final String ivysettings)
+			throws Exception {
+		if (!isUpdatable()) return false;
+
+		File lib = new File(getLibdir());
+		promoteUpdate(new LibraryUpdate(lib));
+
+		if (!ResolutionManifest.exists(lib)) {
+			log.debug("No previously retrieved libraries, retrieving libraries before launch");
+			return false;
+		}
+
+		Thread thread = new Thread("Background retrieval thread") {
+			public void run() {
+				try {
+					LibraryUpdate update = retrieveUpdate(force, ivyfile, ivysettings);
+					if (update != null) log.info("Libraries updated in {}, promoted on the next start", update.getUpdateDir());
+				} catch (Exception e) {
+					log.error("Background library retrieval failed, keeping the current libraries", e);
+				}
+			}
+		};
+
+		thread.start();
+
+		return true;
+	}
+
+	private boolean isUpdatable() {
+		if (getResolvePattern().startsWith(getLibdir())) return true;
+
+		log.warn("Resolve pattern {} is not within {}, libraries cannot be updated beside it", getResolvePattern(),
+				getLibdir());
+
+		return false;
+	}
+
+	/**
+	 * Retrieves the libraries into an update directory beside the
+	 * {@link #getLibdir()}, leaving the {@link #getLibdir()} untouched. The
+	 * update is seeded with links to the current libraries and retrieved
+	 * incrementally, so unchanged inputs are not resolved again and unchanged
+	 * libraries are not copied.
+	 * 
+	 * @return the update, null if the libraries are unchanged or could not be
+	 *         retrieved
+	 * @throws Exception
+	 *           the exception
+	 * @see #promoteUpdate(LibraryUpdate)
+	 */
+	LibraryUpdate retrieveUpdate(boolean force, String ivyfile, String ivysettings) throws Exception {
+		if (!isUpdatable()) return null;
+
+		LibraryUpdate update = new LibraryUpdate(new File(getLibdir()));
+		update.seed();
+
+		IvyLibraryRetriever updater = createUpdateRetriever(update.getUpdateDir());
+
+		boolean success = false;
+		try {
+			success = updater.retrieveLibraries(force, ivyfile, ivysettings);
+		} finally {
+			if (!success) update.discard();
+		}
+
+		if (!success) {
+			log.error("Library update retrieval failed, keeping the current libraries");
+			return null;
+		}
+
+		if (update.isUnchanged()) {
+			log.debug("Libraries are current");
+			update.discard();
+			return null;
+		}
+
+		return update;
+	}
+
+	/**
+	 * Replaces the {@link #getLibdir()} with a complete update.
+	 * 
+	 * @param update
+	 *          the update
+	 * @return true, if replaced
+	 * @throws Exception
+	 *           the exception
+	 */
+	boolean promoteUpdate(LibraryUpdate update) throws Exception {
+		if (getLockTimeout() <= 0) return promote(update);
+
+		RetrievalLock libLock = new RetrievalLock(new File(getLibdir()), getLockTimeout() * 1000L);
+		if (!libLock.acquire()) {
+			log.warn("Could not lock {}, not promoted", getLibdir());
+			return false;
+		}
+
+		try {
+			RetrievalLock lock = new RetrievalLock(update.getUpdateDir(), getLockTimeout() * 1000L);
+			if (!lock.acquire()) {
+				log.warn("Could not lock {}, not promoted", update.getUpdateDir());
+				return false;
+			}
+
+			try {
+				return promote(update);
+			} finally {
+				lock.release();
+			}
+		} finally {
+			libLock.release();
+		}
+	}
+
+	private boolean promote(LibraryUpdate update) throws Exception {
+		if (!update.promote()) return false;
+
+		if (getStoreDir() != null) getLibraryStore().intern(new File(getLibdir()));
+
+		return true;
+	}
+
+	private IvyLibraryRetriever createUpdateRetriever(File updateDir) {
+		IvyLibraryRetriever updater = new IvyLibraryRetriever();
+
+		updater.setCleanSourcesAndJavadoc(isCleanSourcesAndJavadoc());
+		updater.setEmbedded(isEmbedded());
+		updater.setIncremental(true);
+		updater.includedArtifacts.addAll(includedArtifacts);
+		updater.excludedArtifacts.addAll(excludedArtifacts);
+		updater.setStoreDir(getStoreDir());
+		updater.setStoreSymlinks(isStoreSymlinks());
+		updater.setDownloadThreads(getDownloadThreads());
+		updater.setRepositoryConcurrency(getRepositoryConcurrency());
+		updater.setDownloadRetries(getDownloadRetries());
+		updater.setLaunchPlan(getLaunchPlan());
+		updater.setLockTimeout(getLockTimeout());
+		updater.setVerify(isVerify());
+		updater.setVerifyThreads(getVerifyThreads());
+		updater.metadataCache = metadataCache;
+		updater.setCacheMaxSize(getCacheMaxSize());
+		updater.setMirrors(mirrors.toArray(new String[mirrors.size()]));
+		updater.setHedgeDelay(getHedgeDelay());
+		updater.setConditionalGet(isConditionalGet());
+		updater.addProcessListeners(listeners);
+
+		updater.libdir = updateDir.getPath();
+		updater.setResolvePattern(updater.libdir + getResolvePattern().substring(getLibdir().length()));
+
+		return updater;
+	}
+
+	private boolean retrieveLocked(boolean force, String ivyfile, String ivysettings) throws Exception {
+		long requested = System.currentTimeMillis();
+		RetrievalLock lock = new RetrievalLock(new File(getLibdir()), getLockTimeout() * 1000L);
+
+		if (!lock.acquire()) return false;
+
+		try {
+			if (lock.isStale()) {
+				log.warn("Retrieving libraries again as the previous retrieval did not complete");
+				force = true;
+			} else if (force && lock.hasWaited() && retrievedSince(requested)) {
+				log.debug("Libraries retrieved by another process while awaiting {}", lock.getLockFile());
+				force = false;
+			}
+
+			return retrieveAndVerify(force, ivyfile, ivysettings);
+		} finally {
+			lock.release();
+		}
+	}
+
+	private boolean retrieveAndVerify(boolean force, String ivyfile, String ivysettings) throws Exception {
+		if (!retrieveLibrariesImpl(force, ivyfile, ivysettings)) return false;
+
+		if (!isVerify() || verifyLibraries()) return true;
+
+		log.warn("Libraries in {} are corrupt, retrieving them again", getLibdir());
+		return retrieveLibrariesImpl(true, ivyfile, ivysettings) && verifyLibraries();
+	}
+
+	private boolean verifyLibraries() throws InterruptedException {
+		long start = System.nanoTime();
+		try {
+			return new LibraryVerifier(new File(getLibdir()), getVerifyThreads()).verify();
+		} finally {
+			metrics.phaseCompleted(StartupMetrics.VERIFY_PHASE, start);
+		}
+	}
+
+	private boolean retrievedSince(long time) {
+		File manifest = new File(getLibdir(), ResolutionManifest.MANIFEST_FILE);
+
+		return manifest.lastModified() >= time;
+	}
+
+	private boolean retrieveLibrariesImpl(boolean force, String ivyfile, String ivysettings) throws Exception {
+		File lib = new File(getLibdir());
+		if (isIncremental()) new IncrementalRetrieval(lib).recover();
+
 		boolean libsExist = librariesRetrieved();
 
-		if (libsExist && !force) {
-			log.debug("Libraries previously retrieved");
+		// no manifest, no complete retrieval
+		if (libsExist && !force && !ResolutionManifest.exists(lib)) {
+			log.info("No resolution manifest in {}, retrieving libraries", lib);
+		}
+
+		long start = System.nanoTime();
+		File ivy = getFile(ivyfile == null ? IVY_XML : ivyfile, "ivy");
+		File settings = ivysettings == null ? null : getFile(ivysettings, "ivy settings");
+		metrics.phaseCompleted(StartupMetrics.EXTRACT_PHASE, start);
+
+		try {
+			String fingerprint = ResolutionManifest.fingerprint(ivy, settings, getFingerprintPattern(),
+					getArtifactPatterns().toString());
+
+			if (!force && isResolutionCurrent(fingerprint)) {
+				log.debug("Libraries previously retrieved");
+				return true;
+			}
+
+			String ivyPath = ivy.getAbsolutePath();
+			String settingsPath = settings == null ? null : settings.getAbsolutePath();
+
+			if (getDownloadThreads() > 1 || isMirrorSelection() || isConditionalGet()) prefetch(ivyPath, settingsPath);
+
+			boolean success;
+			if (isIncremental()) {
+				success = execIncremental(ivyPath, settingsPath, fingerprint, force);
+			} else {
+				if (force || libsExist) clearLibraryDirectory();
+
+				success = execIvyMain(ivyPath, settingsPath);
+
+				if (success) writeManifest(fingerprint);
+			}
+
+			if (success && getStoreDir() != null) getLibraryStore().intern(lib);
+
+			if (success && getCacheMaxSize() > 0) manageCache(settingsPath);
+
+			return success;
+		} finally {
+			cleanTempFile(ivy);
+			cleanTempFile(settings);
+		}
+	}
+
+	/**
+	 * Returns true if the {@link ResolutionManifest} in the {@link #getLibdir()}
+	 * matches the fingerprint of the resolution inputs and the libraries
+	 * retrieved are present.
+	 * 
+	 * @param fingerprint
+	 *          the fingerprint
+	 * @return true, if is resolution current
+	 */
+	protected boolean isResolutionCurrent(String fingerprint) {
+		ResolutionManifest manifest = ResolutionManifest.read(new File(getLibdir()));
+
+		return manifest != null && manifest.isCurrent(fingerprint, new File(getLibdir()));
+	}
+
+	/**
+	 * Returns the resolve pattern relative to the {@link #getLibdir()}, so that
+	 * libraries retrieved into another directory and moved into place remain
+	 * current.
+	 */
+	private String getFingerprintPattern() {
+		String pattern = getResolvePattern();
+
+		return pattern.startsWith(getLibdir()) ? pattern.substring(getLibdir().length()) : pattern;
+	}
+
+	private void writeManifest(String fingerprint) {
+		File lib = new File(getLibdir());
+		try {
+			ResolutionManifest.create(fingerprint, lib, sources).write(lib);
+		} catch (IOException e) {
+			log.error("Could not write resolution manifest to {}", lib.getAbsolutePath(), e);
+			ResolutionManifest.delete(lib);
+		}
+	}
+
+	/**
+	 * Removes the libraries no longer used by any library directory from the
+	 * {@link #getStoreDir()}.
+	 * 
+	 * @return the number of libraries removed
+	 * @see LibraryStore#collectGarbage()
+	 */
+	public int collectStoreGarbage() {
+		if (getStoreDir() == null) return 0;
+
+		try {
+			return getLibraryStore().collectGarbage();
+		} catch (IOException e) {
+			log.error("Could not collect the garbage of the library store {}", getStoreDir(), e);
+			return 0;
+		}
+	}
+
+	/**
+	 * Removes partial downloads, stale lock files and empty directories from
+	 * Ivy's cache and, should a {@link #getCacheMaxSize()} be set, evicts the
+	 * least recently used libraries not retrieved into any library directory
+	 * until the cache is below its low watermark.
+	 * 
+	 * @param ivysettings
+	 *          the ivy settings file configuring the cache, null for Ivy's
+	 *          default settings
+	 * @return true, if compacted
+	 * @see IvyCache#compact()
+	 */
+	public boolean compactCache(String ivysettings) {
+		File settings = null;
+		try {
+			settings = ivysettings == null ? null : getFile(ivysettings, "ivy settings");
+
+			File cacheDir = getCacheDir(settings == null ? null : settings.getAbsolutePath());
+			if (cacheDir == null) return false;
+
+			new IvyCache(cacheDir, getCacheMaxSize()).compact();
+
 			return true;
+		} catch (Exception e) {
+			log.error("Could not compact Ivy's cache", e);
+			return false;
+		} finally {
+			cleanTempFile(settings);
 		}
+	}
 
-		if (force) clearLibraryDirectory();
+	private void manageCache(String ivysettings) {
+		long start = System.nanoTime();
+		try {
+			File cacheDir = getCacheDir(ivysettings);
+			if (cacheDir == null) return;
+
+			IvyCache cache = new IvyCache(cacheDir, getCacheMaxSize());
+			cache.recordUse(new File(getLibdir()));
+			cache.evict();
+		} catch (Exception e) {
+			log.error("Could not manage Ivy's cache", e);
+		} finally {
+			metrics.phaseCompleted(StartupMetrics.CACHE_PHASE, start);
+		}
+	}
 
-		File ivy = getFile(ivyfile == null ? IVY_XML : ivyfile, "ivy");
+	private File getCacheDir(String ivysettings) throws Exception {
+		try {
+			return createEmbeddedResolver().getCacheDir(ivysettings);
+		} catch (LinkageError e) {
+			log.warn("Ivy is not available to the current class loader, its cache cannot be managed", e);
+			return null;
+		}
+	}
 
-		return execIvyMain(ivy.getAbsolutePath(), ivysettings);
+	/**
+	 * Exports the libraries of the {@link #getLibdir()} and their resolution
+	 * manifest to a bundle which may be imported on other hosts.
+	 * 
+	 * @param bundle
+	 *          the bundle file
+	 * @return true, if exported
+	 * @see LibraryBundle
+	 */
+	public boolean exportBundle(String bundle) {
+		try {
+			new LibraryBundle(new File(getLibdir())).export(new File(bundle));
+			return true;
+		} catch (IOException e) {
+			log.error("Could not export {} to {}", getLibdir(), bundle, e);
+			return false;
+		}
+	}
+
+	/**
+	 * Imports the libraries of a bundle from the file or URL specified into the
+	 * {@link #getLibdir()}, without contacting any repository. Should the
+	 * resolution inputs match those of the bundle a subsequent
+	 * {@link #retrieveLibraries(boolean, String, String)} finds the libraries
+	 * current.
+	 * 
+	 * @param source
+	 *          the bundle file or URL
+	 * @return true, if the libraries of the bundle are in the
+	 *         {@link #getLibdir()}
+	 * @see LibraryBundle
+	 */
+	public boolean importBundle(String source) {
+		long start = System.nanoTime();
+		try {
+			LibraryUpdate update = new LibraryBundle(new File(getLibdir())).importBundle(source);
+
+			return update == null || promoteUpdate(update);
+		} catch (Exception e) {
+			log.error("Could not import bundle {}", source, e);
+			return false;
+		} finally {
+			metrics.phaseCompleted(StartupMetrics.IMPORT_PHASE, start);
+		}
+	}
+
+	private LibraryStore getLibraryStore() {
+		return new LibraryStore(getStoreDir(), isStoreSymlinks());
 	}
 
 	/**
@@ -184,25 +650,146 @@ public class IvyLibraryRetriever {
 
 	private boolean execIvyMain(String ivyfile, String ivysettings) throws Exception {
 		log.debug("Retrieving libraries using {}", ivyfile);
-		if (ivysettings != null) {
-			log.debug("...and ivy settings {}", ivysettings);
-			File settings = getFile(ivysettings, "ivy settings");
-			ivysettings = settings.getAbsolutePath();
+		if (ivysettings != null) log.debug("...and ivy settings {}", ivysettings);
+
+		sources.clear();
+
+		long start = System.nanoTime();
+		boolean success = isEmbedded() ? execEmbeddedIvy(ivyfile, ivysettings) : execForkedIvy(ivyfile, ivysettings);
+		metrics.phaseCompleted(StartupMetrics.RESOLVE_PHASE, start);
+
+		if (success && !getArtifactPatterns().getExcludes().isEmpty()) {
+			start = System.nanoTime();
+			cleanSourcesAndJavadoc();
+			metrics.phaseCompleted(StartupMetrics.CLEAN_PHASE, start);
+		}
+
+		return success;
+	}
+
+	private void prefetch(String ivyfile, String ivysettings) throws Exception {
+		log.debug("Downloading libraries using {} threads", getDownloadThreads());
+
+		ParallelArtifactDownloader downloader = new ParallelArtifactDownloader(getDownloadThreads(),
+				getRepositoryConcurrency(), getDownloadRetries());
+		downloader.setMetrics(metrics);
+
+		long start = System.nanoTime();
+		try {
+			if (!createEmbeddedResolver().prefetch(ivyfile, ivysettings, downloader)) {
+				log.warn("Not all libraries could be downloaded in parallel, continuing with Ivy retrieval");
+			}
+		} catch (LinkageError e) {
+			log.warn("Ivy is not available to the current class loader, libraries will not be downloaded in parallel", e);
+		} finally {
+			metrics.phaseCompleted(StartupMetrics.DOWNLOAD_PHASE, start);
+		}
+	}
+
+	private EmbeddedIvyResolver createEmbeddedResolver() {
+		EmbeddedIvyResolver resolver = new EmbeddedIvyResolver(listeners);
+		resolver.setMetrics(metrics);
+		resolver.setArtifactPatterns(getArtifactPatterns());
+		resolver.setMetadataCache(metadataCache);
+		if (isMirrorSelection()) resolver.setMirrorSelector(getMirrorSelector());
+		resolver.setConditionalGet(isConditionalGet());
+
+		return resolver;
+	}
+
+	private MirrorSelector getMirrorSelector() {
+		if (mirrorSelector == null) {
+			mirrorSelector = new MirrorSelector(getMirrors(), getHedgeDelay());
+			mirrorSelector.setMetrics(metrics);
+		}
+
+		return mirrorSelector;
+	}
+
+	private boolean execIncremental(String ivyfile, String ivysettings, String fingerprint, boolean force)
+			throws Exception {
+		log.debug("Incrementally retrieving libraries using {}", ivyfile);
+		if (ivysettings != null) log.debug("...and ivy settings {}", ivysettings);
+
+		long start = System.nanoTime();
+		List<ResolvedArtifact> artifacts;
+		try {
+			artifacts = createEmbeddedResolver().resolveArtifacts(ivyfile, ivysettings, getResolvePattern());
+		} catch (LinkageError e) {
+			log.warn("Ivy is not available to the current class loader, falling back to a clean retrieval", e);
+			clearLibraryDirectory();
+			// records its own resolve phase
+			boolean success = execIvyMain(ivyfile, ivysettings);
+			if (success) writeManifest(fingerprint);
+			return success;
+		}
+
+		if (artifacts == null) {
+			log.error("Incremental Ivy library retrieval failed");
+			return false;
+		}
+
+		removeExcluded(artifacts);
+
+		new IncrementalRetrieval(new File(getLibdir())).retrieve(artifacts, fingerprint, force);
+		metrics.phaseCompleted(StartupMetrics.RESOLVE_PHASE, start);
+
+		log.debug("Incremental Ivy library retrieval completed");
+
+		return true;
+	}
+
+	private void removeExcluded(List<ResolvedArtifact> artifacts) {
+		ArtifactPatterns patterns = getArtifactPatterns();
+
+		Iterator<ResolvedArtifact> it = artifacts.iterator();
+		while (it.hasNext()) {
+			if (patterns.isExcludedName(it.next().getDestination().getName())) it.remove();
+		}
+	}
+
+	private boolean execEmbeddedIvy(String ivyfile, String ivysettings) throws Exception {
+		try {
+			List<ResolvedArtifact> artifacts = createEmbeddedResolver().retrieve(ivyfile, ivysettings, getResolvePattern());
+
+			if (artifacts == null) {
+				log.error("Embedded Ivy library retrieval failed");
+				return false;
+			}
+
+			for (ResolvedArtifact artifact : artifacts) {
+				sources.put(artifact.getDestination().getName(), artifact.getSource());
+			}
+
+			log.debug("Embedded Ivy library retrieval completed");
+
+			return true;
+		} catch (LinkageError e) {
+			log.warn("Ivy is not available to the current class loader, falling back to a separate Ivy process", e);
+			return execForkedIvy(ivyfile, ivysettings);
 		}
+	}
 
+	private boolean execForkedIvy(String ivyfile, String ivysettings) throws Exception {
+		File cachepath = File.createTempFile(IVYTEMP_PFX, "cachepath");
+		File excluding = createExcludingIvyFile(ivyfile);
 		try {
-			String[] cmd = createCommand(ivyfile, ivysettings);
+			String[] cmd = createCommand(excluding == null ? ivyfile : excluding.getAbsolutePath(), ivysettings, cachepath);
 			logCmd(cmd);
 
+			long start = System.currentTimeMillis();
 			ProcessContainer pc = new ProcessContainer(Runtime.getRuntime().exec(cmd), listeners);
 
-			int code = pc.getProcess().waitFor();
-
-			pc.setRunning(false);
+			int code = pc.waitFor();
+			metrics.set(StartupMetrics.RESOLVER_EXIT_CODE, code);
 
 			if (code == 0) {
 				log.debug("Ivy library retrieval completed with {}", code);
-				if (isCleanSourcesAndJavadoc()) cleanSourcesAndJavadoc();
+
+				List<File> cached = readCachePath(cachepath);
+				sources.putAll(ResolutionManifest.match(new File(getLibdir()), cached));
+				recordForkedMetrics(cached, start);
+
 				return true;
 			}
 
@@ -210,14 +797,139 @@ public class IvyLibraryRetriever {
 
 			return false;
 		} finally {
-			cleanTempFile(ivyfile);
-			cleanTempFile(ivysettings);
+			cachepath.delete();
+			cleanTempFile(excluding);
 		}
 	}
 
-	private void cleanTempFile(String file) {
-		if(file == null) return;
-		File f = new File(file);
+	/**
+	 * Ivy run in a separate process cannot be given the exclude patterns, so a
+	 * copy of the ivy file excluding artifacts of those types is written beside
+	 * the original, keeping its relative references. Patterns matching only a
+	 * classifier are removed by file name after retrieval.
+	 * 
+	 * @see #cleanSourcesAndJavadoc()
+	 */
+	private File createExcludingIvyFile(String ivyfile) {
+		String regex = getArtifactPatterns().getExcludeRegex();
+		if (regex == null) return null;
+
+		try {
+			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+			factory.setNamespaceAware(true);
+			Document doc = factory.newDocumentBuilder().parse(new File(ivyfile));
+
+			NodeList list = doc.getDocumentElement().getElementsByTagName("dependencies");
+			if (list.getLength() == 0) return null;
+
+			Element dependencies = (Element) list.item(0);
+			Element exclude = doc.createElementNS(dependencies.getNamespaceURI(), "exclude");
+			// Ivy does not default every attribute to any value, so all are given
+			for (String any : new String[] { "org", "module", "artifact", "ext" }) {
+				exclude.setAttribute(any, ".*");
+			}
+			exclude.setAttribute("type", regex);
+			exclude.setAttribute("matcher", "regexp");
+
+			// excludes precede any override or conflict elements
+			Node before = null;
+			for (Node n = dependencies.getFirstChild(); n != null && before == null; n = n.getNextSibling()) {
+				String name = n.getLocalName();
+				if ("override".equals(name) || "conflict".equals(name)) before = n;
+			}
+			dependencies.insertBefore(exclude, before);
+
+			File temp = createTempIvyFile(new File(ivyfile).getAbsoluteFile().getParentFile());
+			TransformerFactory.newInstance().newTransformer().transform(new DOMSource(doc), new StreamResult(temp));
+
+			log.debug("Excluding artifacts of types {} with {}", getArtifactPatterns().getExcludes(), temp);
+
+			return temp;
+		} catch (Exception e) {
+			log.warn("Could not exclude artifacts from {}, excluded artifacts will be downloaded and removed after retrieval",
+					ivyfile, e);
+			return null;
+		}
+	}
+
+	private File createTempIvyFile(File dir) throws IOException {
+		try {
+			return File.createTempFile(IVYTEMP_PFX, ".xml", dir);
+		} catch (IOException e) {
+			log.debug("Could not write to {}, using the temporary directory", dir, e);
+			return File.createTempFile(IVYTEMP_PFX, ".xml");
+		}
+	}
+
+	/**
+	 * Ivy run in a separate process reports nothing of its downloads, so those
+	 * cached files written since it started are counted as downloaded and the
+	 * remainder as cache hits.
+	 */
+	private void recordForkedMetrics(List<File> cached, long start) {
+		int downloaded = 0;
+		long bytes = 0;
+		for (File f : cached) {
+			if (!isWrittenSince(f, start)) continue;
+
+			downloaded++;
+			bytes += f.length();
+		}
+
+		metrics.set(StartupMetrics.ARTIFACT_COUNT, cached.size());
+		metrics.add(StartupMetrics.ARTIFACTS_DOWNLOADED, downloaded);
+		metrics.add(StartupMetrics.BYTES_DOWNLOADED, bytes);
+	}
+
+	// Ivy preserves the repository's modification time of the files it
+	// downloads, so the inode change time (or creation time where there is
+	// none) is used
+	private boolean isWrittenSince(File f, long time) {
+		try {
+			FileTime changed;
+			try {
+				changed = (FileTime) Files.getAttribute(f.toPath(), "unix:ctime");
+			} catch (UnsupportedOperationException e) {
+				changed = Files.readAttributes(f.toPath(), BasicFileAttributes.class).creationTime();
+			} catch (IllegalArgumentException e) {
+				changed = Files.readAttributes(f.toPath(), BasicFileAttributes.class).creationTime();
+			}
+
+			return changed.toMillis() >= time;
+		} catch (IOException e) {
+			log.debug("Could not read the attributes of {}", f, e);
+			return false;
+		}
+	}
+
+	private List<File> readCachePath(File cachepath) {
+		List<File> files = new ArrayList<File>();
+		try {
+			String path = new String(Files.readAllBytes(cachepath.toPath()), "UTF-8").trim();
+			if (path.isEmpty()) return files;
+
+			for (String s : path.split(File.pathSeparator)) {
+				files.add(new File(s));
+			}
+		} catch (IOException e) {
+			log.warn("Could not read the cached libraries from {}", cachepath, e);
+		}
+
+		return files;
+	}
+
+	private String join(List<String> list) {
+		StringBuilder sb = new StringBuilder();
+		for (String s : list) {
+			if (sb.length() > 0) sb.append(",");
+			sb.append(s);
+		}
+
+		return sb.toString();
+	}
+
+	private void cleanTempFile(File f) {
+		if (f == null) return;
 		if (f.getName().startsWith(IVYTEMP_PFX)) f.delete();
 	}
 
@@ -230,18 +942,24 @@ public class IvyLibraryRetriever {
 		}
 	}
 
-	private void cleanSourcesAndJavadoc() {
+	/**
+	 * Removes the artifacts whose file names include an excluded classifier,
+	 * by default source and javadoc, from the {@link #getLibdir()}. Artifacts
+	 * resolved in the running JVM are excluded during resolution; a separate
+	 * Ivy process excludes them by type, and those matching only by classifier
+	 * are removed afterwards.
+	 * 
+	 * @see #getExcludedArtifacts()
+	 */
+	protected void cleanSourcesAndJavadoc() {
 		File libdir = new File(getLibdir());
+		final ArtifactPatterns patterns = getArtifactPatterns();
 
 		File[] sourcesAndJavadoc = libdir.listFiles(new FileFilter() {
 
 			@Override
 			public boolean accept(File pathname) {
-				String name = pathname.getName();
-				for (String s : srcsNDocs) {
-					if (name.indexOf(s) > 0) return true;
-				}
-				return false;
+				return patterns.isExcludedName(pathname.getName());
 			}
 		});
 
@@ -250,12 +968,22 @@ public class IvyLibraryRetriever {
 		}
 	}
 
-	private String[] createCommand(String ivyfile, String ivysettings) {
+	private String[] createCommand(String ivyfile, String ivysettings, File cachepath) {
 		List<String> command = new ArrayList<String>();
 
 		command.add("java");
-		command.add("-cp");
-		command.add(getClasspath());
+
+		List<String> jvmOptions = metadataCache == null ? new ArrayList<String>() : metadataCache.getJvmOptions();
+
+		if (getLaunchPlan() == null) {
+			command.addAll(jvmOptions);
+			command.add("-cp");
+			command.add(getClasspath());
+		} else {
+			LaunchPlan plan = new LaunchPlan(getLibdir(), "resolve", getLaunchPlan());
+			command.addAll(plan.getArguments(getClasspath(), jvmOptions));
+		}
+
 		command.add("org.apache.ivy.Main");
 		command.add("-ivy");
 		command.add(ivyfile);
@@ -268,6 +996,15 @@ public class IvyLibraryRetriever {
 		command.add("-retrieve");
 		command.add(getResolvePattern());
 
+		command.add("-cachepath");
+		command.add(cachepath.getAbsolutePath());
+
+		List<String> includes = getArtifactPatterns().getIncludes();
+		if (!includes.isEmpty()) {
+			command.add("-types");
+			command.add(join(includes));
+		}
+
 		return command.toArray(new String[] {});
 	}
 
@@ -353,7 +1090,8 @@ public class IvyLibraryRetriever {
 	}
 
 	/**
-	 * If true any source and javadoc jars are deleted after library retrieval.
+	 * If true source and javadoc artifacts are neither downloaded nor retrieved,
+	 * default true.
 	 * 
 	 * @return true, if is clean sources and javadoc
 	 */
@@ -362,7 +1100,8 @@ public class IvyLibraryRetriever {
 	}
 
 	/**
-	 * If true any source and javadoc jars are deleted after library retrieval.
+	 * If true source and javadoc artifacts are neither downloaded nor retrieved,
+	 * default true.
 	 * 
 	 * @param cleanSourcesAndJavadoc
 	 *          the new clean sources and javadoc
@@ -371,6 +1110,486 @@ public class IvyLibraryRetriever {
 		this.cleanSourcesAndJavadoc = cleanSourcesAndJavadoc;
 	}
 
+	/**
+	 * If true libraries are resolved using the Ivy API in the currently running
+	 * JVM rather than in a separate Ivy process. Should Ivy not be loadable the
+	 * separate process is used.
+	 * 
+	 * @return true, if is embedded
+	 */
+	public boolean isEmbedded() {
+		return embedded;
+	}
+
+	/**
+	 * If true libraries are resolved using the Ivy API in the currently running
+	 * JVM rather than in a separate Ivy process, default false.
+	 * 
+	 * @param embedded
+	 *          the new embedded
+	 */
+	public void setEmbedded(boolean embedded) {
+		this.embedded = embedded;
+	}
+
+	/**
+	 * If true the {@link #getLibdir()} is updated incrementally, retrieving only
+	 * those libraries which have been added or changed and removing those no
+	 * longer required. The updated directory replaces the existing directory
+	 * once complete.
+	 * 
+	 * @return true, if is incremental
+	 * @see IncrementalRetrieval
+	 */
+	public boolean isIncremental() {
+		return incremental;
+	}
+
+	/**
+	 * If true the {@link #getLibdir()} is updated incrementally rather than
+	 * cleared and retrieved, default false. Resolution is performed in the
+	 * running JVM regardless of {@link #isEmbedded()}.
+	 * 
+	 * @param incremental
+	 *          the new incremental
+	 */
+	public void setIncremental(boolean incremental) {
+		this.incremental = incremental;
+	}
+
+	/**
+	 * Checks if libraries are retrieved in the background.
+	 * 
+	 * @return true, if is background
+	 * @see LibraryUpdate
+	 */
+	public boolean isBackground() {
+		return background;
+	}
+
+	/**
+	 * If true and the {@link #getLibdir()} holds a previous successful
+	 * retrieval, {@link #retrieveLibraries(boolean, String, String)} returns
+	 * immediately and the libraries are retrieved in the background into an
+	 * update directory beside the {@link #getLibdir()}, which replaces it on the
+	 * next retrieval should the libraries have changed, default false. Should
+	 * there be no previous successful retrieval the libraries are retrieved
+	 * before returning.
+	 * 
+	 * @param background
+	 *          the new background
+	 */
+	public void setBackground(boolean background) {
+		this.background = background;
+	}
+
+	/**
+	 * Gets the number of threads used to download libraries into the Ivy cache
+	 * prior to retrieval. Downloads are not parallel if less than 2, the
+	 * default.
+	 * 
+	 * @return the download threads
+	 * @see ParallelArtifactDownloader
+	 */
+	public int getDownloadThreads() {
+		return downloadThreads;
+	}
+
+	/**
+	 * Sets the number of threads used to download libraries into the Ivy cache
+	 * prior to retrieval, default 0 (Ivy downloads libraries sequentially).
+	 * 
+	 * @param downloadThreads
+	 *          the new download threads
+	 */
+	public void setDownloadThreads(int downloadThreads) {
+		this.downloadThreads = downloadThreads;
+	}
+
+	/**
+	 * Gets the maximum number of simultaneous downloads from any one repository,
+	 * default {@value #DEFAULT_REPOSITORY_CONCURRENCY}.
+	 * 
+	 * @return the repository concurrency
+	 */
+	public int getRepositoryConcurrency() {
+		return repositoryConcurrency;
+	}
+
+	/**
+	 * Sets the maximum number of simultaneous downloads from any one repository,
+	 * default {@value #DEFAULT_REPOSITORY_CONCURRENCY}.
+	 * 
+	 * @param repositoryConcurrency
+	 *          the new repository concurrency
+	 */
+	public void setRepositoryConcurrency(int repositoryConcurrency) {
+		this.repositoryConcurrency = repositoryConcurrency;
+	}
+
+	/**
+	 * Gets the number of times a failed parallel download is retried, default
+	 * {@value #DEFAULT_DOWNLOAD_RETRIES}.
+	 * 
+	 * @return the download retries
+	 */
+	public int getDownloadRetries() {
+		return downloadRetries;
+	}
+
+	/**
+	 * Sets the number of times a failed parallel download is retried, default
+	 * {@value #DEFAULT_DOWNLOAD_RETRIES}.
+	 * 
+	 * @param downloadRetries
+	 *          the new download retries
+	 */
+	public void setDownloadRetries(int downloadRetries) {
+		this.downloadRetries = downloadRetries;
+	}
+
+	/**
+	 * Gets the directory of the {@link LibraryStore} shared by library
+	 * directories, null (the default) if retrieved libraries are not stored.
+	 * 
+	 * @return the store dir
+	 */
+	public String getStoreDir() {
+		return storeDir;
+	}
+
+	/**
+	 * Sets the directory of the {@link LibraryStore} shared by library
+	 * directories. When set retrieved libraries are moved to the store and
+	 * linked from the {@link #getLibdir()}.
+	 * 
+	 * @param storeDir
+	 *          the new store dir
+	 * @see LibraryStore#DEFAULT_STORE_DIR
+	 */
+	public void setStoreDir(String storeDir) {
+		this.storeDir = storeDir;
+	}
+
+	/**
+	 * If true libraries in the {@link #getLibdir()} are symbolic links to the
+	 * {@link #getStoreDir()}, otherwise hard links where possible.
+	 * 
+	 * @return true, if is store symlinks
+	 */
+	public boolean isStoreSymlinks() {
+		return storeSymlinks;
+	}
+
+	/**
+	 * If true libraries in the {@link #getLibdir()} are symbolic links to the
+	 * {@link #getStoreDir()}, default false (hard links).
+	 * 
+	 * @param storeSymlinks
+	 *          the new store symlinks
+	 */
+	public void setStoreSymlinks(boolean storeSymlinks) {
+		this.storeSymlinks = storeSymlinks;
+	}
+
+	/**
+	 * Gets the patterns of the artifact types and classifiers to retrieve, all
+	 * if empty.
+	 * 
+	 * @return the included artifacts
+	 * @see ArtifactPatterns
+	 */
+	public List<String> getIncludedArtifacts() {
+		return includedArtifacts;
+	}
+
+	/**
+	 * Sets the patterns of the artifact types and classifiers to retrieve, * and
+	 * ? being wildcards. Should Ivy run in a separate process the patterns are
+	 * matched against artifact types only, and may not contain wildcards other
+	 * than *.
+	 * 
+	 * @param patterns
+	 *          the new included artifacts
+	 */
+	public void setIncludedArtifacts(String... patterns) {
+		this.includedArtifacts = new ArrayList<String>(Arrays.asList(patterns));
+	}
+
+	/**
+	 * Gets the patterns of the artifact types and classifiers not to retrieve,
+	 * in addition to source and javadoc should
+	 * {@link #isCleanSourcesAndJavadoc()}.
+	 * 
+	 * @return the excluded artifacts
+	 * @see ArtifactPatterns
+	 */
+	public List<String> getExcludedArtifacts() {
+		return excludedArtifacts;
+	}
+
+	/**
+	 * Sets the patterns of the artifact types and classifiers not to retrieve, *
+	 * and ? being wildcards.
+	 * 
+	 * @param patterns
+	 *          the new excluded artifacts
+	 */
+	public void setExcludedArtifacts(String... patterns) {
+		this.excludedArtifacts = new ArrayList<String>(Arrays.asList(patterns));
+	}
+
+	ArtifactPatterns getArtifactPatterns() {
+		List<String> excludes = new ArrayList<String>(excludedArtifacts);
+		if (isCleanSourcesAndJavadoc()) excludes.addAll(Arrays.asList(ArtifactPatterns.SOURCES_AND_JAVADOC));
+
+		return new ArtifactPatterns(new ArrayList<String>(includedArtifacts), excludes);
+	}
+
+	/**
+	 * Gets the maximum time in seconds to wait for the lock on the
+	 * {@link #getLibdir()}, 0 if retrieval is not locked.
+	 * 
+	 * @return the lock timeout
+	 * @see RetrievalLock
+	 */
+	public int getLockTimeout() {
+		return lockTimeout;
+	}
+
+	/**
+	 * Sets the maximum time in seconds to wait for the lock on the
+	 * {@link #getLibdir()}, default 0 (retrieval is not locked). Should
+	 * processes sharing the library directory start at once one retrieves the
+	 * libraries while the others wait, then find the libraries current.
+	 * 
+	 * @param lockTimeout
+	 *          the new lock timeout
+	 */
+	public void setLockTimeout(int lockTimeout) {
+		this.lockTimeout = lockTimeout;
+	}
+
+	/**
+	 * Checks if the libraries are verified after retrieval.
+	 * 
+	 * @return true, if is verify
+	 * @see LibraryVerifier
+	 */
+	public boolean isVerify() {
+		return verify;
+	}
+
+	/**
+	 * If true the size, checksum and integrity of each library is verified after
+	 * retrieval, the libraries retrieved again should any be corrupt, default
+	 * false. Checksums are cached so only libraries which have changed since the
+	 * last verification are hashed.
+	 * 
+	 * @param verify
+	 *          the new verify
+	 */
+	public void setVerify(boolean verify) {
+		this.verify = verify;
+	}
+
+	/**
+	 * Gets the number of libraries to hash in parallel during verification.
+	 * 
+	 * @return the verify threads
+	 */
+	public int getVerifyThreads() {
+		return verifyThreads;
+	}
+
+	/**
+	 * Sets the number of libraries to hash in parallel during verification,
+	 * default the number of available processors.
+	 * 
+	 * @param verifyThreads
+	 *          the new verify threads
+	 */
+	public void setVerifyThreads(int verifyThreads) {
+		this.verifyThreads = verifyThreads;
+	}
+
+	/**
+	 * Gets the time to live of the trusted repository metadata cache, null if
+	 * Ivy's default is used.
+	 * 
+	 * @return the metadata cache ttl
+	 * @see MetadataCache
+	 */
+	public String getMetadataCacheTtl() {
+		return metadataCache == null ? null : metadataCache.getTtl();
+	}
+
+	/**
+	 * Sets the time to live for which the dynamic revisions resolved and the
+	 * repository metadata cached by Ivy are trusted without contacting the
+	 * repositories, ie. 30m, 1h or eternal, default null for Ivy's default of
+	 * ten seconds without trust.
+	 * 
+	 * @param ttl
+	 *          the new metadata cache ttl
+	 * @see MetadataCache
+	 */
+	public void setMetadataCacheTtl(String ttl) {
+		this.metadataCache = ttl == null ? null : new MetadataCache(ttl);
+	}
+
+	/**
+	 * Gets the maximum size in bytes of Ivy's cache, 0 if unbounded.
+	 * 
+	 * @return the cache max size
+	 * @see IvyCache
+	 */
+	public long getCacheMaxSize() {
+		return cacheMaxSize;
+	}
+
+	/**
+	 * Sets the maximum size in bytes of Ivy's cache, default 0 (unbounded).
+	 * When set the least recently used libraries are evicted from the cache
+	 * after each retrieval should it exceed the maximum, sparing those retrieved
+	 * into any library directory. A maximum well within the memory available
+	 * keeps the libraries in use in the page cache.
+	 * 
+	 * @param cacheMaxSize
+	 *          the new cache max size
+	 * @see IvyCache
+	 */
+	public void setCacheMaxSize(long cacheMaxSize) {
+		this.cacheMaxSize = cacheMaxSize;
+	}
+
+	/**
+	 * Checks if any {@link #getMirrors()} are ordered by their measured
+	 * performance.
+	 * 
+	 * @return true, if is mirror selection
+	 * @see MirrorSelector
+	 */
+	public boolean isMirrorSelection() {
+		return !mirrors.isEmpty();
+	}
+
+	/**
+	 * Gets the names of the HTTP resolvers which are mirrors of one another.
+	 * 
+	 * @return the mirrors
+	 */
+	public List<String> getMirrors() {
+		return mirrors;
+	}
+
+	/**
+	 * Sets the names of the HTTP resolvers which are mirrors of one another,
+	 * serving the same artifacts, default none. The mirrors are probed for
+	 * latency and asked in order of their measured performance within their
+	 * chain resolvers, and downloads stalled beyond the {@link #getHedgeDelay()}
+	 * hedged on an alternate mirror. Other resolvers are untouched. Libraries are
+	 * downloaded in the running JVM before retrieval so that selection applies
+	 * to a separate Ivy process also.
+	 * 
+	 * @param names
+	 *          the resolver names
+	 * @see MirrorSelector
+	 * @see HedgingURLHandler
+	 */
+	public void setMirrors(String... names) {
+		this.mirrors = new ArrayList<String>(Arrays.asList(names));
+	}
+
+	/**
+	 * Gets the milliseconds after which a download is hedged on an alternate
+	 * mirror.
+	 * 
+	 * @return the hedge delay
+	 */
+	public long getHedgeDelay() {
+		return hedgeDelay;
+	}
+
+	/**
+	 * Sets the milliseconds after which a download is hedged on an alternate
+	 * mirror, default {@value MirrorSelector#DEFAULT_HEDGE_DELAY}.
+	 * 
+	 * @param hedgeDelay
+	 *          the new hedge delay
+	 */
+	public void setHedgeDelay(long hedgeDelay) {
+		this.hedgeDelay = hedgeDelay;
+	}
+
+	/**
+	 * Checks if metadata is requested from HTTP repositories conditionally.
+	 * 
+	 * @return true, if is conditional get
+	 * @see ConditionalURLHandler
+	 */
+	public boolean isConditionalGet() {
+		return conditionalGet;
+	}
+
+	/**
+	 * If true metadata is requested from HTTP repositories gzip encoded and
+	 * conditionally, kept with its validators between runs, and each URL's
+	 * availability requested once per resolution, default false. Libraries are
+	 * downloaded in the running JVM before retrieval so that this applies to a
+	 * separate Ivy process also.
+	 * 
+	 * @param conditionalGet
+	 *          the new conditional get
+	 * @see ConditionalURLHandler
+	 */
+	public void setConditionalGet(boolean conditionalGet) {
+		this.conditionalGet = conditionalGet;
+	}
+
+	/**
+	 * Gets the launch plan used to pass the classpath to the Ivy process, null
+	 * if passed on the command line.
+	 * 
+	 * @return the launch plan
+	 * @see LaunchPlan
+	 */
+	public String getLaunchPlan() {
+		return launchPlan;
+	}
+
+	/**
+	 * Sets the launch plan used to pass the classpath to the Ivy process, one of
+	 * {@value LaunchPlan#ARGFILE} or {@value LaunchPlan#PATHING_JAR}, default null
+	 * (the command line).
+	 * 
+	 * @param launchPlan
+	 *          the new launch plan
+	 */
+	public void setLaunchPlan(String launchPlan) {
+		this.launchPlan = launchPlan;
+	}
+
+	/**
+	 * Gets the metrics recorded during library retrieval.
+	 * 
+	 * @return the metrics
+	 */
+	public StartupMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Sets the metrics to record library retrieval to, allowing retrieval and
+	 * launch to share the same metrics.
+	 * 
+	 * @param metrics
+	 *          the new metrics
+	 */
+	public void setMetrics(StartupMetrics metrics) {
+		if (metrics != null) this.metrics = metrics;
+	}
+
 	/**
 	 * Gets the libdir, default {@value #LIBRARIES_DIR}.
 	 * 
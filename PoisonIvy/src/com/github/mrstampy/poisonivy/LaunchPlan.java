@@ -0,0 +1,245 @@
+/*
+ * Poison Ivy - Java Library Dependency Resolver and Application Launcher 
+ *
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.poisonivy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the classpath and JVM options of a launched Java process to a file
+ * beside the library directory so that the command line remains short however
+ * many libraries are on the classpath. The file is either a Java 9+ argument
+ * file, passed as @file and containing the classpath and JVM options, or a
+ * manifest only pathing jar whose Class-Path lists the classpath, the JVM
+ * options remaining on the command line. The file is rewritten only when its
+ * contents change.
+ *
+ * @see PoisonIvy#LAUNCH_PLAN_PARM
+ */
+class LaunchPlan {
+	private static final Logger log = LoggerFactory.getLogger(LaunchPlan.class);
+
+	/** The Constant ARGFILE {@value #ARGFILE}. */
+	public static final String ARGFILE = "argfile";
+
+	/** The Constant PATHING_JAR {@value #PATHING_JAR}. */
+	public static final String PATHING_JAR = "jar";
+
+	private static final String ARGFILE_SFX = ".args";
+	private static final String PATHING_JAR_SFX = ".jar";
+	private static final Attributes.Name KEY = new Attributes.Name("Poison-Ivy-Key");
+	private static final int MIN_ARGFILE_JAVA_VERSION = 9;
+
+	private File file;
+	private boolean argfile;
+
+	/**
+	 * Instantiates a new launch plan named for the library directory and the
+	 * process launched.
+	 *
+	 * @param libdir
+	 *          the libdir
+	 * @param name
+	 *          the name of the process launched
+	 * @param type
+	 *          {@value #ARGFILE} or {@value #PATHING_JAR}, null for
+	 *          {@value #ARGFILE}
+	 */
+	public LaunchPlan(String libdir, String name, String type) {
+		argfile = type == null || ARGFILE.equals(type);
+		if (argfile && !isArgfileSupported()) {
+			log.warn("Argument files require Java {}, using a pathing jar", MIN_ARGFILE_JAVA_VERSION);
+			argfile = false;
+		}
+
+		File dir = new File(libdir).getAbsoluteFile();
+		String fileName = dir.getName() + "." + name + (argfile ? ARGFILE_SFX : PATHING_JAR_SFX);
+		file = new File(dir.getParentFile(), fileName);
+	}
+
+	/**
+	 * Returns the arguments to follow the java command in place of the classpath
+	 * and JVM options. Should the launch plan not be writable the classpath and
+	 * JVM options are returned.
+	 *
+	 * @param classpath
+	 *          the classpath
+	 * @param jvmOptions
+	 *          the jvm options
+	 * @return the arguments
+	 */
+	public List<String> getArguments(String classpath, List<String> jvmOptions) {
+		List<String> arguments = new ArrayList<String>();
+
+		try {
+			if (argfile) {
+				writeArgfile(classpath, jvmOptions);
+				arguments.add("@" + file.getAbsolutePath());
+			} else {
+				writePathingJar(classpath);
+				arguments.add("-cp");
+				arguments.add(file.getAbsolutePath());
+				arguments.addAll(jvmOptions);
+			}
+		} catch (IOException e) {
+			log.error("Could not write launch plan {}, using the command line", file, e);
+
+			arguments.clear();
+			arguments.add("-cp");
+			arguments.add(classpath);
+			arguments.addAll(jvmOptions);
+		}
+
+		return arguments;
+	}
+
+	/**
+	 * Gets the file.
+	 *
+	 * @return the file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	private void writeArgfile(String classpath, List<String> jvmOptions) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		sb.append("-cp\n").append(quote(classpath)).append("\n");
+		for (String option : jvmOptions) {
+			sb.append(quote(option)).append("\n");
+		}
+
+		byte[] contents = sb.toString().getBytes("UTF-8");
+		if (file.exists() && Arrays.equals(contents, read(file))) {
+			log.debug("Launch plan {} is current", file);
+			return;
+		}
+
+		log.debug("Writing launch plan {}", file);
+		write(contents);
+	}
+
+	private void writePathingJar(String classpath) throws IOException {
+		String classPath = toClassPath(classpath);
+		String key = Checksums.toHex(Checksums.newDigest().digest(classPath.getBytes("UTF-8")));
+
+		if (file.exists() && key.equals(readKey())) {
+			log.debug("Launch plan {} is current", file);
+			return;
+		}
+
+		Manifest manifest = new Manifest();
+		Attributes attributes = manifest.getMainAttributes();
+		attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		attributes.put(Attributes.Name.CLASS_PATH, classPath);
+		attributes.put(KEY, key);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		JarOutputStream jar = new JarOutputStream(bytes, manifest);
+		jar.close();
+
+		log.debug("Writing launch plan {}", file);
+		write(bytes.toByteArray());
+	}
+
+	private String toClassPath(String classpath) {
+		StringBuilder sb = new StringBuilder();
+		for (String entry : classpath.split(File.pathSeparator)) {
+			if (entry.length() == 0) continue;
+
+			if (sb.length() > 0) sb.append(" ");
+			sb.append(new File(entry).getAbsoluteFile().toURI().toString());
+		}
+
+		return sb.toString();
+	}
+
+	private String readKey() throws IOException {
+		JarFile jar = new JarFile(file);
+		try {
+			Manifest manifest = jar.getManifest();
+
+			return manifest == null ? null : manifest.getMainAttributes().getValue(KEY);
+		} finally {
+			jar.close();
+		}
+	}
+
+	private String quote(String arg) {
+		return "\"" + arg.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+
+	private byte[] read(File f) throws IOException {
+		InputStream in = new FileInputStream(f);
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buf = new byte[8192];
+			int read;
+			while ((read = in.read(buf)) != -1) {
+				bytes.write(buf, 0, read);
+			}
+
+			return bytes.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	private void write(byte[] contents) throws IOException {
+		File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+
+		OutputStream out = new FileOutputStream(temp);
+		try {
+			out.write(contents);
+		} finally {
+			out.close();
+		}
+
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private boolean isArgfileSupported() {
+		String spec = System.getProperty("java.specification.version");
+		try {
+			return !spec.startsWith("1.") && Integer.parseInt(spec) >= MIN_ARGFILE_JAVA_VERSION;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,261 @@
+/*
+ * Poison Ivy - Java Library Dependency Resolver and Application Launcher 
+ *
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.poisonivy;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bundle is a single compressed archive of a library directory's libraries
+ * and its {@link ResolutionManifest}. Exported on one host it can be imported
+ * on others without contacting any repository: the libraries are extracted
+ * beside the library directory, verified against the manifest and replace the
+ * library directory as a {@link LibraryUpdate}. Should the resolution inputs
+ * of the importing host match those of the exporting host the libraries are
+ * then current and no resolution takes place.<br>
+ * <br>
+ * Bundles may be imported from a file, ie. on a shared file system, or a URL,
+ * ie. served by a {@link BundleMirror}.
+ *
+ * @see PoisonIvy#EXPORT_PARM
+ * @see PoisonIvy#IMPORT_PARM
+ */
+class LibraryBundle {
+	private static final Logger log = LoggerFactory.getLogger(LibraryBundle.class);
+
+	/** The Constant BUNDLE_SFX {@value #BUNDLE_SFX}. */
+	public static final String BUNDLE_SFX = ".bundle";
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int CONNECT_TIMEOUT = 10000;
+	private static final int READ_TIMEOUT = 60000;
+
+	private File libdir;
+
+	/**
+	 * Instantiates a new library bundle for the library directory.
+	 *
+	 * @param libdir
+	 *          the libdir
+	 */
+	public LibraryBundle(File libdir) {
+		this.libdir = libdir;
+	}
+
+	/**
+	 * Exports the libraries and manifest of the library directory to the
+	 * bundle, replacing any existing bundle once complete.
+	 *
+	 * @param bundle
+	 *          the bundle
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public void export(File bundle) throws IOException {
+		ResolutionManifest manifest = ResolutionManifest.read(libdir);
+		if (manifest == null) throw new IOException("No resolution manifest in " + libdir + ", cannot export");
+
+		File parent = bundle.getAbsoluteFile().getParentFile();
+		if (parent != null) parent.mkdirs();
+
+		File temp = new File(parent, bundle.getName() + ".tmp");
+
+		ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(temp), BUFFER_SIZE));
+		// libraries are largely compressed already
+		out.setLevel(Deflater.BEST_SPEED);
+
+		boolean success = false;
+		try {
+			add(out, new File(libdir, ResolutionManifest.MANIFEST_FILE));
+			for (String name : manifest.getArtifacts().keySet()) {
+				add(out, new File(libdir, name));
+			}
+
+			out.close();
+			success = true;
+		} finally {
+			if (!success) {
+				close(out);
+				temp.delete();
+			}
+		}
+
+		Files.move(temp.toPath(), bundle.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+		log.info("Exported {} libraries from {} to {}", manifest.getArtifacts().size(), libdir, bundle);
+	}
+
+	/**
+	 * Imports the bundle from the file or URL specified into an update of the
+	 * library directory, verifying each library against the bundle's manifest.
+	 *
+	 * @param source
+	 *          the file or URL
+	 * @return the update, null if the bundle's libraries match those of the
+	 *         library directory
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 * @see IvyLibraryRetriever#promoteUpdate(LibraryUpdate)
+	 */
+	public LibraryUpdate importBundle(String source) throws IOException {
+		LibraryUpdate update = new LibraryUpdate(libdir);
+		update.discard();
+
+		File dir = update.getUpdateDir();
+
+		boolean success = false;
+		InputStream in = null;
+		try {
+			in = open(source);
+			extract(in, dir);
+			verify(dir);
+			success = true;
+		} finally {
+			close(in);
+			if (!success) update.discard();
+		}
+
+		if (update.isUnchanged()) {
+			log.debug("Libraries in {} match bundle {}", libdir, source);
+			update.discard();
+			return null;
+		}
+
+		log.info("Imported bundle {} to {}", source, dir);
+
+		return update;
+	}
+
+	private void add(ZipOutputStream out, File file) throws IOException {
+		out.putNextEntry(new ZipEntry(file.getName()));
+
+		InputStream in = new FileInputStream(file);
+		try {
+			copy(in, out);
+		} finally {
+			close(in);
+		}
+
+		out.closeEntry();
+	}
+
+	private InputStream open(String source) throws IOException {
+		if (!isUrl(source)) return new BufferedInputStream(new FileInputStream(source), BUFFER_SIZE);
+
+		URLConnection connection = new URL(source).openConnection();
+		connection.setConnectTimeout(CONNECT_TIMEOUT);
+		connection.setReadTimeout(READ_TIMEOUT);
+
+		if (connection instanceof HttpURLConnection) {
+			int code = ((HttpURLConnection) connection).getResponseCode();
+			if (code != HttpURLConnection.HTTP_OK) throw new IOException("Could not fetch " + source + ": HTTP " + code);
+		}
+
+		return new BufferedInputStream(connection.getInputStream(), BUFFER_SIZE);
+	}
+
+	private void extract(InputStream in, File dir) throws IOException {
+		if (!dir.mkdirs()) throw new IOException("Could not create " + dir);
+
+		ZipInputStream zip = new ZipInputStream(in);
+		ZipEntry entry;
+		while ((entry = zip.getNextEntry()) != null) {
+			String name = entry.getName();
+			if (entry.isDirectory() || name.contains("/") || name.contains("\\") || name.startsWith(".")) {
+				throw new IOException("Invalid bundle entry " + name);
+			}
+
+			OutputStream out = new FileOutputStream(new File(dir, name));
+			try {
+				copy(zip, out);
+			} finally {
+				close(out);
+			}
+		}
+	}
+
+	private void verify(File dir) throws IOException {
+		ResolutionManifest manifest = ResolutionManifest.read(dir);
+		if (manifest == null) throw new IOException("Bundle has no resolution manifest");
+
+		for (Map.Entry<String, ResolutionManifest.Artifact> e : manifest.getArtifacts().entrySet()) {
+			File f = new File(dir, e.getKey());
+			if (!f.isFile() || f.length() != e.getValue().getSize()
+					|| !Checksums.checksum(f).equals(e.getValue().getChecksum())) {
+				throw new IOException("Library " + e.getKey() + " in bundle is missing or corrupt");
+			}
+		}
+
+		for (File f : dir.listFiles()) {
+			if (!ResolutionManifest.isManifest(f) && !manifest.getArtifacts().containsKey(f.getName())) {
+				throw new IOException("Bundle contains " + f.getName() + ", not in its manifest");
+			}
+		}
+	}
+
+	private static void copy(InputStream in, OutputStream out) throws IOException {
+		byte[] buf = new byte[BUFFER_SIZE];
+		int read;
+		while ((read = in.read(buf)) != -1) {
+			out.write(buf, 0, read);
+		}
+	}
+
+	/**
+	 * Returns true if the source is a URL rather than a file.
+	 *
+	 * @param source
+	 *          the source
+	 * @return true, if is url
+	 */
+	public static boolean isUrl(String source) {
+		return source.matches("^[a-zA-Z][a-zA-Z0-9+.-]+://.*");
+	}
+
+	private static void close(Closeable c) {
+		if (c == null) return;
+		try {
+			c.close();
+		} catch (IOException e) {
+			log.debug("Could not close", e);
+		}
+	}
+}
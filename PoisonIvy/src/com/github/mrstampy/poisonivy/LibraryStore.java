@@ -0,0 +1,362 @@
+/*
+ * Poison Ivy - Java Library Dependency Resolver and Application Launcher 
+ *
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.poisonivy;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A content addressable store of libraries shared by the library directories
+ * of any number of applications. Each library is stored once, named by its
+ * checksum, and the library directories contain hard links (or symbolic links)
+ * to the stored libraries. Each library directory using the store has a
+ * reference file in the store listing the libraries it uses; libraries no
+ * longer referenced by any existing library directory are removed by
+ * {@link #collectGarbage()}.<br>
+ * <br>
+ * Stored libraries are made read only, as they are shared. Interning and
+ * garbage collection hold an exclusive lock on {@value #LOCK_FILE} in the
+ * store, so that the processes sharing the store may start at once.
+ *
+ * @see IvyLibraryRetriever#setStoreDir(String)
+ */
+class LibraryStore {
+	private static final Logger log = LoggerFactory.getLogger(LibraryStore.class);
+
+	/** The Constant DEFAULT_STORE_DIR {@value #DEFAULT_STORE_DIR}. */
+	public static final String DEFAULT_STORE_DIR = "~/.poisonivy/store";
+
+	private static final String OBJECTS_DIR = "objects";
+	private static final String REFS_DIR = "refs";
+	private static final String REF_SFX = ".ref";
+	private static final String LIBDIR_KEY = "libdir";
+	private static final String OBJECT_PFX = "object.";
+
+	/** The Constant LOCK_FILE {@value #LOCK_FILE}. */
+	public static final String LOCK_FILE = "store.lock";
+
+	private static final ReentrantLock jvmLock = new ReentrantLock();
+
+	private File root;
+	private File objects;
+	private File refs;
+	private boolean symlinks;
+
+	/**
+	 * Instantiates a new library store.
+	 *
+	 * @param storeDir
+	 *          the store directory, a leading ~ is replaced by the user's home
+	 *          directory
+	 * @param symlinks
+	 *          if true symbolic links are used rather than hard links
+	 */
+	public LibraryStore(String storeDir, boolean symlinks) {
+		this.root = new File(expandHome(storeDir));
+		this.objects = new File(root, OBJECTS_DIR);
+		this.refs = new File(root, REFS_DIR);
+		this.symlinks = symlinks;
+	}
+
+	/**
+	 * Moves the libraries in the library directory recorded in its
+	 * {@link ResolutionManifest} into the store, replacing them with links, and
+	 * records the library directory's references.
+	 *
+	 * @param libdir
+	 *          the libdir
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public void intern(File libdir) throws IOException {
+		ResolutionManifest manifest = ResolutionManifest.read(libdir);
+		if (manifest == null) {
+			log.warn("No resolution manifest in {}, libraries not stored", libdir);
+			return;
+		}
+
+		FileLock lock = lock();
+		try {
+			intern(libdir, manifest);
+		} finally {
+			unlock(lock);
+		}
+	}
+
+	private void intern(File libdir, ResolutionManifest manifest) throws IOException {
+		mkdirs(objects);
+		mkdirs(refs);
+
+		Properties ref = new Properties();
+		ref.setProperty(LIBDIR_KEY, libdir.getCanonicalPath());
+
+		int stored = 0;
+		int linked = 0;
+		for (Entry<String, ResolutionManifest.Artifact> e : manifest.getArtifacts().entrySet()) {
+			File lib = new File(libdir, e.getKey());
+			String checksum = e.getValue().getChecksum();
+			File object = getObject(checksum);
+
+			if (!object.exists()) {
+				if (!store(lib, object, checksum)) continue;
+				stored++;
+			} else if (!isLinked(lib, object) && !isVerified(lib, checksum)) {
+				continue;
+			}
+
+			if (!isLinked(lib, object)) {
+				Files.deleteIfExists(lib.toPath());
+				link(lib, object);
+				linked++;
+			}
+
+			ref.setProperty(OBJECT_PFX + e.getValue().getChecksum(), e.getKey());
+		}
+
+		writeRef(libdir, ref);
+
+		log.debug("{} libraries added to the store, {} libraries linked in {}", stored, linked, libdir);
+	}
+
+	/**
+	 * Removes the references of library directories which no longer exist, and
+	 * the libraries no longer referenced.
+	 *
+	 * @return the number of libraries removed
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public int collectGarbage() throws IOException {
+		FileLock lock = lock();
+		try {
+			return collect();
+		} finally {
+			unlock(lock);
+		}
+	}
+
+	private int collect() {
+		Set<String> referenced = new HashSet<String>();
+
+		File[] refFiles = refs.listFiles();
+		if (refFiles != null) {
+			for (File refFile : refFiles) {
+				Properties ref = readRef(refFile);
+				if (ref == null) continue;
+
+				String libdir = ref.getProperty(LIBDIR_KEY);
+				if (libdir == null || !ResolutionManifest.exists(new File(libdir))) {
+					log.debug("Removing reference for {}", libdir);
+					delete(refFile);
+					continue;
+				}
+
+				for (String key : ref.stringPropertyNames()) {
+					if (key.startsWith(OBJECT_PFX)) referenced.add(key.substring(OBJECT_PFX.length()));
+				}
+			}
+		}
+
+		int removed = 0;
+		File[] prefixes = objects.listFiles();
+		if (prefixes == null) return removed;
+
+		for (File prefix : prefixes) {
+			File[] stored = prefix.listFiles();
+			if (stored == null) continue;
+
+			for (File object : stored) {
+				if (referenced.contains(object.getName())) continue;
+
+				log.debug("Removing unreferenced library {}", object);
+				delete(object);
+				removed++;
+			}
+
+			String[] remaining = prefix.list();
+			if (remaining != null && remaining.length == 0) delete(prefix);
+		}
+
+		log.debug("{} unreferenced libraries removed from the store", removed);
+
+		return removed;
+	}
+
+	private File getObject(String checksum) {
+		return new File(new File(objects, checksum.substring(0, 2)), checksum);
+	}
+
+	/**
+	 * Moves the library into the store under its checksum. The manifest's
+	 * checksum is that of the library in Ivy's cache, so the library is hashed
+	 * once staged in the store and refused should it differ.
+	 */
+	private boolean store(File lib, File object, String checksum) throws IOException {
+		mkdirs(object.getParentFile());
+
+		File temp = File.createTempFile(object.getName(), ".tmp", object.getParentFile());
+		Files.move(lib.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		try {
+			if (!isVerified(temp, checksum)) {
+				Files.move(temp.toPath(), lib.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				return false;
+			}
+
+			temp.setWritable(false, false);
+			Files.move(temp.toPath(), object.toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+			return true;
+		} catch (IOException e) {
+			Files.move(temp.toPath(), lib.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns true if the library's checksum is that of the manifest, else it is
+	 * not stored or replaced by a link.
+	 */
+	private boolean isVerified(File lib, String checksum) throws IOException {
+		if (!lib.exists()) return true;
+
+		String actual = Checksums.checksum(lib);
+		if (actual.equals(checksum)) return true;
+
+		log.error("Checksum of {} is {}, expected {} from the manifest, not stored", lib.getName(), actual, checksum);
+
+		return false;
+	}
+
+	/**
+	 * Acquires the store's lock, returning the file lock or null should the file
+	 * system not support file locks.
+	 */
+	private FileLock lock() throws IOException {
+		mkdirs(root);
+
+		jvmLock.lock();
+		FileChannel channel = null;
+		FileLock lock = null;
+		try {
+			channel = FileChannel.open(new File(root, LOCK_FILE).toPath(), StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE);
+			lock = channel.lock();
+		} catch (IOException e) {
+			if (channel == null) {
+				jvmLock.unlock();
+				throw e;
+			}
+
+			log.warn("File locks are not supported for {}, locking within this JVM only", root, e);
+		} finally {
+			if (lock == null && channel != null) channel.close();
+		}
+
+		return lock;
+	}
+
+	private void unlock(FileLock lock) {
+		try {
+			if (lock != null) lock.channel().close();
+		} catch (IOException e) {
+			log.error("Could not release lock on {}", root, e);
+		} finally {
+			jvmLock.unlock();
+		}
+	}
+
+	private boolean isLinked(File lib, File object) throws IOException {
+		return lib.exists() && Files.isSameFile(lib.toPath(), object.toPath());
+	}
+
+	private void link(File lib, File object) throws IOException {
+		if (!symlinks) {
+			try {
+				Files.createLink(lib.toPath(), object.toPath());
+				return;
+			} catch (IOException e) {
+				log.debug("Could not hard link {}, using a symbolic link", lib, e);
+			}
+		}
+
+		Files.createSymbolicLink(lib.toPath(), object.getAbsoluteFile().toPath());
+	}
+
+	private void writeRef(File libdir, Properties ref) throws IOException {
+		String name = Checksums.toHex(Checksums.newDigest().digest(libdir.getCanonicalPath().getBytes("UTF-8")));
+
+		OutputStream out = null;
+		try {
+			out = new FileOutputStream(new File(refs, name + REF_SFX));
+			ref.store(out, "Poison Ivy library store references");
+		} finally {
+			if (out != null) out.close();
+		}
+	}
+
+	private Properties readRef(File refFile) {
+		Properties ref = new Properties();
+		InputStream in = null;
+		try {
+			in = new FileInputStream(refFile);
+			ref.load(in);
+			return ref;
+		} catch (IOException e) {
+			log.error("Could not read {}", refFile, e);
+			return null;
+		} finally {
+			try {
+				if (in != null) in.close();
+			} catch (IOException e) {
+				log.debug("Could not close {}", refFile, e);
+			}
+		}
+	}
+
+	private void mkdirs(File dir) throws IOException {
+		if (!dir.exists() && !dir.mkdirs()) throw new IOException("Could not create " + dir);
+	}
+
+	private void delete(File f) {
+		if (!f.delete()) log.error("Could not delete {}", f.getAbsolutePath());
+	}
+
+	private static String expandHome(String dir) {
+		return dir.startsWith("~") ? System.getProperty("user.home") + dir.substring(1) : dir;
+	}
+}
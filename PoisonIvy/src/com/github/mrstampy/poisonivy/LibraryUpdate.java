@@ -0,0 +1,191 @@
+/*
+ * Poison Ivy - Java Library Dependency Resolver and Application Launcher 
+ *
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.poisonivy;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An update of a library directory retrieved in the background into an update
+ * directory beside it, while the application runs from the library directory.
+ * A complete update, ie. one with a {@link ResolutionManifest}, replaces the
+ * library directory when {@link #promote()}d on the next start. An incomplete
+ * update is discarded.<br>
+ * <br>
+ * The update is {@link #seed()}ed with links to the current libraries and
+ * manifest, so that a retrieval into it skips resolution should the inputs be
+ * unchanged, and copies only the libraries which have changed otherwise.
+ *
+ * @see IvyLibraryRetriever#setBackground(boolean)
+ */
+class LibraryUpdate {
+	private static final Logger log = LoggerFactory.getLogger(LibraryUpdate.class);
+
+	/** The Constant UPDATE_SFX {@value #UPDATE_SFX}. */
+	public static final String UPDATE_SFX = ".update";
+
+	private File libdir;
+	private File update;
+	private File previous;
+
+	/**
+	 * Instantiates a new library update for the library directory.
+	 *
+	 * @param libdir
+	 *          the libdir
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public LibraryUpdate(File libdir) throws IOException {
+		this.libdir = libdir.getCanonicalFile();
+		this.update = new File(this.libdir.getParentFile(), this.libdir.getName() + UPDATE_SFX);
+		this.previous = new File(this.libdir.getParentFile(), this.libdir.getName() + IncrementalRetrieval.PREVIOUS_SFX);
+	}
+
+	/**
+	 * Replaces the library directory with a complete update, discarding an
+	 * incomplete one.
+	 *
+	 * @return true, if the library directory was replaced
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public boolean promote() throws IOException {
+		new IncrementalRetrieval(libdir).recover();
+
+		if (!update.exists()) return false;
+
+		if (!ResolutionManifest.exists(update)) {
+			log.warn("Discarding incomplete library update {}", update);
+			discard();
+			return false;
+		}
+
+		if (libdir.exists() && !libdir.renameTo(previous)) {
+			throw new IOException("Could not move " + libdir + " to " + previous);
+		}
+
+		if (!update.renameTo(libdir)) {
+			if (previous.exists()) previous.renameTo(libdir);
+			throw new IOException("Could not move " + update + " to " + libdir);
+		}
+
+		IncrementalRetrieval.deleteRecursively(previous);
+
+		log.info("Promoted library update {} to {}", update, libdir);
+
+		return true;
+	}
+
+	/**
+	 * Returns true if the update retrieved the same libraries from the same
+	 * resolution inputs as the library directory, so need not be promoted.
+	 *
+	 * @return true, if is unchanged
+	 */
+	public boolean isUnchanged() {
+		ResolutionManifest current = ResolutionManifest.read(libdir);
+		ResolutionManifest updated = ResolutionManifest.read(update);
+
+		if (current == null || updated == null) return false;
+
+		if (!current.getFingerprint().equals(updated.getFingerprint())) return false;
+
+		Map<String, ResolutionManifest.Artifact> libs = current.getArtifacts();
+		Map<String, ResolutionManifest.Artifact> updates = updated.getArtifacts();
+
+		if (!libs.keySet().equals(updates.keySet())) return false;
+
+		for (Entry<String, ResolutionManifest.Artifact> e : updates.entrySet()) {
+			ResolutionManifest.Artifact lib = libs.get(e.getKey());
+			if (lib.getSize() != e.getValue().getSize()) return false;
+			if (!lib.getChecksum().equals(e.getValue().getChecksum())) return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Populates a new update directory with hard links to the libraries and
+	 * manifest of the library directory, copying should linking not be
+	 * possible. An existing update directory is left as is.
+	 *
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public void seed() throws IOException {
+		if (update.exists() || !ResolutionManifest.exists(libdir)) return;
+
+		try {
+			link(libdir, update);
+		} catch (IOException e) {
+			discard();
+			throw e;
+		}
+	}
+
+	private void link(File from, File to) throws IOException {
+		if (!to.mkdirs()) throw new IOException("Could not create " + to);
+
+		File[] files = from.listFiles();
+		if (files == null) return;
+
+		for (File f : files) {
+			File linked = new File(to, f.getName());
+			if (f.isDirectory()) {
+				link(f, linked);
+				continue;
+			}
+
+			try {
+				Files.createLink(linked.toPath(), f.toPath());
+			} catch (IOException e) {
+				log.debug("Could not link {}, copying", f, e);
+				Files.copy(f.toPath(), linked.toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+			} catch (UnsupportedOperationException e) {
+				Files.copy(f.toPath(), linked.toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+			}
+		}
+	}
+
+	/**
+	 * Deletes the update directory.
+	 */
+	public void discard() {
+		IncrementalRetrieval.deleteRecursively(update);
+	}
+
+	/**
+	 * Gets the update directory.
+	 *
+	 * @return the update dir
+	 */
+	public File getUpdateDir() {
+		return update;
+	}
+}
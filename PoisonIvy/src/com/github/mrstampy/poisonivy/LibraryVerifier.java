@@ -0,0 +1,327 @@
+/*
+ * Poison Ivy - Java Library Dependency Resolver and Application Launcher 
+ *
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.poisonivy;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Verifies the integrity of the libraries in a library directory before
+ * launch. Each library recorded in the {@link ResolutionManifest} must exist
+ * with the recorded size and checksum, that of the file in Ivy's cache it was
+ * retrieved from, and each jar must end with a zip end of central directory
+ * record, detecting truncated downloads. Libraries are
+ * hashed in parallel using memory mapped reads.<br>
+ * <br>
+ * Checksums are cached beside the library directory keyed by library name,
+ * size and modification time, so only libraries which have changed since the
+ * last verification are hashed again.
+ *
+ * @see IvyLibraryRetriever#setVerify(boolean)
+ */
+class LibraryVerifier {
+	private static final Logger log = LoggerFactory.getLogger(LibraryVerifier.class);
+
+	/** The Constant CACHE_SFX {@value #CACHE_SFX}. */
+	public static final String CACHE_SFX = ".verified";
+
+	private static final int EOCD_SIGNATURE = 0x06054b50;
+	private static final int EOCD_MIN_SIZE = 22;
+	private static final int EOCD_MAX_SIZE = EOCD_MIN_SIZE + 0xffff;
+
+	private File libdir;
+	private File cacheFile;
+	private int threads;
+
+	/**
+	 * Instantiates a new library verifier.
+	 *
+	 * @param libdir
+	 *          the libdir
+	 * @param threads
+	 *          the number of libraries to hash in parallel
+	 */
+	public LibraryVerifier(File libdir, int threads) {
+		this.libdir = libdir.getAbsoluteFile();
+		this.cacheFile = new File(this.libdir.getParentFile(), this.libdir.getName() + CACHE_SFX);
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Verifies the libraries.
+	 *
+	 * @return true, if all libraries are intact
+	 * @throws InterruptedException
+	 *           the interrupted exception
+	 */
+	public boolean verify() throws InterruptedException {
+		List<Verification> verifications = getVerifications();
+		if (verifications.isEmpty()) return true;
+
+		Properties cache = readCache();
+		Properties verified = new Properties();
+
+		ExecutorService svc = Executors.newFixedThreadPool(Math.min(threads, verifications.size()),
+				new VerifierThreadFactory());
+
+		List<Future<String>> checksums = new ArrayList<Future<String>>();
+		try {
+			for (Verification v : verifications) {
+				checksums.add(svc.submit(new ChecksumTask(v, cache)));
+			}
+
+			boolean intact = true;
+			int hashed = 0;
+			for (int i = 0; i < verifications.size(); i++) {
+				Verification v = verifications.get(i);
+				String checksum = getChecksum(v, checksums.get(i));
+
+				if (checksum == null) {
+					intact = false;
+					continue;
+				}
+
+				if (getCachedChecksum(cache, v) == null) hashed++;
+
+				if (v.getExpected() != null && !v.getExpected().equals(checksum)) {
+					log.error("Library {} does not match its checksum, expected {} but was {}", v.getFile(), v.getExpected(),
+							checksum);
+					intact = false;
+					continue;
+				}
+
+				verified.setProperty(v.getName(), getCacheValue(v, checksum));
+			}
+
+			log.debug("{} libraries verified, {} hashed", verifications.size(), hashed);
+
+			writeCache(verified);
+
+			return intact;
+		} finally {
+			svc.shutdownNow();
+		}
+	}
+
+	private String getChecksum(Verification v, Future<String> future) throws InterruptedException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			log.error("Library {} could not be verified", v.getFile(), e.getCause());
+			return null;
+		}
+	}
+
+	private List<Verification> getVerifications() {
+		List<Verification> verifications = new ArrayList<Verification>();
+
+		ResolutionManifest manifest = ResolutionManifest.read(libdir);
+		if (manifest != null) {
+			for (Entry<String, ResolutionManifest.Artifact> e : manifest.getArtifacts().entrySet()) {
+				if (e.getValue().getSource() == null) {
+					log.debug("No source recorded for {}, verifying against its checksum when retrieved", e.getKey());
+				}
+
+				verifications.add(new Verification(e.getKey(), new File(libdir, e.getKey()), e.getValue()));
+			}
+
+			return verifications;
+		}
+
+		File[] libs = libdir.listFiles();
+		if (libs == null) return verifications;
+
+		for (File lib : libs) {
+			if (!lib.isFile() || ResolutionManifest.isManifest(lib)) continue;
+
+			verifications.add(new Verification(lib.getName(), lib, null));
+		}
+
+		return verifications;
+	}
+
+	private String getCachedChecksum(Properties cache, Verification v) {
+		String value = cache.getProperty(v.getName());
+		if (value == null || !value.startsWith(v.getFile().length() + "," + v.getFile().lastModified() + ",")) return null;
+
+		return value.substring(value.lastIndexOf(',') + 1);
+	}
+
+	private String getCacheValue(Verification v, String checksum) {
+		return v.getFile().length() + "," + v.getFile().lastModified() + "," + checksum;
+	}
+
+	private Properties readCache() {
+		Properties cache = new Properties();
+		if (!cacheFile.exists()) return cache;
+
+		InputStream in = null;
+		try {
+			in = new FileInputStream(cacheFile);
+			cache.load(in);
+		} catch (IOException e) {
+			log.warn("Could not read {}, verifying all libraries", cacheFile, e);
+			cache.clear();
+		} finally {
+			try {
+				if (in != null) in.close();
+			} catch (IOException e) {
+				log.debug("Could not close {}", cacheFile, e);
+			}
+		}
+
+		return cache;
+	}
+
+	private void writeCache(Properties verified) {
+		OutputStream out = null;
+		try {
+			out = new FileOutputStream(cacheFile);
+			verified.store(out, "Poison Ivy verified libraries");
+		} catch (IOException e) {
+			log.error("Could not write {}", cacheFile, e);
+		} finally {
+			try {
+				if (out != null) out.close();
+			} catch (IOException e) {
+				log.debug("Could not close {}", cacheFile, e);
+			}
+		}
+	}
+
+	private static boolean isZip(File file) {
+		String name = file.getName().toLowerCase();
+
+		return name.endsWith(".jar") || name.endsWith(".zip") || name.endsWith(".war");
+	}
+
+	private static boolean hasEndOfCentralDirectory(File file) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			if (size < EOCD_MIN_SIZE) return false;
+
+			int length = (int) Math.min(size, EOCD_MAX_SIZE);
+			MappedByteBuffer tail = channel.map(MapMode.READ_ONLY, size - length, length);
+			tail.order(ByteOrder.LITTLE_ENDIAN);
+
+			for (int i = length - EOCD_MIN_SIZE; i >= 0; i--) {
+				if (tail.getInt(i) == EOCD_SIGNATURE) return true;
+			}
+
+			return false;
+		} finally {
+			channel.close();
+		}
+	}
+
+	private class ChecksumTask implements Callable<String> {
+		private Verification verification;
+		private Properties cache;
+
+		public ChecksumTask(Verification verification, Properties cache) {
+			this.verification = verification;
+			this.cache = cache;
+		}
+
+		@Override
+		public String call() throws Exception {
+			File file = verification.getFile();
+
+			if (!file.isFile()) throw new IOException(file + " is missing");
+
+			long expectedSize = verification.getExpectedSize();
+			if (expectedSize >= 0 && file.length() != expectedSize) {
+				throw new IOException(file + " is " + file.length() + " bytes, expected " + expectedSize);
+			}
+
+			String cached = getCachedChecksum(cache, verification);
+			if (cached != null) return cached;
+
+			if (isZip(file) && !hasEndOfCentralDirectory(file)) throw new IOException(file + " is truncated");
+
+			return Checksums.mappedChecksum(file);
+		}
+	}
+
+	private static class Verification {
+		private String name;
+		private File file;
+		private ResolutionManifest.Artifact expected;
+
+		public Verification(String name, File file, ResolutionManifest.Artifact expected) {
+			this.name = name;
+			this.file = file;
+			this.expected = expected;
+		}
+
+		public File getFile() {
+			return file;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getExpected() {
+			return expected == null ? null : expected.getChecksum();
+		}
+
+		public long getExpectedSize() {
+			return expected == null ? -1 : expected.getSize();
+		}
+	}
+
+	private static class VerifierThreadFactory implements ThreadFactory {
+		private AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "Library verification thread " + count.incrementAndGet());
+			thread.setDaemon(true);
+
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,340 @@
+/*
+ * Poison Ivy - Java Library Dependency Resolver and Application Launcher 
+ *
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.poisonivy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Delivers the output, errors and samples of a process to a single
+ * {@link ProcessListener} on its own thread, so that a slow listener does not
+ * stall the reading of the process' streams. Events are held in a bounded
+ * queue and delivered in batches, consecutive output or error events of a
+ * batch being delivered as one call. Should the queue be full the overflow
+ * policy applies:<br>
+ * <br>
+ * {@value #BLOCK} - the reader waits for the listener to catch up<br>
+ * {@value #DROP_OLDEST} - the oldest event is dropped to make room<br>
+ * {@value #SAMPLE} - one in {@value #SAMPLE_RATE} events is kept, dropping the
+ * oldest to make room, the rest are dropped<br>
+ * <br>
+ * Samples are never batched and the end of the streams is never dropped.
+ *
+ * @see ProcessContainer#LISTENER_OVERFLOW_PROPERTY
+ */
+class ListenerQueue {
+	private static final Logger log = LoggerFactory.getLogger(ListenerQueue.class);
+
+	/** The Constant BLOCK {@value #BLOCK}. */
+	public static final String BLOCK = "block";
+
+	/** The Constant DROP_OLDEST {@value #DROP_OLDEST}. */
+	public static final String DROP_OLDEST = "drop-oldest";
+
+	/** The Constant SAMPLE {@value #SAMPLE}. */
+	public static final String SAMPLE = "sample";
+
+	/** The Constant SAMPLE_RATE {@value #SAMPLE_RATE}. */
+	public static final int SAMPLE_RATE = 10;
+
+	private static final int OUTPUT = 0;
+	private static final int ERROR = 1;
+	private static final int SAMPLED = 2;
+	private static final int END = 3;
+
+	private ProcessListener listener;
+	private BlockingQueue<Event> queue;
+	private String overflow;
+	private int batchSize;
+
+	private Thread thread;
+	private volatile boolean closed;
+
+	private long offered;
+	private volatile long delivered;
+	private volatile long dropped;
+	private volatile long maxLag;
+
+	/**
+	 * Instantiates a new listener queue, starting its delivery thread.
+	 *
+	 * @param listener
+	 *          the listener
+	 * @param capacity
+	 *          the capacity of the queue
+	 * @param batchSize
+	 *          the maximum number of events delivered at once
+	 * @param overflow
+	 *          the overflow policy
+	 * @param factory
+	 *          the factory of the delivery thread
+	 * @param name
+	 *          the name of the delivery thread
+	 */
+	public ListenerQueue(ProcessListener listener, int capacity, int batchSize, String overflow, ThreadFactory factory,
+			String name) {
+		if (!BLOCK.equals(overflow) && !DROP_OLDEST.equals(overflow) && !SAMPLE.equals(overflow)) {
+			throw new IllegalArgumentException("Unknown overflow policy " + overflow);
+		}
+
+		this.listener = listener;
+		this.queue = new ArrayBlockingQueue<Event>(Math.max(1, capacity));
+		this.batchSize = Math.max(1, batchSize);
+		this.overflow = overflow;
+
+		thread = factory.newThread(new Runnable() {
+
+			@Override
+			public void run() {
+				deliver();
+			}
+		});
+		thread.setName(name);
+		thread.start();
+	}
+
+	/**
+	 * Queues the output.
+	 *
+	 * @param out
+	 *          the out
+	 */
+	public void output(String out) {
+		offer(new Event(OUTPUT, out, null));
+	}
+
+	/**
+	 * Queues the error.
+	 *
+	 * @param err
+	 *          the err
+	 */
+	public void error(String err) {
+		offer(new Event(ERROR, err, null));
+	}
+
+	/**
+	 * Queues the sample, should the listener be a {@link ProcessSampleListener}
+	 * .
+	 *
+	 * @param sample
+	 *          the sample
+	 */
+	public void sample(ProcessSample sample) {
+		if (listener instanceof ProcessSampleListener) offer(new Event(SAMPLED, null, sample));
+	}
+
+	/**
+	 * Signals the end of the process' streams. Events queued beforehand are
+	 * delivered, those queued afterwards ignored.
+	 */
+	public synchronized void close() {
+		if (closed) return;
+		closed = true;
+
+		try {
+			queue.put(new Event(END, null, null));
+		} catch (InterruptedException e) {
+			log.debug("Interrupted closing the queue of {}", listener, e);
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Waits for the events queued before {@link #close()} to be delivered.
+	 *
+	 * @throws InterruptedException
+	 *           the interrupted exception
+	 */
+	public void join() throws InterruptedException {
+		thread.join();
+	}
+
+	/**
+	 * Gets the listener.
+	 *
+	 * @return the listener
+	 */
+	public ProcessListener getListener() {
+		return listener;
+	}
+
+	/**
+	 * Gets the number of events delivered.
+	 *
+	 * @return the delivered
+	 */
+	public long getDelivered() {
+		return delivered;
+	}
+
+	/**
+	 * Gets the number of events dropped by the overflow policy.
+	 *
+	 * @return the dropped
+	 */
+	public long getDropped() {
+		return dropped;
+	}
+
+	/**
+	 * Gets the number of events awaiting delivery.
+	 *
+	 * @return the queued
+	 */
+	public int getQueued() {
+		return queue.size();
+	}
+
+	/**
+	 * Gets the time in milliseconds the oldest event has awaited delivery, 0 if
+	 * none is queued.
+	 *
+	 * @return the lag
+	 */
+	public long getLag() {
+		Event head = queue.peek();
+
+		return head == null ? 0 : (System.nanoTime() - head.queued) / 1000000;
+	}
+
+	/**
+	 * Gets the longest time in milliseconds an event awaited delivery.
+	 *
+	 * @return the max lag
+	 */
+	public long getMaxLag() {
+		return maxLag;
+	}
+
+	private void offer(Event event) {
+		if (closed) return;
+
+		try {
+			if (BLOCK.equals(overflow)) {
+				queue.put(event);
+				return;
+			}
+
+			synchronized (this) {
+				if (closed) return;
+
+				if (SAMPLE.equals(overflow) && queue.remainingCapacity() == 0 && offered++ % SAMPLE_RATE != 0) {
+					dropped++;
+					return;
+				}
+
+				while (!queue.offer(event)) {
+					if (queue.poll() != null) dropped++;
+				}
+			}
+		} catch (InterruptedException e) {
+			log.debug("Interrupted queueing for {}", listener, e);
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void deliver() {
+		List<Event> batch = new ArrayList<Event>(batchSize);
+		StringBuilder sb = new StringBuilder();
+
+		try {
+			while (true) {
+				batch.add(queue.take());
+				queue.drainTo(batch, batchSize - 1);
+
+				int type = -1;
+				for (Event event : batch) {
+					if (event.type != type && sb.length() > 0) flush(type, sb);
+					type = event.type;
+
+					switch (event.type) {
+					case OUTPUT:
+					case ERROR:
+						sb.append(event.text);
+						break;
+					case SAMPLED:
+						notifyListener(event);
+						break;
+					default:
+						return;
+					}
+
+					delivered(event);
+				}
+
+				if (sb.length() > 0) flush(type, sb);
+				batch.clear();
+			}
+		} catch (InterruptedException e) {
+			log.debug("Delivery to {} interrupted", listener, e);
+		}
+	}
+
+	private void delivered(Event event) {
+		long lag = (System.nanoTime() - event.queued) / 1000000;
+		if (lag > maxLag) maxLag = lag;
+
+		delivered++;
+	}
+
+	private void flush(int type, StringBuilder sb) {
+		notifyListener(new Event(type, sb.toString(), null));
+		sb.setLength(0);
+	}
+
+	private void notifyListener(Event event) {
+		try {
+			switch (event.type) {
+			case OUTPUT:
+				listener.output(event.text);
+				break;
+			case ERROR:
+				listener.error(event.text);
+				break;
+			default:
+				((ProcessSampleListener) listener).sample(event.sample);
+				break;
+			}
+		} catch (RuntimeException e) {
+			log.error("Unexpected exception notifying {}", listener, e);
+		}
+	}
+
+	private static class Event {
+		private int type;
+		private String text;
+		private ProcessSample sample;
+		private long queued = System.nanoTime();
+
+		Event(int type, String text, ProcessSample sample) {
+			this.type = type;
+			this.text = text;
+			this.sample = sample;
+		}
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * Poison Ivy - Java Library Dependency Resolver and Application Launcher 
+ *
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.poisonivy;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Configures how long Ivy trusts its cache of repository metadata. Ivy records
+ * the revision each dynamic revision (ie. latest.integration or [1.0,2.0[)
+ * resolved to, per module, and the resolver (repository) each module's
+ * metadata was cached from. By default it asks the repositories again should
+ * the resolution be more than ten seconds old.<br>
+ * <br>
+ * Should the cache be trusted the dynamic revisions resolved and the metadata
+ * cached are used without contacting the repositories until the time to live
+ * expires, after which the entries are resolved again and replaced. The time
+ * to live uses Ivy's duration syntax, ie. 30m, 1h, 2d 12h or
+ * {@value #ETERNAL}.<br>
+ * <br>
+ * The cache is configured by Ivy variables so that it applies alike to Ivy
+ * running in a separate process and in the running JVM. A time to live set in
+ * the ivy settings file takes precedence.
+ *
+ * @see PoisonIvy#METADATA_CACHE_PARM
+ */
+class MetadataCache {
+
+	/** The Constant DEFAULT_TTL {@value #DEFAULT_TTL}. */
+	public static final String DEFAULT_TTL = "1h";
+
+	/** The Constant ETERNAL {@value #ETERNAL}. */
+	public static final String ETERNAL = "eternal";
+
+	/** The Ivy variable {@value #TTL_VARIABLE}. */
+	public static final String TTL_VARIABLE = "ivy.cache.ttl.default";
+
+	/** The Ivy variable {@value #CHECK_MODIFIED_VARIABLE}. */
+	public static final String CHECK_MODIFIED_VARIABLE = "ivy.resolver.default.check.modified";
+
+	private static final Pattern DURATION = Pattern
+			.compile("(?:(\\d+)d)? ?(?:(\\d+)h)? ?(?:(\\d+)m)? ?(?:(\\d+)s)? ?(?:(\\d+)ms)?");
+
+	private String ttl;
+
+	/**
+	 * Instantiates a new metadata cache trusted for the time to live specified.
+	 *
+	 * @param ttl
+	 *          the time to live, null for {@value #DEFAULT_TTL}
+	 */
+	public MetadataCache(String ttl) {
+		this.ttl = ttl == null ? DEFAULT_TTL : ttl.trim();
+
+		if (!isValid(this.ttl)) {
+			throw new IllegalArgumentException("Invalid metadata cache time to live " + ttl + ", ie. 30m, 1h, 2d 12h or "
+					+ ETERNAL);
+		}
+	}
+
+	/**
+	 * Gets the Ivy variables configuring the cache.
+	 *
+	 * @return the variables
+	 */
+	public Map<String, String> getVariables() {
+		Map<String, String> variables = new LinkedHashMap<String, String>();
+
+		variables.put(TTL_VARIABLE, ttl);
+		variables.put(CHECK_MODIFIED_VARIABLE, Boolean.FALSE.toString());
+
+		return variables;
+	}
+
+	/**
+	 * Gets the -D options passing the variables to a separate Ivy process.
+	 *
+	 * @return the JVM options
+	 */
+	public List<String> getJvmOptions() {
+		List<String> options = new ArrayList<String>();
+
+		for (Map.Entry<String, String> e : getVariables().entrySet()) {
+			options.add("-D" + e.getKey() + "=" + e.getValue());
+		}
+
+		return options;
+	}
+
+	/**
+	 * Gets the time to live.
+	 *
+	 * @return the ttl
+	 */
+	public String getTtl() {
+		return ttl;
+	}
+
+	private static boolean isValid(String ttl) {
+		return ETERNAL.equals(ttl) || (ttl.length() > 0 && DURATION.matcher(ttl).matches());
+	}
+}
@@ -0,0 +1,613 @@
+/*
+ * Poison Ivy - Java Library Dependency Resolver and Application Launcher 
+ *
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.poisonivy;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ivy.core.settings.IvySettings;
+import org.apache.ivy.plugins.resolver.AbstractPatternsBasedResolver;
+import org.apache.ivy.plugins.resolver.ChainResolver;
+import org.apache.ivy.plugins.resolver.DependencyResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Orders the mirrors in the chain resolvers of the ivy settings by their
+ * measured performance. The mirrors are the HTTP resolvers declared by name as
+ * mirrors of one another, serving the same artifacts: each is probed for its
+ * latency and the throughput of its downloads measured, the scores kept
+ * between runs in {@value #DEFAULT_SCORES_FILE}. A chain then asks the healthy
+ * mirror expected to deliver an artifact of {@value #TYPICAL_ARTIFACT_SIZE}
+ * bytes soonest first, the unhealthy ones last. The other resolvers of a
+ * chain, ie. a private repository, keep their positions, and chains without
+ * mirrors are untouched.<br>
+ * <br>
+ * Mirrors are probed again when their scores are older than
+ * {@value #PROBE_INTERVAL} ms or they were unhealthy. Mirrors whose artifact
+ * patterns match below their roots are alternates of one another, so that a
+ * download stalled on one may be hedged on another.
+ *
+ * @see HedgingURLHandler
+ * @see PoisonIvy#MIRRORS_PARM
+ */
+class MirrorSelector {
+	private static final Logger log = LoggerFactory.getLogger(MirrorSelector.class);
+
+	/** The Constant DEFAULT_SCORES_FILE {@value #DEFAULT_SCORES_FILE}. */
+	public static final String DEFAULT_SCORES_FILE = "~/.poisonivy/mirrors.properties";
+
+	/** The Constant DEFAULT_HEDGE_DELAY {@value #DEFAULT_HEDGE_DELAY} ms. */
+	public static final long DEFAULT_HEDGE_DELAY = 2000;
+
+	/** The Constant PROBE_INTERVAL {@value #PROBE_INTERVAL} ms. */
+	public static final long PROBE_INTERVAL = 10 * 60 * 1000;
+
+	/** The Constant TYPICAL_ARTIFACT_SIZE {@value #TYPICAL_ARTIFACT_SIZE} bytes. */
+	public static final long TYPICAL_ARTIFACT_SIZE = 256 * 1024;
+
+	private static final int PROBE_TIMEOUT = 2000;
+
+	// weight of the latest measurement in the moving averages
+	private static final double WEIGHT = 0.3;
+
+	private static final String LATENCY_SFX = ".latency";
+	private static final String THROUGHPUT_SFX = ".throughput";
+	private static final String FAILURES_SFX = ".failures";
+	private static final String PROBED_SFX = ".probed";
+
+	private File scoresFile;
+	private Set<String> names;
+	private long hedgeDelay;
+
+	private Map<String, Mirror> mirrors = new LinkedHashMap<String, Mirror>();
+	private List<Mirror> declared = new ArrayList<Mirror>();
+	private Set<String> others = new TreeSet<String>();
+
+	private StartupMetrics metrics;
+
+	/**
+	 * Instantiates a new mirror selector keeping its scores in
+	 * {@value #DEFAULT_SCORES_FILE}.
+	 *
+	 * @param names
+	 *          the names of the resolvers which are mirrors of one another
+	 * @param hedgeDelay
+	 *          the milliseconds after which a download is hedged on an
+	 *          alternate mirror
+	 */
+	public MirrorSelector(Collection<String> names, long hedgeDelay) {
+		this(new File(expandHome(DEFAULT_SCORES_FILE)), names, hedgeDelay);
+	}
+
+	/**
+	 * Instantiates a new mirror selector.
+	 *
+	 * @param scoresFile
+	 *          the file keeping the scores between runs
+	 * @param names
+	 *          the names of the resolvers which are mirrors of one another
+	 * @param hedgeDelay
+	 *          the milliseconds after which a download is hedged on an
+	 *          alternate mirror
+	 */
+	public MirrorSelector(File scoresFile, Collection<String> names, long hedgeDelay) {
+		this.scoresFile = scoresFile;
+		this.names = new TreeSet<String>(names);
+		this.hedgeDelay = hedgeDelay;
+	}
+
+	/**
+	 * Sets the metrics to record the probes and hedged downloads to.
+	 *
+	 * @param metrics
+	 *          the new metrics
+	 */
+	public void setMetrics(StartupMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Gets the milliseconds after which a download is hedged on an alternate
+	 * mirror.
+	 *
+	 * @return the hedge delay
+	 */
+	public long getHedgeDelay() {
+		return hedgeDelay;
+	}
+
+	/**
+	 * Probes the mirrors of the chain resolvers of the configured settings whose
+	 * scores are stale and orders each chain by the mirrors' scores.
+	 *
+	 * @param settings
+	 *          the configured settings
+	 * @throws InterruptedException
+	 *           the interrupted exception
+	 */
+	public void select(IvySettings settings) throws InterruptedException {
+		List<ChainResolver> resolvers = new ArrayList<ChainResolver>();
+		for (Object o : settings.getResolvers()) {
+			if (o instanceof ChainResolver) resolvers.add((ChainResolver) o);
+		}
+
+		if (resolvers.isEmpty()) return;
+
+		load();
+
+		Set<String> found = new TreeSet<String>();
+		for (ChainResolver chain : resolvers) {
+			addMirrors(chain, found);
+		}
+
+		Set<String> missing = new TreeSet<String>(names);
+		missing.removeAll(found);
+		if (!missing.isEmpty()) log.warn("Mirrors {} are not HTTP resolvers of a chain resolver", missing);
+
+		probe();
+
+		for (ChainResolver chain : resolvers) {
+			order(chain);
+		}
+	}
+
+	/**
+	 * Returns the URL of the artifact on the best healthy alternate of the
+	 * mirror of the URL, null if there is none.
+	 *
+	 * @param url
+	 *          the url
+	 * @return the alternate
+	 */
+	public synchronized URL getAlternate(URL url) {
+		Mirror mirror = getMirror(url);
+		if (mirror == null) return null;
+
+		List<Mirror> alternates = new ArrayList<Mirror>(declared);
+		Collections.sort(alternates, new MirrorComparator(getBestThroughput()));
+
+		for (Mirror alternate : alternates) {
+			if (alternate == mirror || !alternate.isHealthy() || !alternate.suffix.equals(mirror.suffix)) continue;
+
+			try {
+				return new URL(alternate.root + url.toString().substring(mirror.root.length()));
+			} catch (IOException e) {
+				log.debug("Invalid alternate {} for {}", alternate.root, url, e);
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Records a successful download from the URL.
+	 *
+	 * @param url
+	 *          the url
+	 * @param bytes
+	 *          the bytes downloaded
+	 * @param millis
+	 *          the duration of the download
+	 */
+	public synchronized void downloaded(URL url, long bytes, long millis) {
+		Mirror mirror = getMirror(url);
+		if (mirror == null) return;
+
+		mirror.failures = 0;
+		if (bytes > 0) mirror.throughput = average(mirror.throughput, (double) bytes / Math.max(1, millis));
+	}
+
+	/**
+	 * Records a failed download from the URL.
+	 *
+	 * @param url
+	 *          the url
+	 */
+	public synchronized void failed(URL url) {
+		Mirror mirror = getMirror(url);
+		if (mirror != null) mirror.failures++;
+	}
+
+	/**
+	 * Records a download hedged on an alternate mirror.
+	 *
+	 * @param won
+	 *          true if the alternate delivered the artifact first
+	 */
+	public void hedged(boolean won) {
+		if (metrics == null) return;
+
+		metrics.add(StartupMetrics.HEDGED_DOWNLOADS, 1);
+		if (won) metrics.add(StartupMetrics.HEDGES_WON, 1);
+	}
+
+	/**
+	 * Saves the scores for subsequent runs.
+	 */
+	public synchronized void save() {
+		if (mirrors.isEmpty()) return;
+
+		Properties props = new Properties();
+		for (Mirror mirror : mirrors.values()) {
+			props.setProperty(mirror.root + LATENCY_SFX, Double.toString(mirror.latency));
+			props.setProperty(mirror.root + THROUGHPUT_SFX, Double.toString(mirror.throughput));
+			props.setProperty(mirror.root + FAILURES_SFX, Integer.toString(mirror.failures));
+			props.setProperty(mirror.root + PROBED_SFX, Long.toString(mirror.probed));
+		}
+
+		try {
+			scoresFile.getAbsoluteFile().getParentFile().mkdirs();
+			File temp = File.createTempFile(scoresFile.getName(), ".tmp", scoresFile.getAbsoluteFile().getParentFile());
+
+			OutputStream out = new FileOutputStream(temp);
+			try {
+				props.store(out, "Poison Ivy mirror scores");
+			} finally {
+				out.close();
+			}
+
+			Files.move(temp.toPath(), scoresFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			log.warn("Could not save mirror scores to {}", scoresFile, e);
+		}
+	}
+
+	private synchronized void load() {
+		if (!mirrors.isEmpty() || !scoresFile.exists()) return;
+
+		Properties props = new Properties();
+		try {
+			InputStream in = new FileInputStream(scoresFile);
+			try {
+				props.load(in);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			log.warn("Could not read mirror scores from {}", scoresFile, e);
+			return;
+		}
+
+		for (String key : props.stringPropertyNames()) {
+			if (!key.endsWith(PROBED_SFX)) continue;
+
+			String root = key.substring(0, key.length() - PROBED_SFX.length());
+			try {
+				Mirror mirror = new Mirror(root, null);
+				mirror.latency = Double.parseDouble(props.getProperty(root + LATENCY_SFX, "-1"));
+				mirror.throughput = Double.parseDouble(props.getProperty(root + THROUGHPUT_SFX, "-1"));
+				mirror.failures = Integer.parseInt(props.getProperty(root + FAILURES_SFX, "0"));
+				mirror.probed = Long.parseLong(props.getProperty(key));
+
+				mirrors.put(root, mirror);
+			} catch (NumberFormatException e) {
+				log.debug("Ignoring invalid scores of {}", root, e);
+			}
+		}
+	}
+
+	private synchronized void addMirrors(ChainResolver chain, Set<String> found) {
+		for (Object o : chain.getResolvers()) {
+			String pattern = getMirrorPattern(o);
+			if (pattern == null) {
+				pattern = getHttpPattern(o);
+				if (pattern != null) others.add(getRoot(pattern));
+				continue;
+			}
+
+			found.add(((DependencyResolver) o).getName());
+
+			String root = getRoot(pattern);
+			Mirror mirror = mirrors.get(root);
+			if (mirror == null) {
+				mirror = new Mirror(root, null);
+				mirrors.put(root, mirror);
+			}
+			mirror.suffix = pattern.substring(root.length());
+
+			if (!declared.contains(mirror)) declared.add(mirror);
+		}
+	}
+
+	private void probe() throws InterruptedException {
+		final List<Mirror> stale = new ArrayList<Mirror>();
+
+		long now = System.currentTimeMillis();
+		synchronized (this) {
+			for (Mirror mirror : declared) {
+				if (!mirror.isHealthy() || mirror.probed < now - PROBE_INTERVAL) stale.add(mirror);
+			}
+		}
+
+		if (stale.isEmpty()) return;
+
+		long start = System.nanoTime();
+		ExecutorService svc = Executors.newFixedThreadPool(stale.size(), new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Mirror probe thread");
+				thread.setDaemon(true);
+
+				return thread;
+			}
+		});
+
+		try {
+			for (final Mirror mirror : stale) {
+				svc.execute(new Runnable() {
+
+					@Override
+					public void run() {
+						probe(mirror);
+					}
+				});
+			}
+		} finally {
+			svc.shutdown();
+		}
+
+		if (!svc.awaitTermination(PROBE_TIMEOUT * 2, TimeUnit.MILLISECONDS)) {
+			log.warn("Mirror probes did not complete within {} ms", PROBE_TIMEOUT * 2);
+			svc.shutdownNow();
+		}
+
+		if (metrics != null) metrics.phaseCompleted(StartupMetrics.PROBE_PHASE, start);
+	}
+
+	/**
+	 * Measures the round trip of a HEAD request to the root of the mirror. Any
+	 * response short of a server error is healthy.
+	 */
+	private void probe(Mirror mirror) {
+		long start = System.nanoTime();
+
+		int code;
+		try {
+			HttpURLConnection connection = (HttpURLConnection) new URL(mirror.root).openConnection();
+			connection.setRequestMethod("HEAD");
+			connection.setConnectTimeout(PROBE_TIMEOUT);
+			connection.setReadTimeout(PROBE_TIMEOUT);
+			connection.setInstanceFollowRedirects(false);
+
+			try {
+				code = connection.getResponseCode();
+			} finally {
+				connection.disconnect();
+			}
+		} catch (IOException e) {
+			log.debug("Probe of {} failed", mirror.root, e);
+			code = -1;
+		}
+
+		double latency = (System.nanoTime() - start) / 1000000.0;
+
+		synchronized (this) {
+			mirror.probed = System.currentTimeMillis();
+			if (code == -1 || code >= 500) {
+				mirror.failures++;
+			} else {
+				mirror.failures = 0;
+				mirror.latency = average(mirror.latency, latency);
+			}
+		}
+
+		log.debug("Probed {}: HTTP {} in {} ms", mirror.root, code, (long) latency);
+	}
+
+	private void order(ChainResolver chain) {
+		@SuppressWarnings("unchecked")
+		List<Object> resolvers = chain.getResolvers();
+
+		List<Integer> positions = new ArrayList<Integer>();
+		final Map<Object, Mirror> scored = new LinkedHashMap<Object, Mirror>();
+		synchronized (this) {
+			for (int i = 0; i < resolvers.size(); i++) {
+				String pattern = getMirrorPattern(resolvers.get(i));
+				if (pattern == null) continue;
+
+				positions.add(i);
+				scored.put(resolvers.get(i), mirrors.get(getRoot(pattern)));
+			}
+		}
+
+		if (scored.size() < 2) return;
+
+		List<Object> ordered = new ArrayList<Object>(scored.keySet());
+		final MirrorComparator comparator;
+		synchronized (this) {
+			comparator = new MirrorComparator(getBestThroughput());
+		}
+		Collections.sort(ordered, new Comparator<Object>() {
+
+			@Override
+			public int compare(Object o1, Object o2) {
+				return comparator.compare(scored.get(o1), scored.get(o2));
+			}
+		});
+
+		try {
+			for (int i = 0; i < positions.size(); i++) {
+				resolvers.set(positions.get(i), ordered.get(i));
+			}
+		} catch (UnsupportedOperationException e) {
+			log.warn("The resolvers of chain {} cannot be reordered", chain.getName());
+			return;
+		}
+
+		for (Object o : ordered) {
+			Mirror mirror = scored.get(o);
+			log.debug("Chain {}: {} ({})", chain.getName(), mirror.root, mirror);
+		}
+	}
+
+	private double getBestThroughput() {
+		double best = -1;
+		for (Mirror mirror : declared) {
+			best = Math.max(best, mirror.throughput);
+		}
+
+		return best;
+	}
+
+	private Mirror getMirror(URL url) {
+		String s = url.toString();
+
+		Mirror longest = null;
+		for (Mirror mirror : declared) {
+			if (!s.startsWith(mirror.root)) continue;
+			if (longest == null || mirror.root.length() > longest.root.length()) longest = mirror;
+		}
+
+		if (longest == null) return null;
+
+		// not a mirror should another repository be nested within its root
+		for (String root : others) {
+			if (s.startsWith(root) && root.length() > longest.root.length()) return null;
+		}
+
+		return longest;
+	}
+
+	/**
+	 * Returns the first artifact pattern of the resolver should it be a declared
+	 * HTTP mirror, else null.
+	 */
+	private String getMirrorPattern(Object resolver) {
+		if (!(resolver instanceof DependencyResolver) || !names.contains(((DependencyResolver) resolver).getName())) {
+			return null;
+		}
+
+		return getHttpPattern(resolver);
+	}
+
+	private static String getHttpPattern(Object resolver) {
+		if (!(resolver instanceof AbstractPatternsBasedResolver)) return null;
+
+		List<?> patterns = ((AbstractPatternsBasedResolver) resolver).getArtifactPatterns();
+		if (patterns.isEmpty()) return null;
+
+		String pattern = patterns.get(0).toString();
+
+		return pattern.startsWith("http://") || pattern.startsWith("https://") ? pattern : null;
+	}
+
+	/**
+	 * Returns the pattern up to the last slash before its first token, ie.
+	 * http://host/maven2/ for http://host/maven2/[organisation]/...
+	 */
+	private static String getRoot(String pattern) {
+		int token = pattern.indexOf('[');
+		String prefix = token < 0 ? pattern : pattern.substring(0, token);
+
+		return prefix.substring(0, prefix.lastIndexOf('/') + 1);
+	}
+
+	private static double average(double current, double measured) {
+		return current < 0 ? measured : current * (1 - WEIGHT) + measured * WEIGHT;
+	}
+
+	private static String expandHome(String file) {
+		return file.startsWith("~") ? System.getProperty("user.home") + file.substring(1) : file;
+	}
+
+	private static class Mirror {
+		private String root;
+		private String suffix;
+
+		private double latency = -1;
+		private double throughput = -1;
+		private int failures;
+		private long probed;
+
+		Mirror(String root, String suffix) {
+			this.root = root;
+			this.suffix = suffix;
+		}
+
+		boolean isHealthy() {
+			return failures == 0;
+		}
+
+		/**
+		 * The expected milliseconds to deliver an artifact of typical size, the
+		 * throughput assumed should it not have been measured.
+		 */
+		double getExpectedMillis(double assumedThroughput) {
+			double millis = Math.max(0, latency);
+
+			double bytesPerMilli = throughput > 0 ? throughput : assumedThroughput;
+			if (bytesPerMilli > 0) millis += TYPICAL_ARTIFACT_SIZE / bytesPerMilli;
+
+			return millis;
+		}
+
+		@Override
+		public String toString() {
+			return "latency " + (long) latency + " ms, throughput " + (long) (throughput * 1000) + " bytes/s, failures "
+					+ failures;
+		}
+	}
+
+	/**
+	 * Orders healthy mirrors before unhealthy, then by their expected millis.
+	 * Mirrors without measured throughput are assumed to match the best, so
+	 * that they are tried rather than favoured.
+	 */
+	private static class MirrorComparator implements Comparator<Mirror> {
+		private double assumedThroughput;
+
+		MirrorComparator(double assumedThroughput) {
+			this.assumedThroughput = assumedThroughput;
+		}
+
+		@Override
+		public int compare(Mirror o1, Mirror o2) {
+			if (o1.isHealthy() != o2.isHealthy()) return o1.isHealthy() ? -1 : 1;
+
+			return Double.compare(o1.getExpectedMillis(assumedThroughput), o2.getExpectedMillis(assumedThroughput));
+		}
+	}
+}
@@ -0,0 +1,223 @@
+/*
+ * Poison Ivy - Java Library Dependency Resolver and Application Launcher 
+ *
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.poisonivy;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ivy.Ivy;
+import org.apache.ivy.core.module.descriptor.Artifact;
+import org.apache.ivy.core.report.ArtifactDownloadReport;
+import org.apache.ivy.core.report.DownloadStatus;
+import org.apache.ivy.core.resolve.DownloadOptions;
+import org.apache.ivy.plugins.resolver.DependencyResolver;
+import org.apache.ivy.util.MessageLogger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Downloads artifacts into the Ivy cache using a bounded pool of threads. The
+ * artifacts are downloaded from the repository (Ivy resolver) which resolved
+ * their module, the number of simultaneous downloads from any one repository
+ * limited, and failed downloads are retried. Once the artifacts are cached
+ * Ivy's retrieval copies them from the cache without downloading.
+ *
+ * @see IvyLibraryRetriever#setDownloadThreads(int)
+ */
+class ParallelArtifactDownloader {
+	private static final Logger log = LoggerFactory.getLogger(ParallelArtifactDownloader.class);
+
+	private static final long RETRY_BACKOFF_MILLIS = 500;
+
+	private int threads;
+	private int repositoryConcurrency;
+	private int retries;
+
+	private Map<String, Semaphore> repositoryPermits = new HashMap<String, Semaphore>();
+
+	private StartupMetrics metrics;
+
+	/**
+	 * Instantiates a new parallel artifact downloader.
+	 *
+	 * @param threads
+	 *          the maximum number of simultaneous downloads
+	 * @param repositoryConcurrency
+	 *          the maximum number of simultaneous downloads from a repository
+	 * @param retries
+	 *          the number of times a failed download is retried
+	 */
+	public ParallelArtifactDownloader(int threads, int repositoryConcurrency, int retries) {
+		this.threads = Math.max(1, threads);
+		this.repositoryConcurrency = Math.max(1, repositoryConcurrency);
+		this.retries = Math.max(0, retries);
+	}
+
+	/**
+	 * Sets the metrics to record the artifacts downloaded to.
+	 *
+	 * @param metrics
+	 *          the new metrics
+	 */
+	public void setMetrics(StartupMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Downloads the artifacts into the cache of the configured Ivy instance.
+	 *
+	 * @param ivy
+	 *          the configured Ivy instance
+	 * @param artifacts
+	 *          the artifacts, mapped to the repositories which resolved them,
+	 *          null for the configured resolver
+	 * @param logger
+	 *          the logger to use for Ivy's messages on the download threads
+	 * @return true, if all artifacts were downloaded or already cached
+	 * @throws InterruptedException
+	 *           the interrupted exception
+	 */
+	public boolean download(Ivy ivy, Map<Artifact, DependencyResolver> artifacts, MessageLogger logger)
+			throws InterruptedException {
+		log.debug("Downloading {} artifacts using {} threads", artifacts.size(), threads);
+
+		ExecutorService svc = Executors.newFixedThreadPool(threads, new DownloadThreadFactory());
+		AtomicInteger failures = new AtomicInteger();
+
+		try {
+			for (Entry<Artifact, DependencyResolver> e : artifacts.entrySet()) {
+				DependencyResolver resolver = e.getValue();
+				if (resolver == null) resolver = ivy.getSettings().getResolver(e.getKey().getModuleRevisionId());
+
+				svc.execute(new DownloadTask(ivy, e.getKey(), resolver, logger, failures));
+			}
+		} finally {
+			svc.shutdown();
+		}
+
+		while (!svc.awaitTermination(1, TimeUnit.MINUTES)) {
+			log.debug("Awaiting completion of artifact downloads");
+		}
+
+		if (failures.get() > 0) log.warn("{} artifacts could not be downloaded", failures.get());
+
+		return failures.get() == 0;
+	}
+
+	private synchronized Semaphore getPermits(String repository) {
+		Semaphore permits = repositoryPermits.get(repository);
+		if (permits == null) {
+			permits = new Semaphore(repositoryConcurrency, true);
+			repositoryPermits.put(repository, permits);
+		}
+
+		return permits;
+	}
+
+	private void recordMetrics(ArtifactDownloadReport report) {
+		if (metrics == null || report.getDownloadStatus() != DownloadStatus.SUCCESSFUL) return;
+
+		metrics.add(StartupMetrics.ARTIFACTS_DOWNLOADED, 1);
+		metrics.add(StartupMetrics.BYTES_DOWNLOADED, report.getSize());
+	}
+
+	private class DownloadTask implements Runnable {
+		private Ivy ivy;
+		private Artifact artifact;
+		private DependencyResolver resolver;
+		private Semaphore permits;
+		private MessageLogger logger;
+		private AtomicInteger failures;
+
+		public DownloadTask(Ivy ivy, Artifact artifact, DependencyResolver resolver, MessageLogger logger,
+				AtomicInteger failures) {
+			this.ivy = ivy;
+			this.artifact = artifact;
+			this.resolver = resolver;
+			this.permits = getPermits(resolver.getName());
+			this.logger = logger;
+			this.failures = failures;
+		}
+
+		@Override
+		public void run() {
+			ivy.pushContext();
+			ivy.getLoggerEngine().pushLogger(logger);
+			try {
+				if (!downloadWithRetry()) failures.incrementAndGet();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				failures.incrementAndGet();
+			} catch (RuntimeException e) {
+				log.error("Unexpected exception downloading {}", artifact, e);
+				failures.incrementAndGet();
+			} finally {
+				ivy.getLoggerEngine().popLogger();
+				ivy.popContext();
+			}
+		}
+
+		private boolean downloadWithRetry() throws InterruptedException {
+			for (int attempt = 0; attempt <= retries; attempt++) {
+				if (attempt > 0) {
+					log.debug("Retrying download of {}, attempt {}", artifact, attempt + 1);
+					Thread.sleep(RETRY_BACKOFF_MILLIS * attempt);
+				}
+
+				ArtifactDownloadReport report;
+				permits.acquire();
+				try {
+					report = resolver.download(new Artifact[] { artifact }, new DownloadOptions()).getArtifactReport(artifact);
+				} finally {
+					permits.release();
+				}
+
+				if (report.getDownloadStatus() != DownloadStatus.FAILED) {
+					recordMetrics(report);
+					return true;
+				}
+			}
+
+			log.error("Could not download {}", artifact);
+
+			return false;
+		}
+	}
+
+	private static class DownloadThreadFactory implements ThreadFactory {
+		private AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "Artifact download thread " + count.incrementAndGet());
+			thread.setDaemon(true);
+
+			return thread;
+		}
+	}
+}
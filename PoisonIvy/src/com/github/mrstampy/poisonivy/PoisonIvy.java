@@ -30,6 +30,7 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.Properties;
@@ -85,6 +86,114 @@ public class PoisonIvy {
 	/** The Constant NO_CLEAN_PARM -{@value #NO_CLEAN_PARM}. */
 	public static final String NO_CLEAN_PARM = "nc";
 
+	/** The Constant INCLUDE_ARTIFACTS_PARM -{@value #INCLUDE_ARTIFACTS_PARM}. */
+	public static final String INCLUDE_ARTIFACTS_PARM = "ai";
+
+	/** The Constant EXCLUDE_ARTIFACTS_PARM -{@value #EXCLUDE_ARTIFACTS_PARM}. */
+	public static final String EXCLUDE_ARTIFACTS_PARM = "ae";
+
+	/** The Constant EMBEDDED_PARM -{@value #EMBEDDED_PARM}. */
+	public static final String EMBEDDED_PARM = "em";
+
+	/** The Constant INCREMENTAL_PARM -{@value #INCREMENTAL_PARM}. */
+	public static final String INCREMENTAL_PARM = "inc";
+
+	/** The Constant DOWNLOAD_THREADS_PARM -{@value #DOWNLOAD_THREADS_PARM}. */
+	public static final String DOWNLOAD_THREADS_PARM = "dt";
+
+	/** The Constant IN_JVM_PARM -{@value #IN_JVM_PARM}. */
+	public static final String IN_JVM_PARM = "ij";
+
+	/** The Constant CDS_PARM -{@value #CDS_PARM}. */
+	public static final String CDS_PARM = "cds";
+
+	/** The Constant STORE_PARM -{@value #STORE_PARM}. */
+	public static final String STORE_PARM = "store";
+
+	/** The Constant STORE_SYMLINKS_PARM -{@value #STORE_SYMLINKS_PARM}. */
+	public static final String STORE_SYMLINKS_PARM = "storesl";
+
+	/** The Constant STORE_GC_PARM -{@value #STORE_GC_PARM}. */
+	public static final String STORE_GC_PARM = "storegc";
+
+	/** The Constant METRICS_PARM -{@value #METRICS_PARM}. */
+	public static final String METRICS_PARM = "metrics";
+
+	/** The Constant LAUNCH_PLAN_PARM -{@value #LAUNCH_PLAN_PARM}. */
+	public static final String LAUNCH_PLAN_PARM = "lp";
+
+	/** The Constant LOCK_PARM -{@value #LOCK_PARM}. */
+	public static final String LOCK_PARM = "lock";
+
+	/** The Constant VERIFY_PARM -{@value #VERIFY_PARM}. */
+	public static final String VERIFY_PARM = "verify";
+
+	/** The Constant BACKGROUND_PARM -{@value #BACKGROUND_PARM}. */
+	public static final String BACKGROUND_PARM = "bg";
+
+	/** The Constant SUPERVISE_PARM -{@value #SUPERVISE_PARM}. */
+	public static final String SUPERVISE_PARM = "sv";
+
+	/** The Constant SUPERVISE_READY_PARM -{@value #SUPERVISE_READY_PARM}. */
+	public static final String SUPERVISE_READY_PARM = "svready";
+
+	/** The Constant SUPERVISE_BACKOFF_PARM -{@value #SUPERVISE_BACKOFF_PARM}. */
+	public static final String SUPERVISE_BACKOFF_PARM = "svbackoff";
+
+	/** The Constant SUPERVISE_EXIT_PARM -{@value #SUPERVISE_EXIT_PARM}. */
+	public static final String SUPERVISE_EXIT_PARM = "svexit";
+
+	/** The Constant AUTO_SIZE_PARM -{@value #AUTO_SIZE_PARM}. */
+	public static final String AUTO_SIZE_PARM = "auto";
+
+	/** The Constant INSTANCES_PARM -{@value #INSTANCES_PARM}. */
+	public static final String INSTANCES_PARM = "instances";
+
+	/** The Constant PIN_PARM -{@value #PIN_PARM}. */
+	public static final String PIN_PARM = "pin";
+
+	/** The Constant SAMPLE_PARM -{@value #SAMPLE_PARM}. */
+	public static final String SAMPLE_PARM = "sample";
+
+	/** The Constant EXPORT_PARM -{@value #EXPORT_PARM}. */
+	public static final String EXPORT_PARM = "export";
+
+	/** The Constant IMPORT_PARM -{@value #IMPORT_PARM}. */
+	public static final String IMPORT_PARM = "import";
+
+	/** The Constant MIRROR_PARM -{@value #MIRROR_PARM}. */
+	public static final String MIRROR_PARM = "mirror";
+
+	/** The Constant METADATA_CACHE_PARM -{@value #METADATA_CACHE_PARM}. */
+	public static final String METADATA_CACHE_PARM = "mdcache";
+
+	/** The Constant CACHE_MAX_PARM -{@value #CACHE_MAX_PARM}. */
+	public static final String CACHE_MAX_PARM = "cachemax";
+
+	/** The Constant CACHE_COMPACT_PARM -{@value #CACHE_COMPACT_PARM}. */
+	public static final String CACHE_COMPACT_PARM = "cachecompact";
+
+	/** The Constant MIRRORS_PARM -{@value #MIRRORS_PARM}. */
+	public static final String MIRRORS_PARM = "mirrors";
+
+	/** The Constant HEDGE_PARM -{@value #HEDGE_PARM}. */
+	public static final String HEDGE_PARM = "hedge";
+
+	/** The Constant CONDITIONAL_GET_PARM -{@value #CONDITIONAL_GET_PARM}. */
+	public static final String CONDITIONAL_GET_PARM = "condget";
+
+	/**
+	 * The system property {@value #INSTANCE_PROPERTY} set to the index of each
+	 * instance, from 0.
+	 */
+	public static final String INSTANCE_PROPERTY = "poisonivy.instance";
+
+	/**
+	 * The system property {@value #INSTANCES_PROPERTY} set to the number of
+	 * instances.
+	 */
+	public static final String INSTANCES_PROPERTY = "poisonivy.instances";
+
 	/** The Constant POISONIVY_CONFIG {@value #POISONIVY_CONFIG}. */
 	public static final String POISONIVY_CONFIG = "poisonivy.config";
 
@@ -92,6 +201,10 @@ public class PoisonIvy {
 
 	private List<ProcessListener> resolveListeners = new ArrayList<ProcessListener>();
 	private List<ProcessListener> exeListeners = new ArrayList<ProcessListener>();
+	private List<InstanceListener> instanceListeners = new ArrayList<InstanceListener>();
+
+	private StartupMetrics metrics = new StartupMetrics();
+	private boolean metricsListened;
 
 	/**
 	 * Adds a {@link ProcessListener} to the Ivy resolve process
@@ -132,6 +245,55 @@ public class PoisonIvy {
 		if (l != null) exeListeners.remove(l);
 	}
 
+	/**
+	 * Adds an {@link InstanceListener} to the instances of the executable
+	 * process (should the {@link #INSTANCES_PARM} parameter be specified)
+	 * 
+	 * @param l
+	 */
+	public void addInstanceListener(InstanceListener l) {
+		if (l != null && !instanceListeners.contains(l)) instanceListeners.add(l);
+	}
+
+	/**
+	 * Removes an {@link InstanceListener} from the instances of the executable
+	 * process (should the {@link #INSTANCES_PARM} parameter be specified)
+	 * 
+	 * @param l
+	 */
+	public void removeInstanceListener(InstanceListener l) {
+		if (l != null) instanceListeners.remove(l);
+	}
+
+	/**
+	 * Adds a {@link StartupMetricsListener} notified of the duration of each
+	 * phase of library retrieval and launch.
+	 * 
+	 * @param l
+	 */
+	public void addMetricsListener(StartupMetricsListener l) {
+		metrics.addListener(l);
+		metricsListened = true;
+	}
+
+	/**
+	 * Removes a {@link StartupMetricsListener}.
+	 * 
+	 * @param l
+	 */
+	public void removeMetricsListener(StartupMetricsListener l) {
+		metrics.removeListener(l);
+	}
+
+	/**
+	 * Gets the metrics recorded by {@link #execute()}.
+	 * 
+	 * @return the metrics
+	 */
+	public StartupMetrics getMetrics() {
+		return metrics;
+	}
+
 	/**
 	 * The main method.
 	 * 
@@ -177,25 +339,53 @@ public class PoisonIvy {
 	}
 
 	protected boolean executeImpl() throws Exception {
+		long start = System.nanoTime();
 		String[] poisonArgs = getArgs();
 		logArgs(poisonArgs);
 
 		Parser parser = new BasicParser();
 		CommandLine cli = parser.parse(getOptions(), poisonArgs);
+		metrics.phaseCompleted(StartupMetrics.CONFIG_PHASE, start);
 
 		if (cli.hasOption(HELP_PARM)) {
 			printHelpMessage();
 			return true;
 		}
 
-		if (executeLibraryRetrieval(cli)) {
-			if (cli.hasOption(MAIN_JAR_PARM) || cli.hasOption(MAIN_CLASS_PARM)) executeMain(cli);
-			return true;
+		if (cli.hasOption(METRICS_PARM)) metrics.registerMBean();
+
+		try {
+			if (executeLibraryRetrieval(cli)) {
+				if (cli.hasOption(MAIN_JAR_PARM) || cli.hasOption(MAIN_CLASS_PARM)) {
+					start = System.nanoTime();
+					if (cli.hasOption(IN_JVM_PARM)) {
+						executeMainInJvm(cli);
+					} else if (cli.hasOption(SUPERVISE_PARM)) {
+						executeSupervised(cli);
+					} else {
+						executeMain(cli);
+					}
+					metrics.phaseCompleted(StartupMetrics.LAUNCH_PHASE, start);
+				}
+				return true;
+			}
+
+			log.error("Could not retrieve libraries via ivy");
+
+			return false;
+		} finally {
+			writeMetrics(cli);
 		}
+	}
 
-		log.error("Could not retrieve libraries via ivy");
+	private void writeMetrics(CommandLine cli) {
+		String file = cli.getOptionValue(METRICS_PARM);
 
-		return false;
+		if (file != null) metrics.writeJson(new File(file));
+	}
+
+	private boolean isMetricsRequested(CommandLine cli) {
+		return metricsListened || cli.hasOption(METRICS_PARM);
 	}
 
 	private String stackTraceToString(Exception e) {
@@ -316,9 +506,208 @@ public class PoisonIvy {
 	 * @see #MAIN_CLASS_PARM
 	 * @see #MAIN_JAR_PARM
 	 * @see #JAVA_OPTS_PARM
+	 * @see #METRICS_PARM
+	 * @see #INSTANCES_PARM
+	 * @see #SAMPLE_PARM
 	 */
 	protected void executeMain(CommandLine cli) throws IOException {
-		new ProcessContainer(Runtime.getRuntime().exec(getCommand(cli)), exeListeners);
+		int instances = getInstances(cli);
+		if (instances > 1) {
+			executeInstances(cli, instances);
+			return;
+		}
+
+		ProcessContainer pc = new ProcessContainer(Runtime.getRuntime().exec(getCommand(cli)), exeListeners);
+
+		ProcessSampler sampler = createSampler(cli);
+		if (sampler != null) sampler.add(pc);
+
+		if (isMetricsRequested(cli)) awaitExitCode(pc, cli);
+	}
+
+	/**
+	 * Execute the number of instances specified of the main jar Java application
+	 * or main class, each in a separate process from the same libraries. Each
+	 * instance is passed its index as the system property
+	 * {@value #INSTANCE_PROPERTY} and, should {@link #PIN_PARM} be specified, is
+	 * pinned to its own share of the processors.
+	 * 
+	 * @param cli
+	 *          the cli
+	 * @param instances
+	 *          the instances
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 * 
+	 * @see #INSTANCES_PARM
+	 * @see #PIN_PARM
+	 * @see CpuAffinity
+	 */
+	protected void executeInstances(CommandLine cli, int instances) throws IOException {
+		CpuAffinity affinity = cli.hasOption(PIN_PARM) ? new CpuAffinity(cli.getOptionValue(PIN_PARM)) : null;
+		ProcessSampler sampler = createSampler(cli);
+
+		for (int i = 0; i < instances; i++) {
+			List<String> command = new ArrayList<String>();
+			if (affinity != null) command.addAll(affinity.getPrefix(i, instances));
+			command.addAll(Arrays.asList(getCommand(cli, IvyLibraryRetriever.getClasspath(), i, instances)));
+
+			log.debug("Launching instance {}: {}", i, command);
+
+			ProcessContainer pc = new ProcessContainer(Runtime.getRuntime().exec(
+					command.toArray(new String[command.size()])), getInstanceListeners(i));
+
+			if (sampler != null) sampler.add(pc);
+
+			if (isMetricsRequested(cli)) awaitExitCode(pc, cli);
+		}
+	}
+
+	private List<ProcessListener> getInstanceListeners(final int instance) {
+		List<ProcessListener> listeners = new ArrayList<ProcessListener>(exeListeners);
+
+		for (final InstanceListener l : instanceListeners) {
+			listeners.add(new ProcessListener() {
+
+				@Override
+				public void output(String out) {
+					l.output(instance, out);
+				}
+
+				@Override
+				public void error(String err) {
+					l.error(instance, err);
+				}
+			});
+		}
+
+		return listeners;
+	}
+
+	private ProcessSampler createSampler(CommandLine cli) {
+		if (!cli.hasOption(SAMPLE_PARM)) return null;
+
+		String interval = cli.getOptionValue(SAMPLE_PARM);
+
+		return interval == null ? new ProcessSampler() : new ProcessSampler(Long.parseLong(interval));
+	}
+
+	private int getInstances(CommandLine cli) {
+		if (!cli.hasOption(INSTANCES_PARM)) return 1;
+
+		return Math.max(1, Integer.parseInt(cli.getOptionValue(INSTANCES_PARM)));
+	}
+
+	/**
+	 * Execute the main jar Java application or main class in a separate process
+	 * supervised by a {@link Supervisor}, which restarts it should it exit and
+	 * updates its libraries should the ivy or ivy settings files change.
+	 * 
+	 * @param cli
+	 *          the cli
+	 * 
+	 * @see #SUPERVISE_PARM
+	 * @see #SUPERVISE_READY_PARM
+	 * @see #SUPERVISE_BACKOFF_PARM
+	 * @see #SUPERVISE_EXIT_PARM
+	 * @see #SAMPLE_PARM
+	 */
+	protected void executeSupervised(final CommandLine cli) {
+		Supervisor.CommandFactory factory = new Supervisor.CommandFactory() {
+
+			@Override
+			public String[] getCommand(String classpath) {
+				return PoisonIvy.this.getCommand(cli, classpath);
+			}
+		};
+
+		Supervisor supervisor = new Supervisor(createRetriever(cli), cli.getOptionValue(IVY_PARM),
+				cli.getOptionValue(IVY_SETTINGS_PARM), factory, exeListeners);
+
+		String policy = cli.getOptionValue(SUPERVISE_PARM);
+		if (policy != null) supervisor.setRestartPolicy(policy);
+
+		supervisor.setReadyPattern(cli.getOptionValue(SUPERVISE_READY_PARM));
+
+		if (cli.hasOption(SUPERVISE_BACKOFF_PARM)) {
+			supervisor.setMaxBackoff(Integer.parseInt(cli.getOptionValue(SUPERVISE_BACKOFF_PARM)));
+		}
+
+		List<Integer> codes = new ArrayList<Integer>();
+		for (String code : ArtifactPatterns.split(cli.getOptionValue(SUPERVISE_EXIT_PARM))) {
+			codes.add(Integer.parseInt(code));
+		}
+		supervisor.setStopExitCodes(codes.toArray(new Integer[codes.size()]));
+
+		supervisor.setSampler(createSampler(cli));
+
+		supervisor.start();
+	}
+
+	private void awaitExitCode(final ProcessContainer pc, final CommandLine cli) {
+		Thread thread = new Thread("Exit code thread") {
+			public void run() {
+				try {
+					metrics.set(StartupMetrics.EXE_EXIT_CODE, pc.waitFor());
+					addListenerMetrics(pc);
+					writeMetrics(cli);
+				} catch (InterruptedException e) {
+					log.debug("Interrupted awaiting exit code", e);
+				}
+			}
+		};
+
+		thread.start();
+	}
+
+	private void addListenerMetrics(ProcessContainer pc) {
+		List<ListenerQueue> queues = pc.getListenerQueues();
+		for (int i = 0; i < queues.size(); i++) {
+			metrics.max(StartupMetrics.LISTENER_MAX_LAG + "." + i, queues.get(i).getMaxLag());
+			metrics.add(StartupMetrics.LISTENER_DROPPED + "." + i, queues.get(i).getDropped());
+		}
+	}
+
+	/**
+	 * Execute the main jar Java application or main class in the running JVM,
+	 * using a class loader over the retrieved libraries. The -D options are set
+	 * as system properties of the running JVM. The -X options cannot be applied
+	 * and are ignored. The {@link ProcessListener}s added via
+	 * {@link #addExeListener(ProcessListener)} are not notified as there is no
+	 * separate process.
+	 * 
+	 * @param cli
+	 *          the cli
+	 * @throws Exception
+	 *           the exception
+	 * 
+	 * @see #IN_JVM_PARM
+	 * @see InJvmLauncher
+	 */
+	protected void executeMainInJvm(CommandLine cli) throws Exception {
+		String[] xs = cli.getOptionValues("X");
+		if (xs != null && xs.length > 0) log.warn("-X options cannot be applied to the running JVM and are ignored");
+
+		InJvmLauncher launcher = new InJvmLauncher(getLibdir(cli));
+		launcher.setSystemProperties(cli.getOptionProperties("D"));
+
+		if (cli.hasOption(MAIN_JAR_PARM)) {
+			launcher.launchJar(cli.getOptionValue(MAIN_JAR_PARM));
+		} else {
+			launcher.launchClass(cli.getOptionValue(MAIN_CLASS_PARM));
+		}
+	}
+
+	/**
+	 * Gets the library directory specified, default
+	 * {@value IvyLibraryRetriever#LIBRARIES_DIR}.
+	 * 
+	 * @param cli
+	 *          the cli
+	 * @return the libdir
+	 */
+	protected String getLibdir(CommandLine cli) {
+		return cli.hasOption(LIB_DIR_PARM) ? cli.getOptionValue(LIB_DIR_PARM) : IvyLibraryRetriever.LIBRARIES_DIR;
 	}
 
 	/**
@@ -331,16 +720,69 @@ public class PoisonIvy {
 	 * @see #MAIN_CLASS_PARM
 	 * @see #MAIN_JAR_PARM
 	 * @see #JAVA_OPTS_PARM
+	 * @see #CDS_PARM
+	 * @see #LAUNCH_PLAN_PARM
+	 * @see #AUTO_SIZE_PARM
 	 */
 	protected String[] getCommand(CommandLine cli) {
+		return getCommand(cli, IvyLibraryRetriever.getClasspath());
+	}
+
+	/**
+	 * Gets the command used to execute the main jar, if requested, with the
+	 * classpath specified.
+	 * 
+	 * @param cli
+	 *          the cli
+	 * @param classpath
+	 *          the classpath
+	 * @return the command
+	 */
+	protected String[] getCommand(CommandLine cli, String classpath) {
+		return getCommand(cli, classpath, 0, 1);
+	}
+
+	/**
+	 * Gets the command used to execute an instance of the main jar, if
+	 * requested, with the classpath specified.
+	 * 
+	 * @param cli
+	 *          the cli
+	 * @param classpath
+	 *          the classpath
+	 * @param instance
+	 *          the instance, from 0
+	 * @param instances
+	 *          the number of instances
+	 * @return the command
+	 */
+	protected String[] getCommand(CommandLine cli, String classpath, int instance, int instances) {
 		List<String> command = new ArrayList<String>();
+		List<String> jvmOptions = new ArrayList<String>();
+
+		if (cli.hasOption(CDS_PARM)) addCdsOptions(cli, classpath, instance, jvmOptions);
+
+		addDOptions(cli, jvmOptions);
+		addXOptions(cli, jvmOptions);
+
+		if (instances > 1) {
+			jvmOptions.add("-D" + INSTANCE_PROPERTY + "=" + instance);
+			jvmOptions.add("-D" + INSTANCES_PROPERTY + "=" + instances);
+		}
+
+		if (cli.hasOption(AUTO_SIZE_PARM)) addSizingOptions(cli, instances, jvmOptions);
 
 		command.add("java");
-		command.add("-cp");
-		command.add(IvyLibraryRetriever.getClasspath());
 
-		addDOptions(cli, command);
-		addXOptions(cli, command);
+		if (cli.hasOption(LAUNCH_PLAN_PARM)) {
+			String name = instances > 1 ? "launch-" + instance : "launch";
+			LaunchPlan plan = new LaunchPlan(getLibdir(cli), name, cli.getOptionValue(LAUNCH_PLAN_PARM));
+			command.addAll(plan.getArguments(classpath, jvmOptions));
+		} else {
+			command.add("-cp");
+			command.add(classpath);
+			command.addAll(jvmOptions);
+		}
 
 		if (cli.hasOption(MAIN_JAR_PARM)) {
 			command.add("-jar");
@@ -352,6 +794,24 @@ public class PoisonIvy {
 		return command.toArray(new String[] {});
 	}
 
+	private void addCdsOptions(CommandLine cli, String classpath, int instance, List<String> command) {
+		AppCdsArchive cds = new AppCdsArchive(getLibdir(cli));
+
+		if (instance == 0) {
+			command.addAll(cds.getJvmOptions(classpath, cli.getOptionValue(MAIN_JAR_PARM)));
+		} else if (cds.getArchive().exists()) {
+			// the first instance has validated the archive, or is creating it
+			command.add("-XX:SharedArchiveFile=" + cds.getArchive().getAbsolutePath());
+		}
+	}
+
+	private void addSizingOptions(CommandLine cli, int instances, List<String> command) {
+		ContainerSizing sizing = new ContainerSizing(cli.getOptionValue(AUTO_SIZE_PARM));
+		sizing.share(instances);
+
+		command.addAll(sizing.getJvmOptions(command));
+	}
+
 	private void addXOptions(CommandLine cli, List<String> command) {
 		String[] xs = cli.getOptionValues("X");
 		if (xs == null || xs.length == 0) return;
@@ -382,24 +842,126 @@ public class PoisonIvy {
 	 * @see #IVY_PARM
 	 * @see #IVY_SETTINGS_PARM
 	 * @see #NO_CLEAN_PARM
+	 * @see #INCLUDE_ARTIFACTS_PARM
+	 * @see #EXCLUDE_ARTIFACTS_PARM
 	 * @see #RESOLVE_PATTERN_PARM
 	 * @see #LIB_DIR_PARM
 	 * @see #FORCE_PARM
+	 * @see #EMBEDDED_PARM
+	 * @see #INCREMENTAL_PARM
+	 * @see #DOWNLOAD_THREADS_PARM
+	 * @see #STORE_PARM
+	 * @see #STORE_SYMLINKS_PARM
+	 * @see #STORE_GC_PARM
+	 * @see #LAUNCH_PLAN_PARM
+	 * @see #LOCK_PARM
+	 * @see #VERIFY_PARM
+	 * @see #BACKGROUND_PARM
+	 * @see #IMPORT_PARM
+	 * @see #EXPORT_PARM
+	 * @see #MIRROR_PARM
+	 * @see #METADATA_CACHE_PARM
+	 * @see #CACHE_MAX_PARM
+	 * @see #CACHE_COMPACT_PARM
+	 * @see #MIRRORS_PARM
+	 * @see #HEDGE_PARM
+	 * @see #CONDITIONAL_GET_PARM
 	 */
 	protected boolean executeLibraryRetrieval(CommandLine cli) throws Exception {
-		IvyLibraryRetriever retriever = new IvyLibraryRetriever();
-
-		if (!resolveListeners.isEmpty()) retriever.addProcessListeners(resolveListeners);
+		IvyLibraryRetriever retriever = createRetriever(cli);
 
 		String ivy = cli.getOptionValue(IVY_PARM);
 		String ivysettings = cli.getOptionValue(IVY_SETTINGS_PARM);
 		boolean force = cli.hasOption(FORCE_PARM);
 
+		if (cli.hasOption(IMPORT_PARM) && !retriever.importBundle(cli.getOptionValue(IMPORT_PARM))) {
+			log.warn("Retrieving libraries from the repositories");
+		}
+
+		boolean success = retriever.retrieveLibraries(force, ivy, ivysettings);
+
+		if (success && cli.hasOption(STORE_GC_PARM)) retriever.collectStoreGarbage();
+
+		if (success && cli.hasOption(CACHE_COMPACT_PARM)) retriever.compactCache(ivysettings);
+
+		if (success && cli.hasOption(EXPORT_PARM)) success = retriever.exportBundle(cli.getOptionValue(EXPORT_PARM));
+
+		if (success && cli.hasOption(MIRROR_PARM)) startMirror(cli);
+
+		return success;
+	}
+
+	private void startMirror(CommandLine cli) throws IOException {
+		String port = cli.getOptionValue(MIRROR_PARM);
+		String export = cli.getOptionValue(EXPORT_PARM);
+
+		File dir = export == null ? new File(".") : new File(export).getAbsoluteFile().getParentFile();
+
+		new BundleMirror(dir, port == null ? BundleMirror.DEFAULT_PORT : Integer.parseInt(port)).start();
+	}
+
+	/**
+	 * Creates the library retriever configured by the command options.
+	 * 
+	 * @param cli
+	 *          the cli
+	 * @return the ivy library retriever
+	 */
+	protected IvyLibraryRetriever createRetriever(CommandLine cli) {
+		IvyLibraryRetriever retriever = new IvyLibraryRetriever();
+		retriever.setMetrics(metrics);
+
+		if (!resolveListeners.isEmpty()) retriever.addProcessListeners(resolveListeners);
+
 		if (cli.hasOption(LIB_DIR_PARM)) retriever.setLibdir(cli.getOptionValue(LIB_DIR_PARM));
 
 		retriever.setCleanSourcesAndJavadoc(!cli.hasOption(NO_CLEAN_PARM));
 
-		return retriever.retrieveLibraries(force, ivy, ivysettings);
+		List<String> includes = ArtifactPatterns.split(cli.getOptionValue(INCLUDE_ARTIFACTS_PARM));
+		retriever.setIncludedArtifacts(includes.toArray(new String[includes.size()]));
+
+		List<String> excludes = ArtifactPatterns.split(cli.getOptionValue(EXCLUDE_ARTIFACTS_PARM));
+		retriever.setExcludedArtifacts(excludes.toArray(new String[excludes.size()]));
+		retriever.setEmbedded(cli.hasOption(EMBEDDED_PARM));
+		retriever.setIncremental(cli.hasOption(INCREMENTAL_PARM));
+		retriever.setVerify(cli.hasOption(VERIFY_PARM));
+		retriever.setBackground(cli.hasOption(BACKGROUND_PARM));
+
+		if (cli.hasOption(METADATA_CACHE_PARM)) {
+			String ttl = cli.getOptionValue(METADATA_CACHE_PARM);
+			retriever.setMetadataCacheTtl(ttl == null ? MetadataCache.DEFAULT_TTL : ttl);
+		}
+
+		List<String> mirrors = ArtifactPatterns.split(cli.getOptionValue(MIRRORS_PARM));
+		retriever.setMirrors(mirrors.toArray(new String[mirrors.size()]));
+
+		if (cli.hasOption(HEDGE_PARM)) retriever.setHedgeDelay(Long.parseLong(cli.getOptionValue(HEDGE_PARM)));
+
+		retriever.setConditionalGet(cli.hasOption(CONDITIONAL_GET_PARM));
+
+		if (cli.hasOption(CACHE_MAX_PARM)) retriever.setCacheMaxSize(IvyCache.parseSize(cli.getOptionValue(CACHE_MAX_PARM)));
+
+		if (cli.hasOption(LOCK_PARM)) {
+			String timeout = cli.getOptionValue(LOCK_PARM);
+			retriever.setLockTimeout(timeout == null ? IvyLibraryRetriever.DEFAULT_LOCK_TIMEOUT : Integer.parseInt(timeout));
+		}
+
+		if (cli.hasOption(LAUNCH_PLAN_PARM)) {
+			String plan = cli.getOptionValue(LAUNCH_PLAN_PARM);
+			retriever.setLaunchPlan(plan == null ? LaunchPlan.ARGFILE : plan);
+		}
+
+		if (cli.hasOption(DOWNLOAD_THREADS_PARM)) {
+			retriever.setDownloadThreads(Integer.parseInt(cli.getOptionValue(DOWNLOAD_THREADS_PARM)));
+		}
+
+		if (cli.hasOption(STORE_PARM)) {
+			String store = cli.getOptionValue(STORE_PARM);
+			retriever.setStoreDir(store == null ? LibraryStore.DEFAULT_STORE_DIR : store);
+			retriever.setStoreSymlinks(cli.hasOption(STORE_SYMLINKS_PARM));
+		}
+
+		return retriever;
 	}
 
 	/**
@@ -420,9 +982,84 @@ public class PoisonIvy {
 		opts.addOption(FORCE_PARM, false, "Force clean library retrieval (default: false)");
 		opts.addOption(NO_CLEAN_PARM, false,
 				"Do not remove source and api documentation after library dependency retrieval (default: clean)");
+		opts.addOption(INCLUDE_ARTIFACTS_PARM, true,
+				"Comma separated artifact types or classifiers to retrieve, * and ? wildcards (default: all)");
+		opts.addOption(EXCLUDE_ARTIFACTS_PARM, true,
+				"Comma separated artifact types or classifiers not to retrieve, * and ? wildcards (default: source and javadoc)");
+		opts.addOption(EMBEDDED_PARM, false,
+				"Resolve libraries in the running JVM instead of a separate Ivy process (default: separate process)");
+		opts.addOption(INCREMENTAL_PARM, false,
+				"Retrieve only added or changed libraries, replacing the library directory when complete (default: false)");
+		opts.addOption(DOWNLOAD_THREADS_PARM, true,
+				"The number of libraries to download in parallel before retrieval (default: sequential Ivy download)");
 		opts.addOption(LIB_DIR_PARM, true, "The directory to store the retrieved librarires (default: ./ivylib)");
+		opts.addOption(OptionBuilder.withArgName("seconds").hasOptionalArg()
+				.withDescription("Lock the library directory during retrieval, waiting for other processes up to the seconds specified (default: "
+						+ IvyLibraryRetriever.DEFAULT_LOCK_TIMEOUT + ")").create(LOCK_PARM));
+		opts.addOption(VERIFY_PARM, false,
+				"Verify the size and checksum of each library before launch, retrieving again if corrupt (default: false)");
+		opts.addOption(BACKGROUND_PARM, false,
+				"Launch from the previously retrieved libraries, retrieving updates in the background for the next start (default: false)");
+		opts.addOption(OptionBuilder.withArgName("dir").hasOptionalArg()
+				.withDescription("Keep libraries in a shared store linked from the library directory (default: "
+						+ LibraryStore.DEFAULT_STORE_DIR + ")").create(STORE_PARM));
+		opts.addOption(STORE_SYMLINKS_PARM, false, "Link libraries to the shared store with symbolic links (default: hard links)");
+		opts.addOption(STORE_GC_PARM, false, "Remove libraries no longer used by any library directory from the shared store");
 		opts.addOption(MAIN_JAR_PARM, true, "The application jar to execute");
 		opts.addOption(MAIN_CLASS_PARM, true, "The main class to execute");
+		opts.addOption(OptionBuilder.withArgName("ttl").hasOptionalArg()
+				.withDescription("Trust the dynamic revisions and repository metadata cached by Ivy without contacting the repositories for the time to live, ie. 30m, 1h or eternal (default: "
+						+ MetadataCache.DEFAULT_TTL + ")").create(METADATA_CACHE_PARM));
+		opts.addOption(CACHE_MAX_PARM, true,
+				"The maximum size of Ivy's cache, ie. 500m or 2g, evicting the least recently used libraries not in any library directory after retrieval (default: unbounded)");
+		opts.addOption(CACHE_COMPACT_PARM, false,
+				"Remove partial downloads, stale locks and empty directories from Ivy's cache after retrieval, evicting to below the maximum size");
+		opts.addOption(MIRRORS_PARM, true,
+				"Comma separated names of HTTP resolvers which mirror one another, asked fastest healthy first within their chain resolvers");
+		opts.addOption(HEDGE_PARM, true,
+				"The millis after which a download from a mirror is hedged on another (default: "
+						+ MirrorSelector.DEFAULT_HEDGE_DELAY + ")");
+		opts.addOption(CONDITIONAL_GET_PARM, false,
+				"Request metadata from HTTP repositories gzipped and conditionally, keeping it between runs in "
+						+ ConditionalURLHandler.DEFAULT_VALIDATOR_DIR);
+		opts.addOption(IMPORT_PARM, true,
+				"Import the libraries from a bundle file or URL before retrieval, retrieval is then skipped should the ivy files match");
+		opts.addOption(EXPORT_PARM, true, "Export the retrieved libraries to a bundle file for import on other hosts");
+		opts.addOption(OptionBuilder.withArgName("port").hasOptionalArg()
+				.withDescription("Serve the bundles in the directory of the exported bundle (default: current directory) over HTTP on the port (default: "
+						+ BundleMirror.DEFAULT_PORT + ")").create(MIRROR_PARM));
+		opts.addOption(OptionBuilder.withArgName("dir").hasOptionalArg()
+				.withDescription("Size the heap, metaspace, garbage collector and processor count of the executed process to the cgroup limits read from the directory, overridden by -X options (default: "
+						+ ContainerSizing.DEFAULT_CGROUP_ROOT + ")").create(AUTO_SIZE_PARM));
+		opts.addOption(CDS_PARM, false,
+				"Create and use an AppCDS archive beside the library directory for the executed process (Java 13+)");
+		opts.addOption(OptionBuilder.withArgName("policy").hasOptionalArg()
+				.withDescription("Supervise the executed process, restarting it on exit and updating its libraries when the ivy files change, restart policy "
+						+ Supervisor.ALWAYS + ", " + Supervisor.ON_FAILURE + " or " + Supervisor.NEVER + " (default: "
+						+ Supervisor.ON_FAILURE
+						+ "). An update runs alongside the previous process until ready; should it exit, ie. on a port in use, the previous process is stopped first")
+				.create(SUPERVISE_PARM));
+		opts.addOption(SUPERVISE_READY_PARM, true,
+				"A regular expression matching the line the supervised process writes when ready to take over from its predecessor");
+		opts.addOption(SUPERVISE_BACKOFF_PARM, true, "The maximum seconds between restarts of the supervised process (default: "
+				+ Supervisor.DEFAULT_MAX_BACKOFF + ")");
+		opts.addOption(SUPERVISE_EXIT_PARM, true,
+				"Comma separated exit codes upon which the supervised process is not restarted");
+		opts.addOption(INSTANCES_PARM, true, "The number of instances of the main class or jar to execute (default: 1)");
+		opts.addOption(OptionBuilder.withArgName("prefix").hasOptionalArg()
+				.withDescription("Pin each instance to its own processors with the command prefix, ie. 'taskset -c {cpus}' (default: numactl per NUMA node or taskset)")
+				.create(PIN_PARM));
+		opts.addOption(OptionBuilder.withArgName("millis").hasOptionalArg()
+				.withDescription("Sample the CPU, memory, thread and garbage collection usage of the executed process for ProcessSampleListeners from /proc (default: "
+						+ ProcessSampler.DEFAULT_INTERVAL + " millis)").create(SAMPLE_PARM));
+		opts.addOption(IN_JVM_PARM, false,
+				"Execute the main class or jar in the running JVM instead of a separate process (default: separate process)");
+		opts.addOption(OptionBuilder.withArgName(LaunchPlan.ARGFILE + "|" + LaunchPlan.PATHING_JAR).hasOptionalArg()
+				.withDescription("Pass the classpath and JVM options to launched processes in an argument file or pathing jar (default: "
+						+ LaunchPlan.ARGFILE + ")").create(LAUNCH_PLAN_PARM));
+		opts.addOption(OptionBuilder.withArgName("file").hasOptionalArg()
+				.withDescription("Register startup metrics as a JMX MBean, writing them as JSON to the file if specified")
+				.create(METRICS_PARM));
 
 		opts.addOption(OptionBuilder.withArgName("property=value").hasArgs(2).withValueSeparator()
 				.withDescription("Java -Dproperty=value command line properties").create("D"));
@@ -22,19 +22,103 @@ package com.github.mrstampy.poisonivy;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.Method;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * The Class ProcessContainer encapsulates a running process, allowing
- * listeners to be added to the output streams.
+ * listeners to be added to the output streams. The streams are read by
+ * blocking reads until the process closes them, decoded using the charset
+ * specified (default the platform charset). Should the system property
+ * {@value #VIRTUAL_THREADS_PROPERTY} be true and the JVM support virtual
+ * threads the streams are read on virtual threads. The output is delivered
+ * on platform threads which keep the JVM running until the process closes its
+ * streams, so the output of a process launched as the JVM's last act is not
+ * lost.<br>
+ * <br>
+ * Each listener is notified on its own thread from a bounded
+ * {@link ListenerQueue} so that a slow listener cannot stall the reading of
+ * the streams, as is the echo of the output to the console, whose queue
+ * always blocks rather than drop output. The exception is the scanner, which is notified directly on the threads
+ * reading the streams and so sees all output regardless of the overflow
+ * policy. Should the streams remain open {@value #DRAIN_MILLIS} ms after
+ * the process exits, held by a descendant of the process, they are abandoned.
+ * The capacity, batch size and overflow policy of the queues are
+ * set by the system properties {@value #LISTENER_QUEUE_PROPERTY},
+ * {@value #LISTENER_BATCH_PROPERTY} and {@value #LISTENER_OVERFLOW_PROPERTY}.
  */
 class ProcessContainer {
+	private static final Logger log = LoggerFactory.getLogger(ProcessContainer.class);
+
+	/** The Constant VIRTUAL_THREADS_PROPERTY {@value #VIRTUAL_THREADS_PROPERTY}. */
+	public static final String VIRTUAL_THREADS_PROPERTY = "poisonivy.virtual.threads";
+
+	/**
+	 * The system property {@value #LISTENER_QUEUE_PROPERTY}, the capacity of each
+	 * listener's queue (default {@value #DEFAULT_QUEUE_CAPACITY}).
+	 */
+	public static final String LISTENER_QUEUE_PROPERTY = "poisonivy.listener.queue";
+
+	/**
+	 * The system property {@value #LISTENER_BATCH_PROPERTY}, the maximum events
+	 * delivered to a listener at once (default {@value #DEFAULT_BATCH_SIZE}).
+	 */
+	public static final String LISTENER_BATCH_PROPERTY = "poisonivy.listener.batch";
+
+	/**
+	 * The system property {@value #LISTENER_OVERFLOW_PROPERTY}, the policy
+	 * should a listener's queue be full: {@value ListenerQueue#BLOCK} (default),
+	 * {@value ListenerQueue#DROP_OLDEST} or {@value ListenerQueue#SAMPLE}.
+	 */
+	public static final String LISTENER_OVERFLOW_PROPERTY = "poisonivy.listener.overflow";
+
+	/** The Constant DEFAULT_QUEUE_CAPACITY {@value #DEFAULT_QUEUE_CAPACITY}. */
+	public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+	/** The Constant DEFAULT_BATCH_SIZE {@value #DEFAULT_BATCH_SIZE}. */
+	public static final int DEFAULT_BATCH_SIZE = 64;
+
+	/** The Constant DRAIN_MILLIS {@value #DRAIN_MILLIS}. */
+	public static final long DRAIN_MILLIS = 2000;
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private static final ThreadFactory threadFactory = createThreadFactory();
+
+	// the delivery threads keep the JVM alive until the output is delivered,
+	// the reading threads being daemons, virtual or not
+	private static final ThreadFactory deliveryFactory = new ThreadFactory() {
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r);
+			thread.setDaemon(false);
+
+			return thread;
+		}
+	};
 
 	private Process process;
-	private List<ProcessListener> listeners = new ArrayList<ProcessListener>();
+	private List<ListenerQueue> queues = new ArrayList<ListenerQueue>();
+	private ListenerQueue console;
+	private ProcessListener scanner;
+	private AtomicInteger openStreams = new AtomicInteger(2);
 	private volatile boolean running = true;
-	
+	private Charset charset;
+
+	private Thread outputThread;
+	private Thread errorThread;
+
 	/**
 	 * Instantiates a new process container with a process and list of listeners.
 	 *
@@ -42,76 +126,274 @@ class ProcessContainer {
 	 * @param listeners the listeners
 	 */
 	public ProcessContainer(Process p, List<ProcessListener> listeners) {
+		this(p, listeners, Charset.defaultCharset());
+	}
+
+	/**
+	 * Instantiates a new process container with a process, list of listeners and
+	 * the charset of the process' output.
+	 *
+	 * @param p the p
+	 * @param listeners the listeners
+	 * @param charset the charset
+	 */
+	public ProcessContainer(Process p, List<ProcessListener> listeners, Charset charset) {
+		this(p, listeners, null, charset);
+	}
+
+	/**
+	 * Instantiates a new process container with a process, list of listeners and
+	 * a scanner of the process' output, which must return quickly as it is
+	 * notified on the threads reading the streams.
+	 *
+	 * @param p the p
+	 * @param listeners the listeners
+	 * @param scanner the scanner, may be null
+	 */
+	public ProcessContainer(Process p, List<ProcessListener> listeners, ProcessListener scanner) {
+		this(p, listeners, scanner, Charset.defaultCharset());
+	}
+
+	private ProcessContainer(Process p, List<ProcessListener> listeners, ProcessListener scanner, Charset charset) {
 		setProcess(p);
-		if(listeners != null) this.listeners.addAll(listeners);
+		this.charset = charset;
+		this.scanner = scanner;
+		createQueues(listeners);
 		init();
 	}
 
+	private void createQueues(List<ProcessListener> listeners) {
+		int capacity = Integer.getInteger(LISTENER_QUEUE_PROPERTY, DEFAULT_QUEUE_CAPACITY);
+		int batchSize = Integer.getInteger(LISTENER_BATCH_PROPERTY, DEFAULT_BATCH_SIZE);
+		String overflow = System.getProperty(LISTENER_OVERFLOW_PROPERTY, ListenerQueue.BLOCK);
+
+		console = new ListenerQueue(new ConsoleListener(), capacity, batchSize, ListenerQueue.BLOCK, deliveryFactory,
+				"Process console thread");
+
+		if (listeners == null) return;
+
+		for (ProcessListener l : listeners) {
+			queues.add(new ListenerQueue(l, capacity, batchSize, overflow, deliveryFactory, "Process listener thread"));
+		}
+	}
+
 	private void init() {
-		logOutput(process.getInputStream());
-		logError(process.getErrorStream());
+		outputThread = pump(process.getInputStream(), false, "Resolver out stream thread");
+		errorThread = pump(process.getErrorStream(), true, "Resolver error stream thread");
 	}
 
-	private void logError(final InputStream in) {
-		Thread thread = new Thread("Resolver error stream thread") {
+	private Thread pump(final InputStream in, final boolean error, String name) {
+		Thread thread = threadFactory.newThread(new Runnable() {
 			public void run() {
-				while (isRunning()) {
-					try {
-						Thread.sleep(200);
-						String err = getOutput(in);
-						if (err != null) error(err);
-					} catch (Exception e) {
-						e.printStackTrace();
+				Reader reader = new InputStreamReader(in, charset);
+				char[] buf = new char[BUFFER_SIZE];
+				try {
+					int read;
+					while ((read = reader.read(buf)) != -1) {
+						if (read == 0 || !isRunning()) continue;
+
+						String s = new String(buf, 0, read);
+						if (error) {
+							error(s);
+						} else {
+							output(s);
+						}
 					}
+				} catch (IOException e) {
+					log.debug("Stream closed", e);
+				} finally {
+					close(reader);
+					if (openStreams.decrementAndGet() == 0) closeQueues();
 				}
 			}
-		};
+		});
 
+		thread.setName(name);
+		thread.setDaemon(true);
 		thread.start();
+
+		return thread;
 	}
 
-	private void logOutput(final InputStream in) {
-		Thread thread = new Thread("Resolver out stream thread") {
-			public void run() {
-				while (isRunning()) {
-					try {
-						Thread.sleep(200);
-						String out = getOutput(in);
-						if (out != null) output(out);
-					} catch (Exception e) {
-						e.printStackTrace();
-					}
-				}
+	private void error(String err) {
+		console.error(err);
+
+		if (scanner != null) scanner.error(err);
+
+		for (ListenerQueue q : queues) {
+			q.error(err);
+		}
+	}
+
+	private void output(String out) {
+		console.output(out);
+
+		if (scanner != null) scanner.output(out);
+
+		for (ListenerQueue q : queues) {
+			q.output(out);
+		}
+	}
+
+	/**
+	 * Returns true if any of the listeners is a {@link ProcessSampleListener}.
+	 *
+	 * @return true, if is sampled
+	 * @see ProcessSampler
+	 */
+	public boolean isSampled() {
+		for (ListenerQueue q : queues) {
+			if (q.getListener() instanceof ProcessSampleListener) return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Delivers the sample of the process' resource usage to the
+	 * {@link ProcessSampleListener}s.
+	 *
+	 * @param sample the sample
+	 */
+	public void sample(ProcessSample sample) {
+		if (!isRunning()) return;
+
+		for (ListenerQueue q : queues) {
+			q.sample(sample);
+		}
+	}
+
+	/**
+	 * Gets the queues of the listeners, from which the lag of each may be
+	 * obtained.
+	 *
+	 * @return the listener queues
+	 */
+	public List<ListenerQueue> getListenerQueues() {
+		return Collections.unmodifiableList(queues);
+	}
+
+	private void closeQueues() {
+		console.close();
+		for (ListenerQueue q : queues) {
+			q.close();
+		}
+	}
+
+	private void logLag() {
+		for (ListenerQueue q : queues) {
+			if (q.getDropped() > 0) {
+				log.warn("{} of {} events dropped for slow listener {}, max lag {} ms", q.getDropped(), q.getDropped()
+						+ q.getDelivered(), q.getListener(), q.getMaxLag());
+			} else {
+				log.debug("{} events delivered to {}, max lag {} ms", q.getDelivered(), q.getListener(), q.getMaxLag());
 			}
-		};
+		}
+	}
 
-		thread.start();
+	private void close(Reader reader) {
+		try {
+			reader.close();
+		} catch (IOException e) {
+			log.debug("Could not close stream", e);
+		}
 	}
 
-	private void error(String err) {
-		System.err.print(err);
+	private static ThreadFactory createThreadFactory() {
+		if (Boolean.getBoolean(VIRTUAL_THREADS_PROPERTY)) {
+			try {
+				Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+				Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
 
-		for (ProcessListener l : listeners) {
-			l.error(err);
+				return (ThreadFactory) factory.invoke(builder);
+			} catch (Exception e) {
+				log.warn("Virtual threads are not supported by this JVM, using platform threads");
+			}
 		}
+
+		return new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				return new Thread(r);
+			}
+		};
 	}
 
-	private void output(String out) {
-		System.out.print(out);
+	/**
+	 * Waits for the process to finish and for its output to be read and
+	 * delivered to the listeners. Output not read within {@value #DRAIN_MILLIS}
+	 * ms of the process finishing is abandoned.
+	 *
+	 * @return the exit value of the process
+	 * @throws InterruptedException the interrupted exception
+	 * @see Process#waitFor()
+	 */
+	public int waitFor() throws InterruptedException {
+		int code = process.waitFor();
 
-		for (ProcessListener l : listeners) {
-			l.output(out);
+		long deadline = System.currentTimeMillis() + DRAIN_MILLIS;
+		outputThread.join(DRAIN_MILLIS);
+		errorThread.join(Math.max(1, deadline - System.currentTimeMillis()));
+
+		if (outputThread.isAlive() || errorThread.isAlive()) abandonStreams();
+
+		console.join();
+		for (ListenerQueue q : queues) {
+			q.join();
 		}
+
+		setRunning(false);
+		logLag();
+
+		return code;
 	}
 
-	private String getOutput(InputStream in) throws IOException {
-		int available = in.available();
-		if (available <= 0) return null;
+	/**
+	 * Stops forwarding the output of streams held open by a descendant of the
+	 * exited process, closing them and signalling their end to the listeners.
+	 */
+	private void abandonStreams() {
+		log.warn("The output of the process remains open {} ms after its exit, held by a descendant process; abandoning it",
+				DRAIN_MILLIS);
 
-		byte[] b = new byte[available];
-		in.read(b);
+		setRunning(false);
 
-		return new String(b);
+		close(process.getInputStream());
+		close(process.getErrorStream());
+		outputThread.interrupt();
+		errorThread.interrupt();
+
+		closeQueues();
+	}
+
+	private void close(InputStream in) {
+		try {
+			in.close();
+		} catch (IOException e) {
+			log.debug("Could not close stream", e);
+		}
+	}
+
+	/**
+	 * Echoes the process' output and errors to the console.
+	 */
+	private static class ConsoleListener implements ProcessListener {
+
+		@Override
+		public void output(String out) {
+			System.out.print(out);
+		}
+
+		@Override
+		public void error(String err) {
+			System.err.print(err);
+		}
+
+		@Override
+		public String toString() {
+			return "console";
+		}
 	}
 
 	/**
@@ -124,10 +406,12 @@ class ProcessContainer {
 	}
 
 	/**
-	 * Sets the running.  Call when the process has finished running.
+	 * Sets the running.  Once false the process' output is no longer
+	 * forwarded.  The streams are read until the process closes them
+	 * regardless.
 	 *
 	 * @param running the new running
-	 * @see Process#waitFor()
+	 * @see #waitFor()
 	 */
 	public void setRunning(boolean running) {
 		this.running = running;
@@ -0,0 +1,119 @@
+/*
+ * Poison Ivy - Java Library Dependency Resolver and Application Launcher 
+ *
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.poisonivy;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.ivy.util.AbstractMessageLogger;
+import org.apache.ivy.util.Message;
+
+/**
+ * Ivy message logger which forwards Ivy's messages to {@link ProcessListener}s
+ * in the same manner as the {@link ProcessContainer} forwards the output of a
+ * forked Ivy process. Messages more verbose than {@link Message#MSG_INFO} are
+ * ignored, as they would be by the Ivy command line.
+ *
+ * @see EmbeddedIvyResolver
+ */
+class ProcessListenerMessageLogger extends AbstractMessageLogger {
+
+	private List<ProcessListener> listeners = new ArrayList<ProcessListener>();
+
+	/**
+	 * Instantiates a new message logger with the list of listeners.
+	 *
+	 * @param listeners
+	 *          the listeners
+	 */
+	public ProcessListenerMessageLogger(List<ProcessListener> listeners) {
+		if (listeners != null) this.listeners.addAll(listeners);
+	}
+
+	@Override
+	public void log(String msg, int level) {
+		if (level > Message.MSG_INFO) return;
+
+		if (level <= Message.MSG_WARN) {
+			forwardError(msg + "\n");
+		} else {
+			forwardOutput(msg + "\n");
+		}
+	}
+
+	@Override
+	public void rawlog(String msg, int level) {
+		log(msg, level);
+	}
+
+	// AbstractMessageLogger returns raw lists of the messages, which are strings
+
+	@Override
+	public List<String> getErrors() {
+		@SuppressWarnings("unchecked")
+		List<String> errors = super.getErrors();
+
+		return errors;
+	}
+
+	@Override
+	public List<String> getWarns() {
+		@SuppressWarnings("unchecked")
+		List<String> warns = super.getWarns();
+
+		return warns;
+	}
+
+	@Override
+	public List<String> getProblems() {
+		@SuppressWarnings("unchecked")
+		List<String> problems = super.getProblems();
+
+		return problems;
+	}
+
+	@Override
+	protected void doProgress() {
+		forwardOutput(".");
+	}
+
+	@Override
+	protected void doEndProgress(String msg) {
+		forwardOutput(msg == null ? "\n" : msg + "\n");
+	}
+
+	private synchronized void forwardError(String err) {
+		System.err.print(err);
+
+		for (ProcessListener l : listeners) {
+			l.error(err);
+		}
+	}
+
+	private synchronized void forwardOutput(String out) {
+		System.out.print(out);
+
+		for (ProcessListener l : listeners) {
+			l.output(out);
+		}
+	}
+
+}
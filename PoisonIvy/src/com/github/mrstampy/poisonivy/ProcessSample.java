@@ -0,0 +1,152 @@
+/*
+ * Poison Ivy - Java Library Dependency Resolver and Application Launcher 
+ *
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.poisonivy;
+
+/**
+ * A sample of the resource usage of a process, read from /proc/[pid] and, for
+ * a JVM, its performance data. Values which could not be read are -1.
+ *
+ * @see ProcessSampleListener
+ */
+public class ProcessSample {
+	private long pid;
+	private long timestamp;
+	private long cpuTime;
+	private double cpuLoad;
+	private long rss;
+	private int threads;
+	private long gcCount;
+	private long gcTime;
+
+	/**
+	 * Instantiates a new process sample.
+	 *
+	 * @param pid
+	 *          the pid
+	 * @param timestamp
+	 *          the timestamp
+	 * @param cpuTime
+	 *          the cpu time in milliseconds
+	 * @param cpuLoad
+	 *          the cpu load
+	 * @param rss
+	 *          the resident set size in bytes
+	 * @param threads
+	 *          the threads
+	 * @param gcCount
+	 *          the gc count
+	 * @param gcTime
+	 *          the gc time in milliseconds
+	 */
+	public ProcessSample(long pid, long timestamp, long cpuTime, double cpuLoad, long rss, int threads, long gcCount,
+			long gcTime) {
+		this.pid = pid;
+		this.timestamp = timestamp;
+		this.cpuTime = cpuTime;
+		this.cpuLoad = cpuLoad;
+		this.rss = rss;
+		this.threads = threads;
+		this.gcCount = gcCount;
+		this.gcTime = gcTime;
+	}
+
+	/**
+	 * Gets the pid of the process.
+	 *
+	 * @return the pid
+	 */
+	public long getPid() {
+		return pid;
+	}
+
+	/**
+	 * Gets the time the sample was taken, in milliseconds since the epoch.
+	 *
+	 * @return the timestamp
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * Gets the user and system CPU time consumed by the process in
+	 * milliseconds.
+	 *
+	 * @return the cpu time
+	 */
+	public long getCpuTime() {
+		return cpuTime;
+	}
+
+	/**
+	 * Gets the CPU time consumed since the previous sample as a fraction of the
+	 * time elapsed, ie. 2.0 for two fully used processors, -1 for the first
+	 * sample.
+	 *
+	 * @return the cpu load
+	 */
+	public double getCpuLoad() {
+		return cpuLoad;
+	}
+
+	/**
+	 * Gets the resident set size in bytes.
+	 *
+	 * @return the rss
+	 */
+	public long getRss() {
+		return rss;
+	}
+
+	/**
+	 * Gets the number of threads.
+	 *
+	 * @return the threads
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Gets the number of garbage collections, -1 should the process not be a
+	 * JVM publishing performance data.
+	 *
+	 * @return the gc count
+	 */
+	public long getGcCount() {
+		return gcCount;
+	}
+
+	/**
+	 * Gets the time spent in garbage collection in milliseconds, -1 should the
+	 * process not be a JVM publishing performance data.
+	 *
+	 * @return the gc time
+	 */
+	public long getGcTime() {
+		return gcTime;
+	}
+
+	public String toString() {
+		return "pid=" + pid + ", cpuTime=" + cpuTime + ", cpuLoad=" + cpuLoad + ", rss=" + rss + ", threads=" + threads
+				+ ", gcCount=" + gcCount + ", gcTime=" + gcTime;
+	}
+}
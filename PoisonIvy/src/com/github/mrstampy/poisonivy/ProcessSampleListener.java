@@ -0,0 +1,40 @@
+/*
+ * Poison Ivy - Java Library Dependency Resolver and Application Launcher 
+ *
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.poisonivy;
+
+/**
+ * A {@link ProcessListener} also receiving periodic samples of the resource
+ * usage of the executable process. Registered as any other listener using
+ * {@link PoisonIvy#addExeListener(ProcessListener)}; samples are taken only
+ * should the {@link PoisonIvy#SAMPLE_PARM} parameter be specified.
+ *
+ * @see ProcessSampler
+ */
+public interface ProcessSampleListener extends ProcessListener {
+
+	/**
+	 * Called with each sample of the process's resource usage.
+	 *
+	 * @param sample
+	 *          the sample
+	 */
+	void sample(ProcessSample sample);
+}
@@ -0,0 +1,437 @@
+/*
+ * Poison Ivy - Java Library Dependency Resolver and Application Launcher 
+ *
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.poisonivy;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodically samples the resource usage of executable processes and
+ * delivers the samples to their {@link ProcessSampleListener}s. The CPU time,
+ * resident set size and thread count are read from /proc/[pid]; should the
+ * process be a JVM publishing performance data (the default) the garbage
+ * collection count and time are read from its hsperfdata file, mapped once and
+ * read in place thereafter. A single daemon thread samples all processes,
+ * dropping each once it exits.<br>
+ * <br>
+ * Sampling requires the proc file system and so is only available on Linux.
+ *
+ * @see PoisonIvy#SAMPLE_PARM
+ */
+class ProcessSampler {
+	private static final Logger log = LoggerFactory.getLogger(ProcessSampler.class);
+
+	/** The Constant DEFAULT_INTERVAL {@value #DEFAULT_INTERVAL}. */
+	public static final long DEFAULT_INTERVAL = 1000;
+
+	/** Clock ticks per second of the times in /proc/[pid]/stat, fixed by the kernel ABI. */
+	private static final long CLOCK_TICKS = 100;
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	private static final int PERF_MAGIC = 0xcafec0c0;
+	private static final int PERF_ATTEMPTS = 5;
+	private static final String GC_PREFIX = "sun.gc.collector.";
+	private static final String FREQUENCY = "sun.os.hrt.frequency";
+
+	private File proc;
+	private long interval;
+	private List<Sampled> sampled = new CopyOnWriteArrayList<Sampled>();
+	private ScheduledExecutorService executor;
+
+	/**
+	 * Instantiates a new process sampler sampling every
+	 * {@value #DEFAULT_INTERVAL} milliseconds.
+	 */
+	public ProcessSampler() {
+		this(DEFAULT_INTERVAL);
+	}
+
+	/**
+	 * Instantiates a new process sampler.
+	 *
+	 * @param interval
+	 *          the interval in milliseconds
+	 */
+	public ProcessSampler(long interval) {
+		this(interval, new File("/proc"));
+	}
+
+	/**
+	 * Instantiates a new process sampler reading the proc file system at the
+	 * directory specified.
+	 *
+	 * @param interval
+	 *          the interval in milliseconds
+	 * @param proc
+	 *          the proc
+	 */
+	public ProcessSampler(long interval, File proc) {
+		if (interval <= 0) throw new IllegalArgumentException("Sampling interval must be > 0: " + interval);
+
+		this.interval = interval;
+		this.proc = proc;
+	}
+
+	/**
+	 * Adds the process to be sampled. The process is sampled only should it
+	 * have a {@link ProcessSampleListener}.
+	 *
+	 * @param pc
+	 *          the pc
+	 */
+	public void add(ProcessContainer pc) {
+		if (!pc.isSampled()) return;
+
+		long pid = getPid(pc.getProcess());
+		if (pid < 0) {
+			log.warn("Could not determine the pid of the process, not sampling");
+			return;
+		}
+
+		if (!new File(proc, Long.toString(pid)).isDirectory()) {
+			log.warn("{} is not available, not sampling process {}", proc, pid);
+			return;
+		}
+
+		sampled.add(new Sampled(pc, pid));
+		start();
+	}
+
+	/**
+	 * Stops sampling.
+	 */
+	public synchronized void stop() {
+		if (executor != null) executor.shutdownNow();
+		executor = null;
+		sampled.clear();
+	}
+
+	/**
+	 * Gets the interval in milliseconds.
+	 *
+	 * @return the interval
+	 */
+	public long getInterval() {
+		return interval;
+	}
+
+	private synchronized void start() {
+		if (executor != null) return;
+
+		executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Process sampler thread");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		executor.scheduleAtFixedRate(new Runnable() {
+
+			@Override
+			public void run() {
+				sampleAll();
+			}
+		}, 0, interval, TimeUnit.MILLISECONDS);
+	}
+
+	private void sampleAll() {
+		for (Sampled s : sampled) {
+			try {
+				ProcessSample sample = s.sample();
+				if (sample == null) {
+					sampled.remove(s);
+				} else {
+					s.pc.sample(sample);
+				}
+			} catch (Exception e) {
+				log.warn("Unexpected exception sampling process {}, no longer sampling", s.pid, e);
+				sampled.remove(s);
+			}
+		}
+	}
+
+	/**
+	 * Gets the pid of the process, using Process.pid() (Java 9+) or the pid
+	 * field of the Unix process implementation.
+	 *
+	 * @param p
+	 *          the p
+	 * @return the pid, -1 if unknown
+	 */
+	static long getPid(Process p) {
+		try {
+			return ((Number) Process.class.getMethod("pid").invoke(p)).longValue();
+		} catch (Exception e) {
+			log.trace("Process.pid() unavailable", e);
+		}
+
+		try {
+			Field field = p.getClass().getDeclaredField("pid");
+			field.setAccessible(true);
+
+			return field.getInt(p);
+		} catch (Exception e) {
+			log.debug("Could not read the pid of {}", p.getClass(), e);
+			return -1;
+		}
+	}
+
+	/**
+	 * A process being sampled and the state of its last sample.
+	 */
+	private class Sampled {
+		private ProcessContainer pc;
+		private long pid;
+		private File dir;
+
+		private long lastCpuTime = -1;
+		private long lastNanos;
+
+		private PerfData perf;
+		private int perfAttempts;
+
+		public Sampled(ProcessContainer pc, long pid) {
+			this.pc = pc;
+			this.pid = pid;
+			this.dir = new File(proc, Long.toString(pid));
+		}
+
+		/**
+		 * Returns the sample, or null should the process have exited.
+		 */
+		public ProcessSample sample() {
+			if (!pc.getProcess().isAlive()) return null;
+
+			long nanos = System.nanoTime();
+			long timestamp = System.currentTimeMillis();
+
+			long cpuTime = readCpuTime();
+			if (cpuTime < 0 && !pc.getProcess().isAlive()) return null;
+
+			double cpuLoad = -1;
+			if (cpuTime >= 0 && lastCpuTime >= 0 && nanos > lastNanos) {
+				cpuLoad = (cpuTime - lastCpuTime) / ((nanos - lastNanos) / 1000000.0);
+			}
+
+			lastCpuTime = cpuTime;
+			lastNanos = nanos;
+
+			long rss = -1;
+			int threads = -1;
+			String status = read("status");
+			if (status != null) {
+				for (String line : status.split("\n")) {
+					if (line.startsWith("VmRSS:")) rss = parseKb(line.substring(6));
+					if (line.startsWith("Threads:")) threads = (int) parseLong(line.substring(8));
+				}
+			}
+
+			long gcCount = -1;
+			long gcTime = -1;
+			PerfData pd = getPerfData();
+			if (pd != null) {
+				gcCount = pd.getGcCount();
+				gcTime = pd.getGcTime();
+			}
+
+			return new ProcessSample(pid, timestamp, cpuTime, cpuLoad, rss, threads, gcCount, gcTime);
+		}
+
+		private long readCpuTime() {
+			String stat = read("stat");
+			if (stat == null) return -1;
+
+			// the command name may contain spaces and parentheses, fields follow
+			// the last ')' starting with the state (field 3)
+			int paren = stat.lastIndexOf(')');
+			if (paren < 0) return -1;
+
+			String[] fields = stat.substring(paren + 1).trim().split("\\s+");
+			if (fields.length < 13) return -1;
+
+			long ticks = parseLong(fields[11]) + parseLong(fields[12]);
+
+			return ticks * 1000 / CLOCK_TICKS;
+		}
+
+		private PerfData getPerfData() {
+			if (perf != null || perfAttempts >= PERF_ATTEMPTS) return perf;
+
+			// the JVM creates the file shortly after starting, retry for the
+			// first few samples
+			perfAttempts++;
+			perf = PerfData.map(PerfData.getFile(pid), perfAttempts == PERF_ATTEMPTS);
+
+			return perf;
+		}
+
+		private String read(String name) {
+			try {
+				return new String(Files.readAllBytes(new File(dir, name).toPath()), ASCII);
+			} catch (IOException e) {
+				log.trace("Could not read {}/{}", dir, name, e);
+				return null;
+			}
+		}
+	}
+
+	private static long parseKb(String value) {
+		String s = value.trim();
+		if (s.endsWith("kB")) s = s.substring(0, s.length() - 2).trim();
+
+		long kb = parseLong(s);
+
+		return kb < 0 ? -1 : kb * 1024;
+	}
+
+	private static long parseLong(String value) {
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * The garbage collection counters of a JVM's hsperfdata file. The offsets
+	 * of the counters are found once, each sample reads them in place.
+	 */
+	private static class PerfData {
+		private ByteBuffer buffer;
+		private List<Integer> invocations = new ArrayList<Integer>();
+		private List<Integer> times = new ArrayList<Integer>();
+		private long frequency = -1;
+
+		static File getFile(long pid) {
+			// HotSpot writes its performance data beneath /tmp on Linux regardless
+			// of java.io.tmpdir
+			return new File("/tmp/hsperfdata_" + System.getProperty("user.name"), Long.toString(pid));
+		}
+
+		static PerfData map(File file, boolean last) {
+			if (!file.isFile()) {
+				if (last) log.debug("No performance data at {}, garbage collection is not sampled", file);
+				return null;
+			}
+
+			RandomAccessFile raf = null;
+			try {
+				raf = new RandomAccessFile(file, "r");
+				MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+
+				// not yet accessible until the JVM has initialized it
+				if (buffer.getInt(0) != PERF_MAGIC || buffer.get(7) == 0) return null;
+
+				PerfData pd = new PerfData(buffer);
+
+				return pd.frequency > 0 && !pd.invocations.isEmpty() ? pd : null;
+			} catch (Exception e) {
+				log.debug("Could not read performance data {}", file, e);
+				return null;
+			} finally {
+				try {
+					if (raf != null) raf.close();
+				} catch (IOException e) {
+					log.debug("Could not close {}", file, e);
+				}
+			}
+		}
+
+		private PerfData(ByteBuffer buffer) {
+			this.buffer = buffer;
+
+			buffer.order(buffer.get(4) == 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+
+			int offset = buffer.getInt(24);
+			int entries = buffer.getInt(28);
+
+			for (int i = 0; i < entries; i++) {
+				int length = buffer.getInt(offset);
+				String name = readName(offset + buffer.getInt(offset + 4));
+				char type = (char) buffer.get(offset + 12);
+				int data = offset + buffer.getInt(offset + 16);
+
+				if (type == 'J') index(name, data);
+
+				offset += length;
+			}
+		}
+
+		private void index(String name, int data) {
+			if (FREQUENCY.equals(name)) {
+				frequency = buffer.getLong(data);
+			} else if (name.startsWith(GC_PREFIX) && name.endsWith(".invocations")) {
+				invocations.add(data);
+			} else if (name.startsWith(GC_PREFIX) && name.endsWith(".time")) {
+				times.add(data);
+			}
+		}
+
+		private String readName(int offset) {
+			StringBuilder sb = new StringBuilder();
+			byte b;
+			while ((b = buffer.get(offset++)) != 0) {
+				sb.append((char) b);
+			}
+
+			return sb.toString();
+		}
+
+		long getGcCount() {
+			return sum(invocations);
+		}
+
+		long getGcTime() {
+			return sum(times) * 1000 / frequency;
+		}
+
+		private long sum(List<Integer> offsets) {
+			long sum = 0;
+			for (Integer offset : offsets) {
+				sum += buffer.getLong(offset);
+			}
+
+			return sum;
+		}
+	}
+}
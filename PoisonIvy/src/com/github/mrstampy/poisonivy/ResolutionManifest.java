@@ -0,0 +1,430 @@
+/*
+ * Poison Ivy - Java Library Dependency Resolver and Application Launcher 
+ *
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.poisonivy;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The resolution manifest is written to the library directory after a
+ * successful retrieval. It records a fingerprint of the inputs to the
+ * resolution (the ivy file, the ivy settings and the resolve pattern) and the
+ * size and checksum of each library retrieved. Should the fingerprint and the
+ * libraries match on a subsequent start the resolution is skipped.<br>
+ * <br>
+ * Where the file in Ivy's cache from which a library was retrieved is known its
+ * checksum is taken from that file, which Ivy verified against the
+ * repository's checksums when it was downloaded, and its path recorded.
+ */
+class ResolutionManifest {
+	private static final Logger log = LoggerFactory.getLogger(ResolutionManifest.class);
+
+	/** The Constant MANIFEST_FILE {@value #MANIFEST_FILE}. */
+	public static final String MANIFEST_FILE = "poisonivy.manifest";
+
+	private static final String FINGERPRINT_KEY = "fingerprint";
+	private static final String ARTIFACT_PFX = "artifact.";
+	private static final String DEFAULT_SETTINGS = "default settings";
+
+	private String fingerprint;
+	private Map<String, Artifact> artifacts = new TreeMap<String, Artifact>();
+
+	/**
+	 * A library recorded in the manifest.
+	 */
+	static class Artifact {
+		private long size;
+		private String checksum;
+		private File source;
+
+		/**
+		 * Instantiates a new artifact.
+		 *
+		 * @param size
+		 *          the size
+		 * @param checksum
+		 *          the checksum
+		 * @param source
+		 *          the file in Ivy's cache the library was retrieved from, null
+		 *          if not known
+		 */
+		public Artifact(long size, String checksum, File source) {
+			this.size = size;
+			this.checksum = checksum;
+			this.source = source;
+		}
+
+		/**
+		 * Gets the size.
+		 *
+		 * @return the size
+		 */
+		public long getSize() {
+			return size;
+		}
+
+		/**
+		 * Gets the checksum.
+		 *
+		 * @return the checksum
+		 */
+		public String getChecksum() {
+			return checksum;
+		}
+
+		/**
+		 * Gets the file in Ivy's cache the library was retrieved from.
+		 *
+		 * @return the source, null if not known
+		 */
+		public File getSource() {
+			return source;
+		}
+	}
+
+	private ResolutionManifest(String fingerprint) {
+		this.fingerprint = fingerprint;
+	}
+
+	/**
+	 * Calculates the fingerprint of the resolution inputs.
+	 *
+	 * @param ivyfile
+	 *          the ivy file
+	 * @param ivysettings
+	 *          the ivy settings file, null if the default settings are used
+	 * @param resolvePattern
+	 *          the resolve pattern
+	 * @param options
+	 *          any other options affecting the libraries retrieved
+	 * @return the fingerprint
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public static String fingerprint(File ivyfile, File ivysettings, String resolvePattern, String... options)
+			throws IOException {
+		MessageDigest digest = Checksums.newDigest();
+
+		Checksums.update(digest, ivyfile);
+		digest.update((byte) 0);
+
+		if (ivysettings == null) {
+			digest.update(DEFAULT_SETTINGS.getBytes("UTF-8"));
+		} else {
+			Checksums.update(digest, ivysettings);
+		}
+		digest.update((byte) 0);
+
+		digest.update(resolvePattern.getBytes("UTF-8"));
+
+		for (String option : options) {
+			digest.update((byte) 0);
+			digest.update(option.getBytes("UTF-8"));
+		}
+
+		return Checksums.toHex(digest.digest());
+	}
+
+	/**
+	 * Creates a manifest for the libraries currently in the library directory,
+	 * hashing the libraries themselves.
+	 *
+	 * @param fingerprint
+	 *          the fingerprint
+	 * @param libdir
+	 *          the libdir
+	 * @return the resolution manifest
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public static ResolutionManifest create(String fingerprint, File libdir) throws IOException {
+		return create(fingerprint, libdir, Collections.<String, File> emptyMap());
+	}
+
+	/**
+	 * Creates a manifest for the libraries currently in the library directory.
+	 * The checksum of each library with a source is taken from its source,
+	 * failing should the sizes differ; those without are hashed themselves.
+	 *
+	 * @param fingerprint
+	 *          the fingerprint
+	 * @param libdir
+	 *          the libdir
+	 * @param sources
+	 *          the files in Ivy's cache the libraries were retrieved from, keyed
+	 *          by library name
+	 * @return the resolution manifest
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 * @see #match(File, Collection)
+	 */
+	public static ResolutionManifest create(String fingerprint, File libdir, Map<String, File> sources)
+			throws IOException {
+		ResolutionManifest manifest = new ResolutionManifest(fingerprint);
+
+		File[] files = libdir.listFiles();
+		if (files == null) return manifest;
+
+		for (File f : files) {
+			if (!f.isFile() || isManifest(f)) continue;
+
+			File source = sources.get(f.getName());
+			if (source == null || !source.isFile()) {
+				log.debug("No source known for library {}, recording its own checksum", f.getName());
+				manifest.artifacts.put(f.getName(), new Artifact(f.length(), Checksums.checksum(f), null));
+				continue;
+			}
+
+			if (source.length() != f.length()) {
+				throw new IOException("Library " + f.getAbsolutePath() + " is " + f.length() + " bytes but its source "
+						+ source.getAbsolutePath() + " is " + source.length());
+			}
+
+			manifest.artifacts.put(f.getName(), new Artifact(f.length(), Checksums.checksum(source), source));
+		}
+
+		return manifest;
+	}
+
+	/**
+	 * Matches the libraries in the library directory with the cached files they
+	 * were retrieved from, for when Ivy reports only the cached files. A
+	 * library matches the cached file of the same name and size or, failing
+	 * that, the only cached file of its size.
+	 *
+	 * @param libdir
+	 *          the libdir
+	 * @param cached
+	 *          the cached files
+	 * @return the sources keyed by library name
+	 */
+	public static Map<String, File> match(File libdir, Collection<File> cached) {
+		Map<String, File> sources = new HashMap<String, File>();
+
+		File[] files = libdir.listFiles();
+		if (files == null) return sources;
+
+		Map<String, File> byName = new HashMap<String, File>();
+		Map<Long, File> bySize = new HashMap<Long, File>();
+		Set<Long> ambiguous = new HashSet<Long>();
+		for (File f : cached) {
+			byName.put(f.getName() + "," + f.length(), f);
+			if (bySize.put(f.length(), f) != null) ambiguous.add(f.length());
+		}
+
+		for (File f : files) {
+			if (!f.isFile() || isManifest(f)) continue;
+
+			File source = byName.get(f.getName() + "," + f.length());
+			if (source == null && !ambiguous.contains(f.length())) source = bySize.get(f.length());
+
+			if (source != null) sources.put(f.getName(), source);
+		}
+
+		return sources;
+	}
+
+	/**
+	 * Reads the manifest from the library directory.
+	 *
+	 * @param libdir
+	 *          the libdir
+	 * @return the resolution manifest, null if none exists or it cannot be read
+	 */
+	public static ResolutionManifest read(File libdir) {
+		File file = new File(libdir, MANIFEST_FILE);
+		if (!file.exists()) return null;
+
+		Properties props = new Properties();
+		InputStream in = null;
+		try {
+			in = new FileInputStream(file);
+			props.load(in);
+		} catch (IOException e) {
+			log.warn("Could not read resolution manifest {}", file.getAbsolutePath(), e);
+			return null;
+		} finally {
+			close(in);
+		}
+
+		ResolutionManifest manifest = new ResolutionManifest(props.getProperty(FINGERPRINT_KEY));
+
+		for (String key : props.stringPropertyNames()) {
+			if (!key.startsWith(ARTIFACT_PFX)) continue;
+
+			String[] value = props.getProperty(key).split(",", 3);
+			if (value.length < 2) continue;
+
+			File source = value.length == 3 ? new File(value[2]) : null;
+
+			try {
+				manifest.artifacts.put(key.substring(ARTIFACT_PFX.length()),
+						new Artifact(Long.parseLong(value[0]), value[1], source));
+			} catch (NumberFormatException e) {
+				log.warn("Invalid resolution manifest entry {}", key);
+			}
+		}
+
+		return manifest;
+	}
+
+	/**
+	 * Returns true if the manifest file is in the library directory.
+	 *
+	 * @param libdir
+	 *          the libdir
+	 * @return true, if successful
+	 */
+	public static boolean exists(File libdir) {
+		return new File(libdir, MANIFEST_FILE).exists();
+	}
+
+	/**
+	 * Returns true if the file is a manifest file.
+	 *
+	 * @param file
+	 *          the file
+	 * @return true, if is manifest
+	 */
+	public static boolean isManifest(File file) {
+		return MANIFEST_FILE.equals(file.getName());
+	}
+
+	/**
+	 * Deletes the manifest from the library directory.
+	 *
+	 * @param libdir
+	 *          the libdir
+	 */
+	public static void delete(File libdir) {
+		File file = new File(libdir, MANIFEST_FILE);
+		if (file.exists() && !file.delete()) log.error("Could not delete {}", file.getAbsolutePath());
+	}
+
+	/**
+	 * Writes the manifest to the library directory.
+	 *
+	 * @param libdir
+	 *          the libdir
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public void write(File libdir) throws IOException {
+		Properties props = new Properties();
+
+		props.setProperty(FINGERPRINT_KEY, fingerprint);
+		for (Map.Entry<String, Artifact> e : artifacts.entrySet()) {
+			Artifact artifact = e.getValue();
+			String value = artifact.getSize() + "," + artifact.getChecksum();
+			if (artifact.getSource() != null) value += "," + artifact.getSource().getAbsolutePath();
+
+			props.setProperty(ARTIFACT_PFX + e.getKey(), value);
+		}
+
+		// written beside the manifest and moved over it, so that a manifest is
+		// never read partially written
+		File file = new File(libdir, MANIFEST_FILE);
+		File temp = new File(libdir, MANIFEST_FILE + ".tmp");
+
+		OutputStream out = null;
+		try {
+			out = new FileOutputStream(temp);
+			props.store(out, "Poison Ivy resolution manifest");
+		} finally {
+			close(out);
+		}
+
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Returns true if the fingerprint matches and every library recorded exists
+	 * in the library directory with the recorded size.
+	 *
+	 * @param fingerprint
+	 *          the fingerprint of the current resolution inputs
+	 * @param libdir
+	 *          the libdir
+	 * @return true, if is current
+	 */
+	public boolean isCurrent(String fingerprint, File libdir) {
+		if (!fingerprint.equals(this.fingerprint)) {
+			log.debug("Resolution inputs have changed since the last retrieval");
+			return false;
+		}
+
+		for (Map.Entry<String, Artifact> e : artifacts.entrySet()) {
+			File f = new File(libdir, e.getKey());
+			if (!f.isFile() || f.length() != e.getValue().getSize()) {
+				log.debug("Library {} is missing or has changed", f.getAbsolutePath());
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Gets the fingerprint.
+	 *
+	 * @return the fingerprint
+	 */
+	public String getFingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * Gets the libraries recorded, keyed by file name.
+	 *
+	 * @return the artifacts
+	 */
+	public Map<String, Artifact> getArtifacts() {
+		return Collections.unmodifiableMap(artifacts);
+	}
+
+	private static void close(Closeable c) {
+		if (c == null) return;
+		try {
+			c.close();
+		} catch (IOException e) {
+			log.debug("Could not close", e);
+		}
+	}
+}
@@ -0,0 +1,69 @@
+/*
+ * Poison Ivy - Java Library Dependency Resolver and Application Launcher 
+ *
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.poisonivy;
+
+import java.io.File;
+
+/**
+ * A library resolved by Ivy, consisting of the library's file in the Ivy cache
+ * and the file it is to be retrieved to.
+ */
+class ResolvedArtifact {
+
+	private File source;
+	private File destination;
+
+	/**
+	 * Instantiates a new resolved artifact.
+	 *
+	 * @param source
+	 *          the file in the Ivy cache
+	 * @param destination
+	 *          the file to retrieve to
+	 */
+	public ResolvedArtifact(File source, File destination) {
+		this.source = source;
+		this.destination = destination;
+	}
+
+	/**
+	 * Gets the file in the Ivy cache.
+	 *
+	 * @return the source
+	 */
+	public File getSource() {
+		return source;
+	}
+
+	/**
+	 * Gets the file to retrieve to.
+	 *
+	 * @return the destination
+	 */
+	public File getDestination() {
+		return destination;
+	}
+
+	@Override
+	public String toString() {
+		return source.getAbsolutePath() + " -> " + destination.getPath();
+	}
+}
@@ -0,0 +1,270 @@
+/*
+ * Poison Ivy - Java Library Dependency Resolver and Application Launcher 
+ *
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.poisonivy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An exclusive lock on a library directory, held across processes by a file
+ * lock on a lock file beside the library directory, and across threads of the
+ * same JVM by an in-memory lock. Should several processes sharing the library
+ * directory start at once one retrieves the libraries while the others wait,
+ * then find the libraries current.<br>
+ * <br>
+ * The lock file records its holder and whether the holder is retrieving. The
+ * operating system releases the file lock of a process which dies; should the
+ * lock file then show the previous holder was retrieving the lock is
+ * {@link #isStale()} and the library directory is suspect.
+ *
+ * @see IvyLibraryRetriever#setLockTimeout(int)
+ */
+class RetrievalLock {
+	private static final Logger log = LoggerFactory.getLogger(RetrievalLock.class);
+
+	/** The Constant LOCK_SFX {@value #LOCK_SFX}. */
+	public static final String LOCK_SFX = ".lock";
+
+	private static final String HOLDER_KEY = "holder";
+	private static final String ACQUIRED_KEY = "acquired";
+	private static final String STATE_KEY = "state";
+	private static final String RETRIEVING = "retrieving";
+	private static final String RELEASED = "released";
+
+	private static final long POLL_MILLIS = 100;
+	private static final long REPORT_MILLIS = 10000;
+
+	private static final Map<String, ReentrantLock> jvmLocks = new HashMap<String, ReentrantLock>();
+
+	private File lockFile;
+	private long timeoutMillis;
+
+	private ReentrantLock jvmLock;
+	private FileChannel channel;
+	private FileLock fileLock;
+
+	private boolean waited;
+	private boolean stale;
+
+	/**
+	 * Instantiates a new retrieval lock for the library directory.
+	 *
+	 * @param libdir
+	 *          the libdir
+	 * @param timeoutMillis
+	 *          the maximum time to wait for the lock
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public RetrievalLock(File libdir, long timeoutMillis) throws IOException {
+		File dir = libdir.getCanonicalFile();
+		this.lockFile = new File(dir.getParentFile(), dir.getName() + LOCK_SFX);
+		this.timeoutMillis = timeoutMillis;
+		this.jvmLock = getJvmLock(lockFile.getPath());
+	}
+
+	/**
+	 * Acquires the lock, waiting up to the timeout should it be held by another
+	 * thread or process. Should the file system not support file locks the lock
+	 * is held only within this JVM.
+	 *
+	 * @return true, if acquired
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 * @throws InterruptedException
+	 *           the interrupted exception
+	 */
+	public boolean acquire() throws IOException, InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+
+		if (!jvmLock.tryLock()) {
+			waited = true;
+			log.debug("Awaiting lock on {} held by another thread", lockFile);
+			if (!jvmLock.tryLock(timeoutMillis, TimeUnit.MILLISECONDS)) return false;
+		}
+
+		try {
+			if (acquireFileLock(deadline)) {
+				writeState(RETRIEVING);
+				return true;
+			}
+		} catch (IOException e) {
+			release();
+			throw e;
+		}
+
+		release();
+		return false;
+	}
+
+	private boolean acquireFileLock(long deadline) throws IOException, InterruptedException {
+		channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+
+		long nextReport = System.currentTimeMillis();
+		while (true) {
+			try {
+				fileLock = channel.tryLock();
+			} catch (IOException e) {
+				log.warn("File locks are not supported for {}, locking within this JVM only", lockFile, e);
+				return true;
+			}
+
+			if (fileLock != null) break;
+
+			waited = true;
+			long now = System.currentTimeMillis();
+			if (now >= deadline) {
+				log.error("Timed out awaiting lock on {} held by {}", lockFile, getHolder(readState()));
+				return false;
+			}
+
+			if (now >= nextReport) {
+				log.debug("Awaiting lock on {} held by {}", lockFile, getHolder(readState()));
+				nextReport = now + REPORT_MILLIS;
+			}
+
+			Thread.sleep(Math.min(POLL_MILLIS, deadline - now));
+		}
+
+		Properties previous = readState();
+		stale = RETRIEVING.equals(previous.getProperty(STATE_KEY));
+		if (stale) log.warn("Previous holder {} of {} did not complete retrieval", getHolder(previous), lockFile);
+
+		return true;
+	}
+
+	/**
+	 * Releases the lock.
+	 */
+	public void release() {
+		try {
+			if (fileLock != null) {
+				writeState(RELEASED);
+				fileLock.release();
+			}
+		} catch (IOException e) {
+			log.error("Could not release lock on {}", lockFile, e);
+		} finally {
+			fileLock = null;
+			close();
+			if (jvmLock.isHeldByCurrentThread()) jvmLock.unlock();
+		}
+	}
+
+	/**
+	 * Returns true if the lock was held by another thread or process when first
+	 * requested.
+	 *
+	 * @return true, if waited
+	 */
+	public boolean hasWaited() {
+		return waited;
+	}
+
+	/**
+	 * Returns true if the previous holder of the lock did not complete retrieval.
+	 *
+	 * @return true, if is stale
+	 */
+	public boolean isStale() {
+		return stale;
+	}
+
+	/**
+	 * Gets the lock file.
+	 *
+	 * @return the lock file
+	 */
+	public File getLockFile() {
+		return lockFile;
+	}
+
+	private void writeState(String state) throws IOException {
+		if (fileLock == null) return;
+
+		Properties props = new Properties();
+		props.setProperty(HOLDER_KEY, ManagementFactory.getRuntimeMXBean().getName());
+		props.setProperty(ACQUIRED_KEY, Long.toString(System.currentTimeMillis()));
+		props.setProperty(STATE_KEY, state);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		props.store(out, "Poison Ivy retrieval lock");
+
+		channel.truncate(0);
+		channel.write(ByteBuffer.wrap(out.toByteArray()), 0);
+		channel.force(false);
+	}
+
+	private Properties readState() {
+		Properties props = new Properties();
+		try {
+			ByteBuffer buf = ByteBuffer.allocate((int) Math.min(channel.size(), 4096));
+			channel.read(buf, 0);
+			props.load(new ByteArrayInputStream(buf.array(), 0, buf.position()));
+		} catch (IOException e) {
+			log.debug("Could not read {}", lockFile, e);
+		}
+
+		return props;
+	}
+
+	private String getHolder(Properties props) {
+		return props.getProperty(HOLDER_KEY, "an unknown process");
+	}
+
+	private void close() {
+		if (channel == null) return;
+
+		try {
+			channel.close();
+		} catch (IOException e) {
+			log.debug("Could not close {}", lockFile, e);
+		} finally {
+			channel = null;
+		}
+	}
+
+	private static synchronized ReentrantLock getJvmLock(String path) {
+		ReentrantLock lock = jvmLocks.get(path);
+		if (lock == null) {
+			lock = new ReentrantLock();
+			jvmLocks.put(path, lock);
+		}
+
+		return lock;
+	}
+}
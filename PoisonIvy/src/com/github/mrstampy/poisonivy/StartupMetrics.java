@@ -0,0 +1,350 @@
+/*
+ * Poison Ivy - Java Library Dependency Resolver and Application Launcher 
+ *
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.poisonivy;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records the duration of each phase of library retrieval and application
+ * launch, and counters such as the bytes downloaded and the exit codes of the
+ * processes run. The metrics are delivered to {@link StartupMetricsListener}s,
+ * can be registered as a JMX MBean and can be written to a JSON file.
+ *
+ * @see PoisonIvy#METRICS_PARM
+ */
+public class StartupMetrics implements StartupMetricsMBean {
+	private static final Logger log = LoggerFactory.getLogger(StartupMetrics.class);
+
+	/** The Constant OBJECT_NAME {@value #OBJECT_NAME}. */
+	public static final String OBJECT_NAME = "com.github.mrstampy.poisonivy:type=StartupMetrics";
+
+	/** Parsing of the arguments or {@value PoisonIvy#POISONIVY_CONFIG}. */
+	public static final String CONFIG_PHASE = "config";
+
+	/** Location, and extraction to temp files, of the ivy and settings files. */
+	public static final String EXTRACT_PHASE = "extract";
+
+	/** Parallel download of artifacts prior to retrieval. */
+	public static final String DOWNLOAD_PHASE = "download";
+
+	/** Import of a library bundle. */
+	public static final String IMPORT_PHASE = "import";
+
+	/** Ivy resolution and retrieval. */
+	public static final String RESOLVE_PHASE = "resolve";
+
+	/** Removal of source and javadoc artifacts. */
+	public static final String CLEAN_PHASE = "clean";
+
+	/** Management of Ivy's cache after resolution. */
+	public static final String CACHE_PHASE = "cache";
+
+	/** Probing of the latency of repository mirrors. */
+	public static final String PROBE_PHASE = "probe";
+
+	/** Library retrieval in its entirety. */
+	public static final String RETRIEVE_PHASE = "retrieve";
+
+	/** Verification of the retrieved libraries. */
+	public static final String VERIFY_PHASE = "verify";
+
+	/** Launch of the main class or jar. */
+	public static final String LAUNCH_PHASE = "launch";
+
+	/** The Constant BYTES_DOWNLOADED {@value #BYTES_DOWNLOADED}. */
+	public static final String BYTES_DOWNLOADED = "bytesDownloaded";
+
+	/** The Constant ARTIFACT_COUNT {@value #ARTIFACT_COUNT}. */
+	public static final String ARTIFACT_COUNT = "artifactCount";
+
+	/** The Constant ARTIFACTS_DOWNLOADED {@value #ARTIFACTS_DOWNLOADED}. */
+	public static final String ARTIFACTS_DOWNLOADED = "artifactsDownloaded";
+
+	/** The Constant CACHE_HITS {@value #CACHE_HITS}. */
+	public static final String CACHE_HITS = "cacheHits";
+
+	/** The Constant HEDGED_DOWNLOADS {@value #HEDGED_DOWNLOADS}. */
+	public static final String HEDGED_DOWNLOADS = "hedgedDownloads";
+
+	/** The Constant HEDGES_WON {@value #HEDGES_WON}. */
+	public static final String HEDGES_WON = "hedgesWon";
+
+	/** The Constant RESOLVER_EXIT_CODE {@value #RESOLVER_EXIT_CODE}. */
+	public static final String RESOLVER_EXIT_CODE = "resolverExitCode";
+
+	/** The Constant EXE_EXIT_CODE {@value #EXE_EXIT_CODE}. */
+	public static final String EXE_EXIT_CODE = "exeExitCode";
+
+	/**
+	 * The longest time in milliseconds output awaited delivery to an executable
+	 * listener, suffixed with the listener's index, ie. listenerMaxLag.0.
+	 */
+	public static final String LISTENER_MAX_LAG = "listenerMaxLag";
+
+	/**
+	 * The events dropped for a slow executable listener, suffixed with the
+	 * listener's index, ie. listenerDropped.0.
+	 */
+	public static final String LISTENER_DROPPED = "listenerDropped";
+
+	private Map<String, Long> phases = new LinkedHashMap<String, Long>();
+	private Map<String, Long> counters = new LinkedHashMap<String, Long>();
+
+	private List<StartupMetricsListener> listeners = new CopyOnWriteArrayList<StartupMetricsListener>();
+
+	/**
+	 * Instantiates a new startup metrics.
+	 */
+	public StartupMetrics() {
+		counters.put(RESOLVER_EXIT_CODE, -1L);
+		counters.put(EXE_EXIT_CODE, -1L);
+	}
+
+	/**
+	 * Adds the listener.
+	 *
+	 * @param l
+	 *          the l
+	 */
+	public void addListener(StartupMetricsListener l) {
+		if (l != null && !listeners.contains(l)) listeners.add(l);
+	}
+
+	/**
+	 * Removes the listener.
+	 *
+	 * @param l
+	 *          the l
+	 */
+	public void removeListener(StartupMetricsListener l) {
+		if (l != null) listeners.remove(l);
+	}
+
+	/**
+	 * Records the completion of a phase started at the specified
+	 * {@link System#nanoTime()}. Should the phase be repeated its durations are
+	 * summed.
+	 *
+	 * @param phase
+	 *          the phase
+	 * @param startNanos
+	 *          the start nanos
+	 */
+	public void phaseCompleted(String phase, long startNanos) {
+		long millis = (System.nanoTime() - startNanos) / 1000000;
+
+		synchronized (this) {
+			Long previous = phases.get(phase);
+			phases.put(phase, previous == null ? millis : previous + millis);
+		}
+
+		log.debug("Phase {} completed in {} ms", phase, millis);
+
+		for (StartupMetricsListener l : listeners) {
+			l.phaseCompleted(phase, millis);
+		}
+	}
+
+	/**
+	 * Adds the value to the counter.
+	 *
+	 * @param counter
+	 *          the counter
+	 * @param value
+	 *          the value
+	 */
+	public void add(String counter, long value) {
+		long total;
+		synchronized (this) {
+			Long previous = counters.get(counter);
+			total = previous == null ? value : previous + value;
+			counters.put(counter, total);
+		}
+
+		notifyCounter(counter, total);
+	}
+
+	/**
+	 * Sets the counter.
+	 *
+	 * @param counter
+	 *          the counter
+	 * @param value
+	 *          the value
+	 */
+	public void set(String counter, long value) {
+		synchronized (this) {
+			counters.put(counter, value);
+		}
+
+		notifyCounter(counter, value);
+	}
+
+	/**
+	 * Sets the counter should the value exceed it.
+	 *
+	 * @param counter
+	 *          the counter
+	 * @param value
+	 *          the value
+	 */
+	public void max(String counter, long value) {
+		synchronized (this) {
+			Long previous = counters.get(counter);
+			if (previous != null && previous >= value) return;
+
+			counters.put(counter, value);
+		}
+
+		notifyCounter(counter, value);
+	}
+
+	private void notifyCounter(String counter, long value) {
+		for (StartupMetricsListener l : listeners) {
+			l.counterUpdated(counter, value);
+		}
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server as
+	 * {@value #OBJECT_NAME}, replacing any metrics previously registered.
+	 */
+	public void registerMBean() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+
+			if (server.isRegistered(name)) server.unregisterMBean(name);
+
+			server.registerMBean(this, name);
+		} catch (Exception e) {
+			log.error("Could not register {}", OBJECT_NAME, e);
+		}
+	}
+
+	/**
+	 * Writes the metrics as JSON to the file.
+	 *
+	 * @param file
+	 *          the file
+	 */
+	public void writeJson(File file) {
+		Writer writer = null;
+		try {
+			writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+			writer.write(toJson());
+		} catch (IOException e) {
+			log.error("Could not write metrics to {}", file.getAbsolutePath(), e);
+		} finally {
+			try {
+				if (writer != null) writer.close();
+			} catch (IOException e) {
+				log.debug("Could not close {}", file.getAbsolutePath(), e);
+			}
+		}
+	}
+
+	@Override
+	public synchronized Map<String, Long> getPhaseDurations() {
+		return Collections.unmodifiableMap(new LinkedHashMap<String, Long>(phases));
+	}
+
+	@Override
+	public synchronized Map<String, Long> getCounters() {
+		return Collections.unmodifiableMap(new LinkedHashMap<String, Long>(counters));
+	}
+
+	@Override
+	public long getBytesDownloaded() {
+		return getCounter(BYTES_DOWNLOADED);
+	}
+
+	@Override
+	public long getArtifactCount() {
+		return getCounter(ARTIFACT_COUNT);
+	}
+
+	@Override
+	public long getCacheHits() {
+		return Math.max(0, getArtifactCount() - getCounter(ARTIFACTS_DOWNLOADED));
+	}
+
+	@Override
+	public long getResolverExitCode() {
+		return getCounter(RESOLVER_EXIT_CODE);
+	}
+
+	@Override
+	public long getExeExitCode() {
+		return getCounter(EXE_EXIT_CODE);
+	}
+
+	private synchronized long getCounter(String counter) {
+		Long value = counters.get(counter);
+
+		return value == null ? 0 : value;
+	}
+
+	@Override
+	public String toJson() {
+		Map<String, Long> counters = new LinkedHashMap<String, Long>(getCounters());
+		counters.put(CACHE_HITS, getCacheHits());
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\n  \"phases\": ");
+		appendJson(sb, getPhaseDurations());
+		sb.append(",\n  \"counters\": ");
+		appendJson(sb, counters);
+		sb.append("\n}\n");
+
+		return sb.toString();
+	}
+
+	private void appendJson(StringBuilder sb, Map<String, Long> map) {
+		sb.append("{");
+
+		boolean first = true;
+		for (Entry<String, Long> e : map.entrySet()) {
+			if (!first) sb.append(",");
+			sb.append("\n    \"").append(e.getKey()).append("\": ").append(e.getValue());
+			first = false;
+		}
+
+		sb.append(map.isEmpty() ? "}" : "\n  }");
+	}
+}
@@ -0,0 +1,52 @@
+/*
+ * Poison Ivy - Java Library Dependency Resolver and Application Launcher 
+ *
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.poisonivy;
+
+/**
+ * The listener interface for receiving startup metrics. The class that is
+ * interested in the duration of each phase of library retrieval and
+ * application launch implements this interface, and the object created with
+ * that class is registered using {@link PoisonIvy#addMetricsListener(StartupMetricsListener)}.
+ * 
+ * @see StartupMetrics
+ */
+public interface StartupMetricsListener {
+
+	/**
+	 * Called when a phase has completed.
+	 * 
+	 * @param phase
+	 *          the phase
+	 * @param durationMillis
+	 *          the duration of the phase in milliseconds
+	 */
+	void phaseCompleted(String phase, long durationMillis);
+
+	/**
+	 * Called when a counter has changed.
+	 * 
+	 * @param counter
+	 *          the counter
+	 * @param value
+	 *          the new value
+	 */
+	void counterUpdated(String counter, long value);
+}
@@ -0,0 +1,86 @@
+/*
+ * Poison Ivy - Java Library Dependency Resolver and Application Launcher 
+ *
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.poisonivy;
+
+import java.util.Map;
+
+/**
+ * JMX management interface of the {@link StartupMetrics}.
+ */
+public interface StartupMetricsMBean {
+
+	/**
+	 * Gets the duration in milliseconds of each phase completed, keyed by phase.
+	 * 
+	 * @return the phase durations
+	 */
+	Map<String, Long> getPhaseDurations();
+
+	/**
+	 * Gets the values of the counters, keyed by counter.
+	 * 
+	 * @return the counters
+	 */
+	Map<String, Long> getCounters();
+
+	/**
+	 * Gets the number of bytes downloaded.
+	 * 
+	 * @return the bytes downloaded
+	 */
+	long getBytesDownloaded();
+
+	/**
+	 * Gets the number of artifacts resolved.
+	 * 
+	 * @return the artifact count
+	 */
+	long getArtifactCount();
+
+	/**
+	 * Gets the number of artifacts resolved from the Ivy cache.
+	 * 
+	 * @return the cache hits
+	 */
+	long getCacheHits();
+
+	/**
+	 * Gets the exit code of the Ivy process, -1 if not run or not yet exited.
+	 * 
+	 * @return the resolver exit code
+	 */
+	long getResolverExitCode();
+
+	/**
+	 * Gets the exit code of the executed process, -1 if not run or not yet
+	 * exited.
+	 * 
+	 * @return the exe exit code
+	 */
+	long getExeExitCode();
+
+	/**
+	 * Returns the metrics as a JSON object.
+	 * 
+	 * @return the string
+	 */
+	String toJson();
+}
@@ -0,0 +1,628 @@
+/*
+ * Poison Ivy - Java Library Dependency Resolver and Application Launcher 
+ *
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.poisonivy;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Supervises a long running application launched in a separate process,
+ * restarting it should it exit according to the restart policy, with an
+ * exponential backoff between restarts.<br>
+ * <br>
+ * The ivy and ivy settings files are watched for changes. On change the
+ * libraries are resolved into an update directory beside the library
+ * directory while the application runs, and should they have changed a second
+ * instance of the application is started from them. Once the new instance is
+ * ready, ie. has written a line matching the readiness pattern, the library
+ * directory is replaced with the update and the previous instance is stopped.
+ * Should the new instance not become ready the update is discarded and the
+ * previous instance continues.<br>
+ * <br>
+ * Both instances run at once until the new instance is ready, so the
+ * application must tolerate a second instance, eg. one not binding fixed
+ * ports. Should the new instance exit before becoming ready, as it would
+ * failing to bind a port held by the previous instance, the previous instance
+ * is stopped and the new instance started alone. Should it still not become
+ * ready the update is discarded and the previous libraries started again.<br>
+ * <br>
+ * Each instance runs from its own generation directory of links to the
+ * libraries, so replacing the library directory does not disturb a running
+ * instance.
+ *
+ * @see PoisonIvy#SUPERVISE_PARM
+ */
+class Supervisor {
+	private static final Logger log = LoggerFactory.getLogger(Supervisor.class);
+
+	/** Restart the application whenever it exits. */
+	public static final String ALWAYS = "always";
+
+	/** Restart the application should it exit with a non zero exit code. */
+	public static final String ON_FAILURE = "on-failure";
+
+	/** Do not restart the application. */
+	public static final String NEVER = "never";
+
+	/** The Constant DEFAULT_INITIAL_BACKOFF {@value #DEFAULT_INITIAL_BACKOFF} seconds. */
+	public static final int DEFAULT_INITIAL_BACKOFF = 1;
+
+	/** The Constant DEFAULT_MAX_BACKOFF {@value #DEFAULT_MAX_BACKOFF} seconds. */
+	public static final int DEFAULT_MAX_BACKOFF = 60;
+
+	/** The Constant DEFAULT_READY_TIMEOUT {@value #DEFAULT_READY_TIMEOUT} seconds. */
+	public static final int DEFAULT_READY_TIMEOUT = 60;
+
+	/** The Constant DEFAULT_STOP_TIMEOUT {@value #DEFAULT_STOP_TIMEOUT} seconds. */
+	public static final int DEFAULT_STOP_TIMEOUT = 30;
+
+	/** The Constant GENERATION_SFX {@value #GENERATION_SFX}. */
+	public static final String GENERATION_SFX = ".gen";
+
+	private static final long WATCH_MILLIS = 1000;
+	private static final long UNGATED_READY_MILLIS = 5000;
+
+	/**
+	 * Creates the command launching the application with the classpath
+	 * specified.
+	 */
+	interface CommandFactory {
+
+		/**
+		 * Gets the command.
+		 *
+		 * @param classpath
+		 *          the classpath
+		 * @return the command
+		 */
+		String[] getCommand(String classpath);
+	}
+
+	private IvyLibraryRetriever retriever;
+	private String ivyfile;
+	private String ivysettings;
+	private CommandFactory commandFactory;
+	private List<ProcessListener> listeners = new ArrayList<ProcessListener>();
+
+	private String restartPolicy = ON_FAILURE;
+	private Set<Integer> stopExitCodes = new HashSet<Integer>();
+	private int initialBackoff = DEFAULT_INITIAL_BACKOFF;
+	private int maxBackoff = DEFAULT_MAX_BACKOFF;
+	private Pattern readyPattern;
+	private int readyTimeout = DEFAULT_READY_TIMEOUT;
+	private int stopTimeout = DEFAULT_STOP_TIMEOUT;
+	private ProcessSampler sampler;
+
+	private File libdir;
+	private int generation;
+	private List<File> watched = new ArrayList<File>();
+	private List<Long> modified = new ArrayList<Long>();
+
+	private Thread thread;
+	private volatile boolean stopped;
+
+	/**
+	 * Instantiates a new supervisor.
+	 *
+	 * @param retriever
+	 *          the retriever of the libraries
+	 * @param ivyfile
+	 *          the ivyfile, null for {@value IvyLibraryRetriever#IVY_XML}
+	 * @param ivysettings
+	 *          the ivysettings, may be null
+	 * @param commandFactory
+	 *          the command factory
+	 * @param listeners
+	 *          the listeners to the application's output
+	 */
+	public Supervisor(IvyLibraryRetriever retriever, String ivyfile, String ivysettings,
+			CommandFactory commandFactory, List<ProcessListener> listeners) {
+		this.retriever = retriever;
+		this.ivyfile = ivyfile;
+		this.ivysettings = ivysettings;
+		this.commandFactory = commandFactory;
+		if (listeners != null) this.listeners.addAll(listeners);
+
+		libdir = new File(retriever.getLibdir()).getAbsoluteFile().toPath().normalize().toFile();
+
+		watch(ivyfile == null ? IvyLibraryRetriever.IVY_XML : ivyfile);
+		if (ivysettings != null) watch(ivysettings);
+	}
+
+	private void watch(String fileName) {
+		File file = new File(fileName);
+		if (!file.isFile()) return;
+
+		watched.add(file);
+		modified.add(file.lastModified());
+	}
+
+	/**
+	 * Starts the application and supervises it on a new thread.
+	 */
+	public void start() {
+		thread = new Thread("Supervisor thread") {
+			public void run() {
+				try {
+					supervise();
+				} catch (InterruptedException e) {
+					log.debug("Supervisor interrupted", e);
+				} catch (Exception e) {
+					log.error("Unexpected exception supervising the application", e);
+				}
+			}
+		};
+
+		Runtime.getRuntime().addShutdownHook(new Thread("Supervisor shutdown thread") {
+			public void run() {
+				Supervisor.this.stop();
+			}
+		});
+
+		thread.start();
+	}
+
+	/**
+	 * Stops the application and the supervision.
+	 */
+	public void stop() {
+		stopped = true;
+
+		if (thread == null || Thread.currentThread() == thread) return;
+
+		thread.interrupt();
+		try {
+			thread.join(stopTimeout * 1000L + WATCH_MILLIS);
+		} catch (InterruptedException e) {
+			log.debug("Interrupted awaiting supervisor", e);
+		}
+	}
+
+	private void supervise() throws Exception {
+		removeGenerations();
+
+		Child child = launch(libdir);
+		long backoff = initialBackoff * 1000L;
+		boolean changed = false;
+
+		try {
+			while (!stopped) {
+				if (child.awaitExit(WATCH_MILLIS)) {
+					int code = child.getExitCode();
+					if (!isRestarted(code)) {
+						log.info("Application exited with {}, not restarted", code);
+						return;
+					}
+
+					if (child.getRunningMillis() > maxBackoff * 1000L) backoff = initialBackoff * 1000L;
+
+					log.warn("Application exited with {}, restarting in {} ms", code, backoff);
+					Thread.sleep(backoff);
+					backoff = Math.min(backoff * 2, maxBackoff * 1000L);
+
+					child = launch(libdir);
+					continue;
+				}
+
+				if (watchedFilesChanged()) {
+					changed = true;
+				} else if (changed) {
+					changed = false;
+					child = update(child);
+				}
+			}
+		} finally {
+			Thread.interrupted();
+			child.stop();
+		}
+	}
+
+	private Child update(Child current) throws Exception {
+		log.info("Dependencies changed, retrieving libraries");
+
+		LibraryUpdate update;
+		try {
+			update = retriever.retrieveUpdate(false, ivyfile, ivysettings);
+		} catch (Exception e) {
+			log.error("Could not retrieve libraries, continuing with the current libraries", e);
+			return current;
+		}
+
+		if (update == null) return current;
+
+		Child next = launch(update.getUpdateDir());
+		if (next.awaitReady()) {
+			if (!promote(update, next)) return current;
+
+			log.info("Updated application ready, stopping the previous application");
+			current.stop();
+
+			return next;
+		}
+
+		boolean exited = next.isExited();
+		next.stop();
+
+		if (stopped || !exited || current.isExited()) {
+			log.error("Updated application did not become ready, continuing with the current libraries");
+			update.discard();
+			return current;
+		}
+
+		log.warn("Updated application exited alongside the previous application, stopping the previous application");
+		current.stop();
+
+		next = launch(update.getUpdateDir());
+		if (next.awaitReady()) {
+			if (!promote(update, next)) return launch(libdir);
+
+			log.info("Updated application ready");
+
+			return next;
+		}
+
+		log.error("Updated application did not become ready, restarting with the current libraries");
+		next.stop();
+		update.discard();
+
+		return launch(libdir);
+	}
+
+	/**
+	 * Replaces the library directory with the update, stopping the updated
+	 * application and discarding the update should that fail, as the
+	 * application would otherwise be restarted from the previous libraries.
+	 */
+	private boolean promote(LibraryUpdate update, Child next) throws InterruptedException {
+		try {
+			if (retriever.promoteUpdate(update)) return true;
+
+			log.error("Could not promote the library update, continuing with the current libraries");
+		} catch (Exception e) {
+			log.error("Could not promote the library update, continuing with the current libraries", e);
+		}
+
+		next.stop();
+		update.discard();
+
+		return false;
+	}
+
+	private Child launch(File dir) throws IOException {
+		File gen = new File(libdir.getParentFile(), libdir.getName() + GENERATION_SFX + (++generation));
+		link(dir, gen);
+
+		String[] command = commandFactory.getCommand(getClasspath(gen));
+		log.debug("Launching generation {}: {}", generation, Arrays.toString(command));
+
+		return new Child(gen, command);
+	}
+
+	private boolean isRestarted(int code) {
+		if (stopped || stopExitCodes.contains(code)) return false;
+
+		if (ALWAYS.equals(restartPolicy)) return true;
+
+		return ON_FAILURE.equals(restartPolicy) && code != 0;
+	}
+
+	private boolean watchedFilesChanged() {
+		boolean changed = false;
+		for (int i = 0; i < watched.size(); i++) {
+			long lastModified = watched.get(i).lastModified();
+			if (lastModified != modified.get(i)) {
+				modified.set(i, lastModified);
+				changed = true;
+			}
+		}
+
+		return changed;
+	}
+
+	/**
+	 * Returns the classpath of the running JVM, its entries within the library
+	 * directory replaced by the libraries of the generation directory.
+	 */
+	private String getClasspath(File gen) throws IOException {
+		List<String> entries = new ArrayList<String>();
+		for (File lib : getLibraries(gen)) {
+			entries.add(lib.getPath());
+		}
+
+		String canonicalLibdir = libdir.getCanonicalPath();
+		for (String entry : IvyLibraryRetriever.getClasspath().split(File.pathSeparator)) {
+			if (entry.length() == 0) continue;
+
+			File parent = new File(entry).getAbsoluteFile().getParentFile();
+			if (parent != null && canonicalLibdir.equals(parent.getCanonicalPath())) continue;
+
+			entries.add(entry);
+		}
+
+		StringBuilder sb = new StringBuilder();
+		for (String entry : entries) {
+			if (sb.length() > 0) sb.append(File.pathSeparator);
+			sb.append(entry);
+		}
+
+		return sb.toString();
+	}
+
+	private List<File> getLibraries(File dir) {
+		List<File> libs = new ArrayList<File>();
+
+		File[] files = dir.listFiles();
+		if (files == null) return libs;
+
+		Arrays.sort(files);
+		for (File f : files) {
+			if (f.isDirectory()) {
+				libs.addAll(getLibraries(f));
+			} else if (f.getName().endsWith(".jar")) {
+				libs.add(f);
+			}
+		}
+
+		return libs;
+	}
+
+	private void link(File from, File to) throws IOException {
+		if (!to.mkdirs()) throw new IOException("Could not create " + to);
+
+		File[] files = from.listFiles();
+		if (files == null) return;
+
+		for (File f : files) {
+			File linked = new File(to, f.getName());
+			if (f.isDirectory()) {
+				link(f, linked);
+				continue;
+			}
+
+			try {
+				Files.createLink(linked.toPath(), f.toPath());
+			} catch (IOException e) {
+				log.debug("Could not link {}, copying", f, e);
+				Files.copy(f.toPath(), linked.toPath());
+			} catch (UnsupportedOperationException e) {
+				Files.copy(f.toPath(), linked.toPath());
+			}
+		}
+	}
+
+	private void removeGenerations() {
+		File[] files = libdir.getParentFile().listFiles();
+		if (files == null) return;
+
+		String prefix = libdir.getName() + GENERATION_SFX;
+		for (File f : files) {
+			if (f.isDirectory() && f.getName().startsWith(prefix)) IncrementalRetrieval.deleteRecursively(f);
+		}
+	}
+
+	/**
+	 * Gets the restart policy.
+	 *
+	 * @return the restart policy
+	 */
+	public String getRestartPolicy() {
+		return restartPolicy;
+	}
+
+	/**
+	 * Sets the restart policy, one of {@value #ALWAYS}, {@value #ON_FAILURE} or
+	 * {@value #NEVER}, default {@value #ON_FAILURE}.
+	 *
+	 * @param restartPolicy
+	 *          the new restart policy
+	 */
+	public void setRestartPolicy(String restartPolicy) {
+		if (!ALWAYS.equals(restartPolicy) && !ON_FAILURE.equals(restartPolicy) && !NEVER.equals(restartPolicy)) {
+			throw new IllegalArgumentException("Unknown restart policy " + restartPolicy);
+		}
+
+		this.restartPolicy = restartPolicy;
+	}
+
+	/**
+	 * Sets the exit codes upon which the application is not restarted
+	 * regardless of the restart policy.
+	 *
+	 * @param codes
+	 *          the codes
+	 */
+	public void setStopExitCodes(Integer... codes) {
+		stopExitCodes.clear();
+		stopExitCodes.addAll(Arrays.asList(codes));
+	}
+
+	/**
+	 * Sets the delay in seconds before the first restart, doubling with each
+	 * successive restart, default {@value #DEFAULT_INITIAL_BACKOFF}.
+	 *
+	 * @param initialBackoff
+	 *          the new initial backoff
+	 */
+	public void setInitialBackoff(int initialBackoff) {
+		this.initialBackoff = initialBackoff;
+	}
+
+	/**
+	 * Sets the maximum delay in seconds between restarts, default
+	 * {@value #DEFAULT_MAX_BACKOFF}. The delay is reset should the application
+	 * run for longer than the maximum.
+	 *
+	 * @param maxBackoff
+	 *          the new max backoff
+	 */
+	public void setMaxBackoff(int maxBackoff) {
+		this.maxBackoff = maxBackoff;
+	}
+
+	/**
+	 * Sets the regular expression matching a line of output with which the
+	 * application signals it is ready. Should none be set the application is
+	 * considered ready once it has run for five seconds.
+	 *
+	 * @param readyPattern
+	 *          the new ready pattern
+	 */
+	public void setReadyPattern(String readyPattern) {
+		this.readyPattern = readyPattern == null ? null : Pattern.compile(readyPattern);
+	}
+
+	/**
+	 * Sets the time in seconds to wait for an updated application to become
+	 * ready, default {@value #DEFAULT_READY_TIMEOUT}.
+	 *
+	 * @param readyTimeout
+	 *          the new ready timeout
+	 */
+	public void setReadyTimeout(int readyTimeout) {
+		this.readyTimeout = readyTimeout;
+	}
+
+	/**
+	 * Sets the time in seconds to wait for the application to exit once
+	 * stopped before it is killed, default {@value #DEFAULT_STOP_TIMEOUT}.
+	 *
+	 * @param stopTimeout
+	 *          the new stop timeout
+	 */
+	public void setStopTimeout(int stopTimeout) {
+		this.stopTimeout = stopTimeout;
+	}
+
+	/**
+	 * Sets the sampler of the application's resource usage, null for none.
+	 *
+	 * @param sampler
+	 *          the new sampler
+	 */
+	public void setSampler(ProcessSampler sampler) {
+		this.sampler = sampler;
+	}
+
+	/**
+	 * An instance of the application running from a generation directory.
+	 */
+	private class Child implements ProcessListener {
+		private File gen;
+		private ProcessContainer pc;
+		private long started = System.currentTimeMillis();
+		private CountDownLatch ready = new CountDownLatch(1);
+		private StringBuilder outLine = new StringBuilder();
+		private StringBuilder errLine = new StringBuilder();
+
+		public Child(File gen, String[] command) throws IOException {
+			this.gen = gen;
+
+			// scanned on the reading threads, the readiness line is never dropped
+			pc = new ProcessContainer(Runtime.getRuntime().exec(command), listeners, readyPattern == null ? null : this);
+			if (sampler != null) sampler.add(pc);
+		}
+
+		public boolean awaitExit(long millis) throws InterruptedException {
+			if (!pc.getProcess().waitFor(millis, TimeUnit.MILLISECONDS)) return false;
+
+			pc.waitFor();
+			IncrementalRetrieval.deleteRecursively(gen);
+
+			return true;
+		}
+
+		public boolean awaitReady() throws InterruptedException {
+			long timeout = readyPattern == null ? Math.min(UNGATED_READY_MILLIS, readyTimeout * 1000L)
+					: readyTimeout * 1000L;
+			long deadline = System.currentTimeMillis() + timeout;
+
+			while (!stopped && pc.getProcess().isAlive()) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) return readyPattern == null;
+
+				if (ready.await(Math.min(remaining, WATCH_MILLIS), TimeUnit.MILLISECONDS)) return true;
+			}
+
+			return false;
+		}
+
+		public void stop() throws InterruptedException {
+			Process p = pc.getProcess();
+			p.destroy();
+
+			if (!p.waitFor(stopTimeout, TimeUnit.SECONDS)) {
+				log.warn("Application did not stop within {} seconds, killing", stopTimeout);
+				p.destroyForcibly();
+			}
+
+			awaitExit(stopTimeout * 1000L);
+		}
+
+		public int getExitCode() {
+			return pc.getProcess().exitValue();
+		}
+
+		public boolean isExited() {
+			return !pc.getProcess().isAlive();
+		}
+
+		public long getRunningMillis() {
+			return System.currentTimeMillis() - started;
+		}
+
+		@Override
+		public void output(String out) {
+			scan(out, outLine);
+		}
+
+		@Override
+		public void error(String err) {
+			scan(err, errLine);
+		}
+
+		// each stream is scanned on its own thread
+		private void scan(String s, StringBuilder line) {
+			if (ready.getCount() == 0) return;
+
+			for (char c : s.toCharArray()) {
+				if (c != '\n') {
+					line.append(c);
+					continue;
+				}
+
+				if (readyPattern.matcher(line).find()) ready.countDown();
+				line.setLength(0);
+			}
+		}
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * Poison Ivy - Java Library Dependency Resolver and Application Launcher 
+ *
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.poisonivy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+/**
+ * Tests the selection of artifacts by type and classifier.
+ */
+public class ArtifactPatternsTest {
+
+	private static final List<String> NONE = Collections.emptyList();
+
+	@Test
+	public void testEmptyAcceptsAll() {
+		ArtifactPatterns patterns = new ArtifactPatterns(NONE, NONE);
+
+		assertTrue(patterns.isEmpty());
+		assertTrue(patterns.accept("jar", null));
+		assertTrue(patterns.accept("source", "sources"));
+		assertNull(patterns.getExcludeRegex());
+	}
+
+	@Test
+	public void testSourcesAndJavadocExcluded() {
+		ArtifactPatterns patterns = new ArtifactPatterns(NONE, Arrays.asList(ArtifactPatterns.SOURCES_AND_JAVADOC));
+
+		assertTrue(patterns.accept("jar", null));
+		assertTrue(patterns.accept("bundle", null));
+		assertFalse(patterns.accept("source", "sources"));
+		assertFalse(patterns.accept("javadoc", "javadoc"));
+		assertFalse(patterns.accept("jar", "sources"));
+	}
+
+	@Test
+	public void testIncludes() {
+		ArtifactPatterns patterns = new ArtifactPatterns(Arrays.asList("jar", "bundle"), NONE);
+
+		assertTrue(patterns.accept("jar", null));
+		assertTrue(patterns.accept("bundle", null));
+		assertFalse(patterns.accept("pom", null));
+		assertTrue(patterns.accept("zip", "jar"));
+	}
+
+	@Test
+	public void testExcludeOverridesInclude() {
+		ArtifactPatterns patterns = new ArtifactPatterns(Arrays.asList("jar"), Arrays.asList("tests"));
+
+		assertTrue(patterns.accept("jar", null));
+		assertFalse(patterns.accept("jar", "tests"));
+	}
+
+	@Test
+	public void testWildcards() {
+		ArtifactPatterns patterns = new ArtifactPatterns(NONE, Arrays.asList("native-*", "test?"));
+
+		assertFalse(patterns.accept("jar", "native-linux"));
+		assertFalse(patterns.accept("jar", "tests"));
+		assertTrue(patterns.accept("jar", "test"));
+		assertTrue(patterns.accept("jar", "natives"));
+	}
+
+	@Test
+	public void testPatternsAreNotRegularExpressions() {
+		ArtifactPatterns patterns = new ArtifactPatterns(NONE, Arrays.asList("a.b"));
+
+		assertFalse(patterns.accept("a.b", null));
+		assertTrue(patterns.accept("axb", null));
+	}
+
+	@Test
+	public void testExcludedName() {
+		ArtifactPatterns patterns = new ArtifactPatterns(NONE, Arrays.asList("sources", "javadoc"));
+
+		assertTrue(patterns.isExcludedName("lib-1.0-sources.jar"));
+		assertTrue(patterns.isExcludedName("lib-1.0-javadoc.jar"));
+		assertFalse(patterns.isExcludedName("lib-1.0.jar"));
+		assertFalse(patterns.isExcludedName("sources.jar"));
+	}
+
+	@Test
+	public void testExcludeRegex() {
+		ArtifactPatterns patterns = new ArtifactPatterns(NONE, Arrays.asList("source", "doc*"));
+		Pattern regex = Pattern.compile(patterns.getExcludeRegex());
+
+		assertTrue(regex.matcher("source").matches());
+		assertTrue(regex.matcher("docs").matches());
+		assertFalse(regex.matcher("sources").matches());
+		assertFalse(regex.matcher("jar").matches());
+	}
+
+	@Test
+	public void testSplit() {
+		assertEquals(Arrays.asList("a", "b"), ArtifactPatterns.split(" a, ,b "));
+		assertTrue(ArtifactPatterns.split(null).isEmpty());
+	}
+}
@@ -0,0 +1,165 @@
+/*
+ * Poison Ivy - Java Library Dependency Resolver and Application Launcher 
+ *
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.poisonivy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests the sizing of launched JVMs against fake cgroup v1 and v2 file
+ * systems.
+ */
+public class ContainerSizingTest {
+
+	private static final long MB = 1024 * 1024;
+	private static final List<String> NONE = Collections.emptyList();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testUnifiedLimits() throws IOException {
+		File root = folder.getRoot();
+		write(root, "cgroup.controllers", "cpu memory");
+		write(root, "cpu.max", "150000 100000");
+		write(root, "cpuset.cpus.effective", "0-3");
+		write(root, "memory.max", Long.toString(1024 * MB));
+
+		ContainerSizing sizing = new ContainerSizing(root, 8, 16384 * MB);
+
+		assertEquals(2, sizing.getProcessors());
+		assertEquals(1024 * MB, sizing.getMemory());
+		assertFalse(sizing.isServerClass());
+		assertEquals(
+				Arrays.asList("-Xmx512m", "-XX:MaxMetaspaceSize=102m", "-XX:+UseSerialGC", "-XX:ActiveProcessorCount=2"),
+				sizing.getJvmOptions(NONE));
+	}
+
+	@Test
+	public void testUnifiedUnlimited() throws IOException {
+		File root = folder.getRoot();
+		write(root, "cgroup.controllers", "cpu memory");
+		write(root, "cpu.max", "max 100000");
+		write(root, "memory.max", "max");
+
+		ContainerSizing sizing = new ContainerSizing(root, 8, 4096 * MB);
+
+		assertEquals(8, sizing.getProcessors());
+		assertEquals(4096 * MB, sizing.getMemory());
+		assertTrue(sizing.isServerClass());
+		assertEquals(
+				Arrays.asList("-Xmx3072m", "-XX:MaxMetaspaceSize=409m", "-XX:+UseG1GC", "-XX:ActiveProcessorCount=8"),
+				sizing.getJvmOptions(NONE));
+	}
+
+	@Test
+	public void testLegacyLimits() throws IOException {
+		File root = folder.getRoot();
+		write(root, "cpu,cpuacct/cpu.cfs_quota_us", "50000");
+		write(root, "cpu,cpuacct/cpu.cfs_period_us", "100000");
+		write(root, "memory/memory.limit_in_bytes", Long.toString(512 * MB));
+
+		ContainerSizing sizing = new ContainerSizing(root, 4, Long.MAX_VALUE);
+
+		assertEquals(1, sizing.getProcessors());
+		assertEquals(512 * MB, sizing.getMemory());
+		assertEquals(256 * MB, sizing.getHeap());
+		assertEquals(64 * MB, sizing.getMetaspace());
+	}
+
+	@Test
+	public void testLegacyUnlimited() throws IOException {
+		File root = folder.getRoot();
+		write(root, "cpu/cpu.cfs_quota_us", "-1");
+		write(root, "cpu/cpu.cfs_period_us", "100000");
+		write(root, "cpuset/cpuset.cpus", "0,2");
+		write(root, "memory/memory.limit_in_bytes", "9223372036854771712");
+
+		ContainerSizing sizing = new ContainerSizing(root, 4, Long.MAX_VALUE);
+
+		assertEquals(2, sizing.getProcessors());
+		assertEquals(Long.MAX_VALUE, sizing.getMemory());
+		assertEquals(Arrays.asList("-XX:+UseG1GC", "-XX:ActiveProcessorCount=2"), sizing.getJvmOptions(NONE));
+	}
+
+	@Test
+	public void testNoCgroups() {
+		ContainerSizing sizing = new ContainerSizing(new File(folder.getRoot(), "missing"), 4, 8192 * MB);
+
+		assertEquals(4, sizing.getProcessors());
+		assertEquals(8192 * MB, sizing.getMemory());
+	}
+
+	@Test
+	public void testUnreadableLimitsSizeForHost() throws IOException {
+		File root = folder.getRoot();
+		write(root, "cgroup.controllers", "cpu memory");
+		write(root, "memory.max", "lots");
+
+		ContainerSizing sizing = new ContainerSizing(root, 4, 8192 * MB);
+
+		assertEquals(4, sizing.getProcessors());
+		assertEquals(8192 * MB, sizing.getMemory());
+	}
+
+	@Test
+	public void testExplicitOptionsNotOverridden() throws IOException {
+		File root = folder.getRoot();
+		write(root, "cgroup.controllers", "cpu memory");
+		write(root, "memory.max", Long.toString(2048 * MB));
+
+		ContainerSizing sizing = new ContainerSizing(root, 4, 8192 * MB);
+
+		List<String> explicit = Arrays.asList("-Xmx1g", "-XX:+UseZGC", "-XX:ActiveProcessorCount=1");
+		assertEquals(Arrays.asList("-XX:MaxMetaspaceSize=204m"), sizing.getJvmOptions(explicit));
+	}
+
+	@Test
+	public void testShare() throws IOException {
+		File root = folder.getRoot();
+		write(root, "cgroup.controllers", "cpu memory");
+		write(root, "memory.max", Long.toString(4096 * MB));
+
+		ContainerSizing sizing = new ContainerSizing(root, 4, 8192 * MB);
+		sizing.share(3);
+
+		assertEquals(1, sizing.getProcessors());
+		assertEquals(4096 * MB / 3, sizing.getMemory());
+	}
+
+	private void write(File root, String path, String value) throws IOException {
+		File file = new File(root, path);
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), (value + "\n").getBytes("UTF-8"));
+	}
+}
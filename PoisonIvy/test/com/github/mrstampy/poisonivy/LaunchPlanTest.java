@@ -0,0 +1,112 @@
+/*
+ * Poison Ivy - Java Library Dependency Resolver and Application Launcher 
+ *
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.poisonivy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests the argument files and pathing jars written for launched processes.
+ */
+public class LaunchPlanTest {
+
+	private static final List<String> OPTIONS = Arrays.asList("-Xmx64m", "-Dname=a \"quoted\" value");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private String libdir;
+	private String classpath;
+
+	@Before
+	public void before() throws IOException {
+		libdir = folder.newFolder("ivylib").getAbsolutePath();
+		classpath = new File(libdir, "a.jar").getAbsolutePath() + File.pathSeparator
+				+ new File(libdir, "b c.jar").getAbsolutePath();
+	}
+
+	@Test
+	public void testArgfile() throws IOException {
+		assumeTrue(!System.getProperty("java.specification.version").startsWith("1."));
+
+		LaunchPlan plan = new LaunchPlan(libdir, "main", LaunchPlan.ARGFILE);
+		List<String> arguments = plan.getArguments(classpath, OPTIONS);
+
+		File file = new File(folder.getRoot(), "ivylib.main.args");
+		assertEquals(file, plan.getFile());
+		assertEquals(Arrays.asList("@" + file.getAbsolutePath()), arguments);
+
+		String expected = "-cp\n\"" + classpath + "\"\n\"-Xmx64m\"\n\"-Dname=a \\\"quoted\\\" value\"\n";
+		assertEquals(expected, new String(Files.readAllBytes(file.toPath()), "UTF-8"));
+	}
+
+	@Test
+	public void testPathingJar() throws IOException {
+		LaunchPlan plan = new LaunchPlan(libdir, "main", LaunchPlan.PATHING_JAR);
+		List<String> arguments = plan.getArguments(classpath, OPTIONS);
+
+		File file = new File(folder.getRoot(), "ivylib.main.jar");
+		assertEquals(file, plan.getFile());
+		assertEquals(Arrays.asList("-cp", file.getAbsolutePath(), "-Xmx64m", "-Dname=a \"quoted\" value"), arguments);
+
+		String expected = new File(libdir, "a.jar").toURI() + " " + new File(libdir, "b c.jar").toURI();
+		assertEquals(expected, getClassPath(file));
+	}
+
+	@Test
+	public void testRewrittenOnlyWhenChanged() throws IOException {
+		LaunchPlan plan = new LaunchPlan(libdir, "main", LaunchPlan.PATHING_JAR);
+		plan.getArguments(classpath, OPTIONS);
+
+		File file = plan.getFile();
+		assertTrue(file.setLastModified(0));
+
+		plan.getArguments(classpath, OPTIONS);
+		assertEquals(0, file.lastModified());
+
+		plan.getArguments(new File(libdir, "a.jar").getAbsolutePath(), OPTIONS);
+		assertTrue(file.lastModified() > 0);
+		assertEquals(new File(libdir, "a.jar").toURI().toString(), getClassPath(file));
+	}
+
+	private String getClassPath(File file) throws IOException {
+		JarFile jar = new JarFile(file);
+		try {
+			return jar.getManifest().getMainAttributes().getValue(Attributes.Name.CLASS_PATH);
+		} finally {
+			jar.close();
+		}
+	}
+}
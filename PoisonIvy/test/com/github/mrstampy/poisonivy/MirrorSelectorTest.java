@@ -0,0 +1,181 @@
+/*
+ * Poison Ivy - Java Library Dependency Resolver and Application Launcher 
+ *
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.poisonivy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.ivy.core.settings.IvySettings;
+import org.apache.ivy.plugins.resolver.ChainResolver;
+import org.apache.ivy.plugins.resolver.DependencyResolver;
+import org.apache.ivy.plugins.resolver.URLResolver;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests the ordering of mirrors by their recorded scores. The scores are
+ * recent, so that healthy mirrors are not probed; an unhealthy mirror is
+ * probed on a closed local port and remains unhealthy.
+ */
+public class MirrorSelectorTest {
+
+	private static final String PATTERN = "[organisation]/[module]/[revision]/[artifact]-[revision].[ext]";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File scores;
+	private Properties props = new Properties();
+
+	@Before
+	public void before() {
+		scores = new File(folder.getRoot(), "mirrors.properties");
+	}
+
+	@Test
+	public void testOrderedByLatency() throws Exception {
+		score("http://slow/", 500, 100, 0);
+		score("http://fast/", 20, 100, 0);
+
+		ChainResolver chain = select(names("slow", "fast"), "slow", "fast");
+
+		assertEquals(Arrays.asList("fast", "slow"), getNames(chain));
+	}
+
+	@Test
+	public void testOrderedByThroughput() throws Exception {
+		score("http://near/", 10, 10, 0);
+		score("http://wide/", 50, 10000, 0);
+
+		ChainResolver chain = select(names("near", "wide"), "near", "wide");
+
+		assertEquals(Arrays.asList("wide", "near"), getNames(chain));
+	}
+
+	@Test
+	public void testUnhealthyLast() throws Exception {
+		score("http://127.0.0.1:1/", 1, 100000, 2);
+		score("http://fast/", 20, 100, 0);
+
+		ChainResolver chain = select(names("failing", "fast"), "failing", "fast");
+
+		assertEquals(Arrays.asList("fast", "failing"), getNames(chain));
+	}
+
+	@Test
+	public void testUndeclaredKeepPosition() throws Exception {
+		score("http://slow/", 500, 100, 0);
+		score("http://fast/", 20, 100, 0);
+
+		ChainResolver chain = select(names("slow", "fast"), "slow", "other", "fast");
+
+		assertEquals(Arrays.asList("fast", "other", "slow"), getNames(chain));
+	}
+
+	@Test
+	public void testAlternate() throws Exception {
+		score("http://slow/", 500, 100, 0);
+		score("http://fast/", 20, 100, 0);
+
+		MirrorSelector selector = new MirrorSelector(scores, names("slow", "fast"), 1000);
+		selector.select(settings(chain("slow", "fast")));
+
+		assertEquals(new URL("http://fast/org/mod/1.0/mod-1.0.jar"),
+				selector.getAlternate(new URL("http://slow/org/mod/1.0/mod-1.0.jar")));
+		assertEquals(new URL("http://slow/org/mod/1.0/mod-1.0.jar"),
+				selector.getAlternate(new URL("http://fast/org/mod/1.0/mod-1.0.jar")));
+		assertNull(selector.getAlternate(new URL("http://other/org/mod/1.0/mod-1.0.jar")));
+
+		selector.failed(new URL("http://fast/org/mod/1.0/mod-1.0.jar"));
+		assertNull(selector.getAlternate(new URL("http://slow/org/mod/1.0/mod-1.0.jar")));
+	}
+
+	private ChainResolver select(List<String> mirrors, String... resolvers) throws Exception {
+		ChainResolver chain = chain(resolvers);
+		new MirrorSelector(scores, mirrors, 1000).select(settings(chain));
+
+		return chain;
+	}
+
+	private IvySettings settings(ChainResolver chain) {
+		IvySettings settings = new IvySettings();
+		settings.addResolver(chain);
+
+		return settings;
+	}
+
+	private ChainResolver chain(String... names) {
+		ChainResolver chain = new ChainResolver();
+		chain.setName("chain");
+
+		for (String name : names) {
+			URLResolver resolver = new URLResolver();
+			resolver.setName(name);
+			resolver.addArtifactPattern(getRoot(name) + PATTERN);
+			chain.add(resolver);
+		}
+
+		return chain;
+	}
+
+	private String getRoot(String name) {
+		return "failing".equals(name) ? "http://127.0.0.1:1/" : "http://" + name + "/";
+	}
+
+	private List<String> getNames(ChainResolver chain) {
+		List<String> names = new ArrayList<String>();
+		for (Object o : chain.getResolvers()) {
+			names.add(((DependencyResolver) o).getName());
+		}
+
+		return names;
+	}
+
+	private List<String> names(String... names) {
+		return Arrays.asList(names);
+	}
+
+	private void score(String root, double latency, double throughput, int failures) throws IOException {
+		props.setProperty(root + ".latency", Double.toString(latency));
+		props.setProperty(root + ".throughput", Double.toString(throughput));
+		props.setProperty(root + ".failures", Integer.toString(failures));
+		props.setProperty(root + ".probed", Long.toString(System.currentTimeMillis()));
+
+		OutputStream out = new FileOutputStream(scores);
+		try {
+			props.store(out, null);
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ * Poison Ivy - Java Library Dependency Resolver and Application Launcher 
+ *
+ * Copyright (C) 2014 Burton Alexander
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ * 
+ */
+package com.github.mrstampy.poisonivy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests the matching of libraries with their cached sources and the writing
+ * and reading of the manifest.
+ */
+public class ResolutionManifestTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File libdir;
+	private File cache;
+
+	@Before
+	public void before() throws IOException {
+		libdir = folder.newFolder("lib");
+		cache = folder.newFolder("cache");
+	}
+
+	@Test
+	public void testMatchByNameAndSize() throws IOException {
+		write(libdir, "a-1.0.jar", 10);
+		File a = write(cache, "a-1.0.jar", 10);
+		write(cache, "other.jar", 10);
+
+		Map<String, File> sources = ResolutionManifest.match(libdir, Arrays.asList(a, new File(cache, "other.jar")));
+
+		assertEquals(Collections.singletonMap("a-1.0.jar", a), sources);
+	}
+
+	@Test
+	public void testMatchByUniqueSize() throws IOException {
+		write(libdir, "a-1.0-tests.jar", 10);
+		File a = write(cache, "a-tests-1.0.jar", 10);
+		File b = write(cache, "b-1.0.jar", 20);
+
+		Map<String, File> sources = ResolutionManifest.match(libdir, Arrays.asList(a, b));
+
+		assertEquals(Collections.singletonMap("a-1.0-tests.jar", a), sources);
+	}
+
+	@Test
+	public void testAmbiguousSizeUnmatched() throws IOException {
+		write(libdir, "a.jar", 10);
+		File b = write(cache, "b.jar", 10);
+		File c = write(cache, "c.jar", 10);
+
+		assertTrue(ResolutionManifest.match(libdir, Arrays.asList(b, c)).isEmpty());
+	}
+
+	@Test
+	public void testManifestUnmatched() throws IOException {
+		ResolutionManifest.create("fingerprint", libdir).write(libdir);
+		File cached = new File(cache, ResolutionManifest.MANIFEST_FILE);
+		Files.copy(new File(libdir, ResolutionManifest.MANIFEST_FILE).toPath(), cached.toPath());
+
+		assertTrue(ResolutionManifest.match(libdir, Arrays.asList(cached)).isEmpty());
+	}
+
+	@Test
+	public void testWriteAndRead() throws IOException {
+		write(libdir, "a.jar", 10);
+		write(libdir, "b.jar", 20);
+		File source = write(cache, "a.jar", 10);
+
+		ResolutionManifest.create("fingerprint", libdir, Collections.singletonMap("a.jar", source)).write(libdir);
+
+		assertFalse(new File(libdir, ResolutionManifest.MANIFEST_FILE + ".tmp").exists());
+
+		ResolutionManifest manifest = ResolutionManifest.read(libdir);
+		assertEquals("fingerprint", manifest.getFingerprint());
+		assertEquals(2, manifest.getArtifacts().size());
+		assertEquals(source.getAbsoluteFile(), manifest.getArtifacts().get("a.jar").getSource());
+		assertEquals(Checksums.checksum(source), manifest.getArtifacts().get("a.jar").getChecksum());
+		assertNull(manifest.getArtifacts().get("b.jar").getSource());
+
+		assertTrue(manifest.isCurrent("fingerprint", libdir));
+		assertFalse(manifest.isCurrent("changed", libdir));
+
+		write(libdir, "b.jar", 21);
+		assertFalse(manifest.isCurrent("fingerprint", libdir));
+	}
+
+	@Test(expected = IOException.class)
+	public void testSourceOfDifferentSize() throws IOException {
+		write(libdir, "a.jar", 10);
+		File source = write(cache, "a.jar", 11);
+
+		ResolutionManifest.create("fingerprint", libdir, Collections.singletonMap("a.jar", source));
+	}
+
+	private File write(File dir, String name, int size) throws IOException {
+		byte[] b = new byte[size];
+		Arrays.fill(b, (byte) name.hashCode());
+
+		File file = new File(dir, name);
+		Files.write(file.toPath(), b);
+
+		return file;
+	}
+}